@@ -0,0 +1,117 @@
+package ca.ubc.cpsc210.benchmark;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.BusWaitTime;
+import ca.ubc.cpsc210.nextbus.model.WaitTimeTable;
+import ca.ubc.cpsc210.standin.SyntheticPayloads;
+
+/**
+ * Throughput of route lookup, wait time insertion, top-K reads of wait
+ * times and JSON conversion of a bus stop, for stops served by few and by
+ * many routes.  addWaitTimes inserts one estimate at a time, each copying
+ * the stop's snapshot; refreshThenTopK publishes a whole table at once as
+ * the parsers do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BusStopBenchmark {
+	private static final int STOP_NO = 51479;
+
+	@Param({ "2", "6", "20" })
+	public int routes;
+
+	@Param({ "6" })
+	public int schedulesPerRoute;
+
+	private BusStop stop;
+	private String[] routeNames;
+	private BusWaitTime[] waitTimes;
+	private int nextRoute;
+	private WaitTimeTable.Cursor cursor = new WaitTimeTable.Cursor();
+
+	@Setup
+	public void setUp() {
+		routeNames = new SyntheticPayloads(210).routeNames(STOP_NO, routes);
+
+		Set<BusRoute> busRoutes = new HashSet<BusRoute>();
+		for (String next : routeNames)
+			busRoutes.add(new BusRoute(next));
+		stop = new BusStop(STOP_NO, "UNIVERSITY BLVD AT W BROADWAY", 49.2612, -123.1139, busRoutes);
+
+		// estimates arrive grouped by route, each route's in increasing order
+		Random random = new Random(210);
+		waitTimes = new BusWaitTime[routes * schedulesPerRoute];
+		int i = 0;
+		for (String next : routeNames) {
+			BusRoute route = stop.getRouteNamed(next);
+			int countdown = random.nextInt(4) - 1;
+			for (int s = 0; s < schedulesPerRoute; s++) {
+				waitTimes[i++] = new BusWaitTime(route, countdown, random.nextInt(40) == 0);
+				countdown += 2 + random.nextInt(15);
+			}
+		}
+	}
+
+	@Benchmark
+	public BusRoute getRouteNamedHit() {
+		String name = routeNames[nextRoute];
+		nextRoute = (nextRoute + 1) % routeNames.length;
+		return stop.getRouteNamed(name);
+	}
+
+	@Benchmark
+	public BusRoute getRouteNamedMiss() {
+		return stop.getRouteNamed("N99");
+	}
+
+	@Benchmark
+	public BusStop addWaitTimes() {
+		stop.clearWaitTimes();
+		for (BusWaitTime next : waitTimes)
+			stop.addWaitTime(next);
+		return stop;
+	}
+
+	@Benchmark
+	public int refreshThenTopK() {
+		WaitTimeTable table = new WaitTimeTable();
+		for (BusWaitTime next : waitTimes)
+			table.add(next.getRoute(), next.getEstimate(), next.isCancelled());
+		stop.setWaitTimes(table);
+
+		int total = 0;
+		WaitTimeTable.Cursor next = stop.getWaitTimeTable().topK(6, cursor);
+		while (next.next())
+			total += next.getMinutes();
+		return total;
+	}
+
+	@Benchmark
+	public JSONObject toJSON() throws JSONException {
+		return stop.toJSON();
+	}
+}
@@ -0,0 +1,97 @@
+package ca.ubc.cpsc210.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.storage.FavouriteStopsBinarySerializer;
+import ca.ubc.cpsc210.nextbus.storage.FavouriteStopsJSONSerializer;
+import ca.ubc.cpsc210.standin.SyntheticPayloads;
+
+/**
+ * Throughput of reading and writing favourite stops in JSON and binary
+ * formats.  Files are replaced by in-memory readers and writers so that only
+ * serialization is measured.  Run with -prof gc to compare heap allocated
+ * per load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FavouritesSerializerBenchmark {
+
+	@Param({ "10", "1000", "100000" })
+	public int favourites;
+
+	@Param({ "JSON", "BINARY" })
+	public String format;
+
+	private List<BusStop> stops;
+	private String json;
+	private byte[] binary;
+
+	@Setup
+	public void setUp() throws JSONException, IOException {
+		SyntheticPayloads payloads = new SyntheticPayloads(210);
+		stops = new ArrayList<BusStop>();
+
+		for (int i = 0; i < favourites; i++) {
+			int stopNo = 50000 + i * 7;
+			Set<BusRoute> routes = new HashSet<BusRoute>();
+			for (String next : payloads.routeNames(stopNo, 1 + i % 6))
+				routes.add(new BusRoute(next));
+			stops.add(new BusStop(stopNo, "STOP " + stopNo, 49.2 + i * 1e-4, -123.1 - i * 1e-4, routes));
+		}
+
+		StringWriter writer = new StringWriter();
+		FavouriteStopsJSONSerializer.writeFavourites(stops, writer);
+		json = writer.toString();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FavouriteStopsBinarySerializer.writeFavourites(stops, out);
+		binary = out.toByteArray();
+	}
+
+	@Benchmark
+	public Object writeFavourites() throws JSONException, IOException {
+		if (format.equals("BINARY")) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(binary.length);
+			FavouriteStopsBinarySerializer.writeFavourites(stops, out);
+			return out.toByteArray();
+		}
+
+		StringWriter writer = new StringWriter(json.length());
+		FavouriteStopsJSONSerializer.writeFavourites(stops, writer);
+		return writer.toString();
+	}
+
+	@Benchmark
+	public List<BusStop> readFavourites() throws JSONException, IOException {
+		if (format.equals("BINARY"))
+			return FavouriteStopsBinarySerializer.readFavourites(binary);
+		return FavouriteStopsJSONSerializer.readFavourites(new StringReader(json));
+	}
+}
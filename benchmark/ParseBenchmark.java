@@ -0,0 +1,78 @@
+package ca.ubc.cpsc210.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.translink.AbstractTranslinkService.ParseMode;
+import ca.ubc.cpsc210.standin.SyntheticPayloads;
+
+/**
+ * Throughput of parsing stop, estimate and bus responses, in both parse modes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParseBenchmark {
+	private static final int STOP_NO = 51479;
+
+	@Param({ "SMALL", "TYPICAL", "LARGE" })
+	public PayloadSize size;
+
+	@Param({ "STREAMING", "TREE" })
+	public ParseMode parseMode;
+
+	private ParserHarness parser;
+	private String stopJSON;
+	private String estimatesJSON;
+	private String busesJSON;
+	private BusStop stop;
+
+	@Setup
+	public void setUp() throws JSONException {
+		SyntheticPayloads payloads = new SyntheticPayloads(210);
+		long now = System.currentTimeMillis();
+
+		stopJSON = payloads.stop(STOP_NO, size.getRoutes());
+		estimatesJSON = payloads.estimates(STOP_NO, size.getRoutes(), size.getSchedulesPerRoute(), now);
+		busesJSON = payloads.buses(STOP_NO, size.getRoutes(), size.getBuses(), now);
+
+		parser = new ParserHarness();
+		parser.setParseMode(parseMode);
+		stop = parser.parseStop(stopJSON);
+	}
+
+	@Benchmark
+	public BusStop parseBusStop() throws JSONException {
+		return parser.parseStop(stopJSON);
+	}
+
+	@Benchmark
+	public BusStop parseWaitTimes() throws JSONException {
+		stop.clearWaitTimes();
+		parser.parseWaitTimes(estimatesJSON, stop);
+		return stop;
+	}
+
+	@Benchmark
+	public BusStop parseBuses() throws JSONException {
+		stop.clearBuses();
+		parser.parseBuses(busesJSON, stop);
+		return stop;
+	}
+}
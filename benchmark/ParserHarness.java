@@ -0,0 +1,40 @@
+package ca.ubc.cpsc210.benchmark;
+
+import org.json.JSONException;
+
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.translink.AbstractTranslinkService;
+
+/**
+ * Exposes the response parsers of AbstractTranslinkService without any
+ * network access.  Service methods are not supported.
+ */
+class ParserHarness extends AbstractTranslinkService {
+
+	BusStop parseStop(String input) throws JSONException {
+		return parseBusStopFromJSON(input);
+	}
+
+	void parseWaitTimes(String input, BusStop stop) throws JSONException {
+		parseWaitTimesFromJSON(input, stop);
+	}
+
+	void parseBuses(String input, BusStop stop) throws JSONException {
+		parseBusesFromJSON(input, stop);
+	}
+
+	@Override
+	public BusStop getBusStop(String stopNum) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void addWaitTimeEstimatesToStop(BusStop stop) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void addBusLocationsForStop(BusStop stop) {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,46 @@
+package ca.ubc.cpsc210.benchmark;
+
+/**
+ * Sizes of synthetic Translink responses used by benchmarks.  TYPICAL is
+ * about what a busy downtown stop returns; LARGE is a major exchange at
+ * rush hour.
+ */
+public enum PayloadSize {
+	SMALL(2, 3, 3),
+	TYPICAL(6, 6, 15),
+	LARGE(20, 12, 60);
+
+	private final int routes;
+	private final int schedulesPerRoute;
+	private final int buses;
+
+	private PayloadSize(int routes, int schedulesPerRoute, int buses) {
+		this.routes = routes;
+		this.schedulesPerRoute = schedulesPerRoute;
+		this.buses = buses;
+	}
+
+	/**
+	 * Gets number of routes serving stop
+	 * @return  number of routes
+	 */
+	public int getRoutes() {
+		return routes;
+	}
+
+	/**
+	 * Gets number of estimates for each route
+	 * @return  number of estimates per route
+	 */
+	public int getSchedulesPerRoute() {
+		return schedulesPerRoute;
+	}
+
+	/**
+	 * Gets number of buses serving stop
+	 * @return  number of buses
+	 */
+	public int getBuses() {
+		return buses;
+	}
+}
@@ -0,0 +1,90 @@
+package ca.ubc.cpsc210.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.StopSearchIndex;
+
+/**
+ * Time taken by StopSearchIndex to answer one keystroke's query, for queries
+ * typical of typing a stop number, a common street and a rare combination
+ * of words, and time taken to build the index.  Stop descriptions are
+ * generated in the form of RTTI stop names, e.g. "WB W BROADWAY FS
+ * GRANVILLE ST".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StopSearchIndexBenchmark {
+	private static final String[] DIRECTIONS = { "EB", "WB", "NB", "SB" };
+	private static final String[] POSITIONS = { "AT", "FS", "NS" };
+	private static final String[] STREETS = { "W BROADWAY", "E BROADWAY", "GRANVILLE ST",
+			"MAIN ST", "KINGSWAY", "COMMERCIAL DR", "E HASTINGS ST", "W HASTINGS ST", "DUNBAR ST",
+			"W 4TH AVE", "W 10TH AVE", "W 16TH AVE", "W 41ST AVE", "E 49TH AVE", "OAK ST",
+			"CAMBIE ST", "FRASER ST", "KNIGHT ST", "VICTORIA DR", "NANAIMO ST", "RENFREW ST",
+			"BOUNDARY RD", "MACDONALD ST", "ARBUTUS ST", "BURRARD ST", "DAVIE ST", "DENMAN ST",
+			"ROBSON ST", "GEORGIA ST", "PENDER ST", "MARINE DR", "SW MARINE DR", "UNIVERSITY BLVD",
+			"WESTMINSTER HWY", "NO 3 RD", "LOUGHEED HWY", "WILLINGDON AVE", "CANADA WAY",
+			"SCOTT RD", "KING GEORGE BLVD" };
+
+	@Param({ "10000", "50000" })
+	public int stops;
+
+	@Param({ "5", "514", "W", "W BROAD", "KNIGHT ST FS E 49", "UBC LOOP BAY" })
+	public String query;
+
+	@Param({ "8" })
+	public int k;
+
+	private List<BusStop> allStops;
+	private StopSearchIndex index;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(210);
+		allStops = new ArrayList<BusStop>(stops);
+		for (int i = 0; i < stops; i++) {
+			String name;
+			if (i % 500 == 0)
+				name = "UBC LOOP BAY " + (1 + i / 500 % 12);
+			else
+				name = DIRECTIONS[random.nextInt(DIRECTIONS.length)] + " "
+						+ STREETS[random.nextInt(STREETS.length)] + " "
+						+ POSITIONS[random.nextInt(POSITIONS.length)] + " "
+						+ STREETS[random.nextInt(STREETS.length)];
+			allStops.add(new BusStop(50000 + i, name, 49.2612, -123.1139, new HashSet<BusRoute>()));
+		}
+
+		index = new StopSearchIndex(allStops);
+	}
+
+	@Benchmark
+	public StopSearchIndex build() {
+		return new StopSearchIndex(allStops);
+	}
+
+	@Benchmark
+	public List<StopSearchIndex.Match> search() {
+		return index.search(query, k);
+	}
+}
@@ -0,0 +1,157 @@
+package ca.ubc.cpsc210.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.StopSpatialIndex;
+import ca.ubc.cpsc210.nextbus.util.GeoMath;
+import ca.ubc.cpsc210.nextbus.util.LatLon;
+
+/**
+ * Time taken by nearest and radius queries on a StopSpatialIndex, compared
+ * with a linear scan of every stop, and time taken to build the index.
+ * Stops and query points are scattered at random over Metro Vancouver.
+ * Reported as average time per operation, since the target is a query
+ * time well under a millisecond.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StopSpatialIndexBenchmark {
+	private static final double SOUTH = 49.0;
+	private static final double NORTH = 49.4;
+	private static final double WEST = -123.3;
+	private static final double EAST = -122.5;
+	private static final int NUM_QUERIES = 256;
+
+	@Param({ "1000", "10000", "50000" })
+	public int stops;
+
+	@Param({ "10" })
+	public int k;
+
+	@Param({ "500" })
+	public double radius;
+
+	private List<BusStop> allStops;
+	private StopSpatialIndex index;
+	private LatLon[] queries;
+	private int nextQuery;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(210);
+		allStops = new ArrayList<BusStop>(stops);
+		for (int i = 0; i < stops; i++) {
+			allStops.add(new BusStop(50000 + i, "STOP " + i, randomLat(random), randomLon(random),
+					new HashSet<BusRoute>()));
+		}
+
+		index = new StopSpatialIndex(allStops);
+
+		queries = new LatLon[NUM_QUERIES];
+		for (int i = 0; i < NUM_QUERIES; i++)
+			queries[i] = new LatLon(randomLat(random), randomLon(random));
+	}
+
+	@Benchmark
+	public StopSpatialIndex build() {
+		return new StopSpatialIndex(allStops);
+	}
+
+	@Benchmark
+	public List<BusStop> nearestIndexed() {
+		return index.nearest(nextQuery(), k);
+	}
+
+	@Benchmark
+	public List<BusStop> nearestLinearScan() {
+		LatLon centre = nextQuery();
+		final double[] distances = distancesTo(centre);
+		Integer[] order = new Integer[distances.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(distances[a], distances[b]);
+			}
+		});
+
+		List<BusStop> result = new ArrayList<BusStop>(k);
+		for (int i = 0; i < Math.min(k, order.length); i++)
+			result.add(allStops.get(order[i]));
+		return result;
+	}
+
+	@Benchmark
+	public List<BusStop> withinRadiusIndexed() {
+		return index.withinRadius(nextQuery(), radius);
+	}
+
+	@Benchmark
+	public List<BusStop> withinRadiusLinearScan() {
+		LatLon centre = nextQuery();
+		final double[] distances = distancesTo(centre);
+		List<Integer> found = new ArrayList<Integer>();
+		for (int i = 0; i < distances.length; i++) {
+			if (distances[i] <= radius)
+				found.add(i);
+		}
+		Collections.sort(found, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(distances[a], distances[b]);
+			}
+		});
+
+		List<BusStop> result = new ArrayList<BusStop>(found.size());
+		for (Integer next : found)
+			result.add(allStops.get(next));
+		return result;
+	}
+
+	private double[] distancesTo(LatLon centre) {
+		double[] distances = new double[allStops.size()];
+		for (int i = 0; i < distances.length; i++)
+			distances[i] = GeoMath.distance(centre, allStops.get(i).getLatLon());
+		return distances;
+	}
+
+	private LatLon nextQuery() {
+		LatLon query = queries[nextQuery];
+		nextQuery = (nextQuery + 1) % NUM_QUERIES;
+		return query;
+	}
+
+	private static double randomLat(Random random) {
+		return SOUTH + random.nextDouble() * (NORTH - SOUTH);
+	}
+
+	private static double randomLon(Random random) {
+		return WEST + random.nextDouble() * (EAST - WEST);
+	}
+}
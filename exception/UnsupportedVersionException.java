@@ -0,0 +1,11 @@
+package ca.ubc.cpsc210.exception;
+
+import java.io.IOException;
+
+@SuppressWarnings("serial")
+public class UnsupportedVersionException extends IOException {
+
+	public UnsupportedVersionException(String message) {
+		super(message);
+	}
+}
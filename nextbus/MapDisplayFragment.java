@@ -1,7 +1,6 @@
 package ca.ubc.cpsc210.nextbus;
 
 import java.util.ArrayList;
-import java.util.List;
 
 import org.osmdroid.DefaultResourceProxyImpl;
 import org.osmdroid.ResourceProxy;
@@ -27,11 +26,14 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import ca.ubc.cpsc210.exception.TranslinkException;
-import ca.ubc.cpsc210.nextbus.model.Bus;
+import ca.ubc.cpsc210.nextbus.model.BusFleetSnapshot;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
 import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.SnapshotDiff;
+import ca.ubc.cpsc210.nextbus.model.StopSnapshot;
 import ca.ubc.cpsc210.nextbus.translink.ITranslinkService;
-import ca.ubc.cpsc210.nextbus.translink.TranslinkService;
-import ca.ubc.cpsc210.nextbus.util.LatLon;
+import ca.ubc.cpsc210.nextbus.translink.TranslinkServiceFactory;
+import ca.ubc.cpsc210.nextbus.util.FixedLatLon;
 import ca.ubc.cpsc210.nextbus.util.TextOverlay;
 
 
@@ -43,6 +45,7 @@ public class MapDisplayFragment extends Fragment {
 	 * Log tag for LogCat messages
 	 */
 	private final static String LOG_TAG = "MapDisplayFragment";
+	private final static BusFleetSnapshot NO_BUSES = new BusFleetSnapshot();
 
 	/**
 	 * Location of Nelson & Granville, downtown Vancouver
@@ -92,6 +95,17 @@ public class MapDisplayFragment extends Fragment {
 	 */
 	private boolean zoomToFit;
 
+	/**
+	 * Stop whose buses are plotted, version of its snapshot when plotted,
+	 * buses plotted and overlay item plotted for each (by index)
+	 */
+	private BusStop plottedStop;
+	private long plottedVersion;
+	private BusFleetSnapshot plottedBuses = NO_BUSES;
+	private OverlayItem[] plottedItems = new OverlayItem[0];
+	private final BusOverlayUpdater overlayUpdater = new BusOverlayUpdater();
+	private final SnapshotDiff busDiff = new SnapshotDiff();
+
 	/**
 	 * Set up Translink service
 	 */
@@ -102,7 +116,7 @@ public class MapDisplayFragment extends Fragment {
 
 		setHasOptionsMenu(true);
 
-		tlService = new TranslinkService(getActivity());
+		tlService = TranslinkServiceFactory.getInstance(getActivity());
 
 		Log.d(LOG_TAG, "Stop number for mapping: " + (selectedStop == null ? "not set" : selectedStop.getStopNum()));
 	
@@ -219,7 +233,13 @@ public class MapDisplayFragment extends Fragment {
 		this.zoomToFit = zoomToFit;
 
 		if(selectedStop != null) {
-			new GetBusInfo().execute(selectedStop);
+			// show last known positions, flagged as stale, while fetching current ones
+			boolean restored = selectedStop.getSnapshot().isBusesRestored();
+			if (restored) {
+				plotBuses(zoomToFit);
+				plotBusStop();
+			}
+			new GetBusInfo(!restored).execute(selectedStop);
 		}
 
 		mapView.invalidate();
@@ -333,9 +353,8 @@ public class MapDisplayFragment extends Fragment {
 	 * Plot bus stop
 	 */
 	private void plotBusStop() {
-		LatLon latlon = selectedStop.getLatLon();
-		GeoPoint point = new GeoPoint(latlon.getLatitude(),
-				latlon.getLongitude());
+		FixedLatLon latlon = selectedStop.getFixedLatLon();
+		GeoPoint point = new GeoPoint(latlon.getLatitudeE6(), latlon.getLongitudeE6());
 		OverlayItem overlayItem = new OverlayItem(Integer.valueOf(selectedStop.getStopNum()).toString(), 
 				selectedStop.getLocationDesc(), point);
 		busStopLocationOverlay.removeAllItems(); // make sure not adding
@@ -344,72 +363,95 @@ public class MapDisplayFragment extends Fragment {
 	}
 
 	/**
-	 * Plot buses onto bus location overlay
+	 * Plot buses onto bus location overlay.  Buses are not replotted if they
+	 * have not changed since last plotted and map need not be zoomed.  When
+	 * buses of the same stop are replotted, only buses that were added,
+	 * removed or have changed are updated on the overlay.
 	 * 
 	 * @param zoomToFit  determines if map should be zoomed to bounds of plotted buses
 	 */
 	private void plotBuses(boolean zoomToFit) {
-		//selectedStop.clearBuses();
-		List<Bus> buses = selectedStop.getBuses();
-		 
-		double maxlat =  buses.get(0).getLatLon().getLatitude();
-		double maxlon = buses.get(0).getLatLon().getLongitude();
-		double minlat =  buses.get(0).getLatLon().getLatitude();
-		double minlon = buses.get(0).getLatLon().getLongitude();
-		busLocnOverlay.removeAllItems();
-
-		for (Bus b : buses){
-			
-			GeoPoint buspoint = new GeoPoint(b.getLatLon().getLatitude(),b.getLatLon().getLongitude());
-			String busname = b.getRoute().getName();
-			String description = b.getDescription();
-			OverlayItem bus = new OverlayItem(busname,description,buspoint); 
-			bus.setMarker(getResources().getDrawable(R.drawable.bus));
-			busLocnOverlay.addItem(bus);
-			
+		StopSnapshot snapshot = selectedStop.getSnapshot();
+		if (!zoomToFit && selectedStop == plottedStop && snapshot.getVersion() == plottedVersion)
+			return;
+
+		BusFleetSnapshot buses = snapshot.getBuses();
+		if (selectedStop != plottedStop) {
+			busLocnOverlay.removeAllItems();
+			plottedBuses = NO_BUSES;
 		}
-		
-		
-		if (zoomToFit){
-			
-			for (Bus b : buses){
-				if (b.getLatLon().getLatitude() > maxlat){
-					maxlat = b.getLatLon().getLatitude();
-				}
-			}
-			
-			for (Bus b : buses){
-				if (b.getLatLon().getLongitude() > maxlon){
-					maxlon = b.getLatLon().getLongitude();
-				}
-			}
-			for (Bus b : buses){
-				if (b.getLatLon().getLatitude() < minlat){
-					minlat = b.getLatLon().getLatitude();
-				}
-			}
-			
-			for (Bus b : buses){
-				if (b.getLatLon().getLongitude() < minlon){
-					minlon = b.getLatLon().getLongitude();
-				}
-			}
-			
-			GeoPoint latest = new GeoPoint((maxlat+minlat)/2,(maxlon+minlon)/2);
-			int spanlat = (int)((maxlat-minlat)*1E6);
-			int spanlon = (int)((maxlon-minlon)*1E6);
+
+		overlayUpdater.start(buses.size());
+		busDiff.diffBuses(plottedBuses, buses, overlayUpdater);
+
+		plottedStop = selectedStop;
+		plottedVersion = snapshot.getVersion();
+		plottedBuses = buses;
+		plottedItems = overlayUpdater.items;
+
+		// bounding box is maintained by snapshot, so no pass over buses is needed
+		if (zoomToFit && !buses.isEmpty()) {
+			FixedLatLon centre = buses.getCentreE6();
+			GeoPoint latest = new GeoPoint(centre.getLatitudeE6(), centre.getLongitudeE6());
+			int spanlat = buses.getLatitudeSpanE6();
+			int spanlon = buses.getLongitudeSpanE6();
 			mapController.animateTo(latest);
 			mapController.setCenter(latest);
 			mapController.zoomToSpan(spanlat, spanlon);
-			
-			
-			}
-			
 		}
-		
-		
-	
+	}
+
+	/**
+	 * Create overlay item for bus
+	 * @param buses  the buses
+	 * @param index  index of bus
+	 * @return  overlay item showing bus at its location
+	 */
+	private OverlayItem createBusItem(BusFleetSnapshot buses, int index) {
+		GeoPoint buspoint = new GeoPoint(buses.getLatitudeE6(index), buses.getLongitudeE6(index));
+		BusRoute route = buses.getRoute(index);
+		String busname = (route == null ? "" : route.getName());
+		String description = buses.getDescription(index);
+		OverlayItem bus = new OverlayItem(busname, description, buspoint);
+		bus.setMarker(getResources().getDrawable(R.drawable.bus));
+		return bus;
+	}
+
+	/**
+	 * Applies differences between plotted buses and current buses to bus
+	 * location overlay, keeping items of buses that have not changed
+	 */
+	private class BusOverlayUpdater implements SnapshotDiff.BusListener {
+		private OverlayItem[] items;
+
+		void start(int numBuses) {
+			items = new OverlayItem[numBuses];
+		}
 
+		@Override
+		public void busAdded(BusFleetSnapshot after, int index) {
+			items[index] = createBusItem(after, index);
+			busLocnOverlay.addItem(items[index]);
+		}
+
+		@Override
+		public void busRemoved(BusFleetSnapshot before, int index) {
+			busLocnOverlay.removeItem(plottedItems[index]);
+		}
+
+		@Override
+		public void busChanged(BusFleetSnapshot before, int beforeIndex,
+				BusFleetSnapshot after, int afterIndex) {
+			busRemoved(before, beforeIndex);
+			busAdded(after, afterIndex);
+		}
+
+		@Override
+		public void busUnchanged(BusFleetSnapshot before, int beforeIndex,
+				BusFleetSnapshot after, int afterIndex) {
+			items[afterIndex] = plottedItems[beforeIndex];
+		}
+	}
 
 	/**
 	 * Helper to create simple alert dialog to display message
@@ -428,15 +470,23 @@ public class MapDisplayFragment extends Fragment {
 
 	/** 
 	 * Asynchronous task to get bus location estimates from Translink service.
-	 * Displays progress dialog while running in background.  
+	 * Displays progress dialog while running in background, unless told not
+	 * to because last known locations are already plotted.
 	 */
 	private class GetBusInfo extends
 			AsyncTask<BusStop, Void, Void> {
 		private ProgressDialog dialog = new ProgressDialog(getActivity());
+		private boolean showProgress;
 		private boolean success = true;
 
+		GetBusInfo(boolean showProgress) {
+			this.showProgress = showProgress;
+		}
+
 		@Override
 		protected void onPreExecute() {
+			if (!showProgress)
+				return;
 			dialog.setMessage("Retrieving bus info...");
 			dialog.show();
 		}
@@ -457,7 +507,8 @@ public class MapDisplayFragment extends Fragment {
 
 		@Override
 		protected void onPostExecute(Void dummy) {
-			dialog.dismiss();
+			if (showProgress)
+				dialog.dismiss();
 
 			if (success) {
 				
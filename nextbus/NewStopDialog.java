@@ -1,49 +1,129 @@
 package ca.ubc.cpsc210.nextbus;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.DialogFragment;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
 import android.view.WindowManager;
+import android.widget.AdapterView;
+import android.widget.AdapterView.OnItemClickListener;
+import android.widget.ArrayAdapter;
 import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.ListView;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.FavouriteStops;
+import ca.ubc.cpsc210.nextbus.model.StopSearchIndex;
+import ca.ubc.cpsc210.nextbus.storage.StopCatalogue;
+import ca.ubc.cpsc210.nextbus.translink.TranslinkServiceFactory;
 
 /**
  * A Dialog that allows the user to enter a bus stop number. Used when adding a
- * new bus stop to the list of stops.
+ * new bus stop to the list of stops.  As the user types, stops whose number
+ * or description matches are suggested below; picking one selects its number.
  */
 public class NewStopDialog extends DialogFragment {
+	private static final int MAX_SUGGESTIONS = 8;
+
+	// index outlives the dialog; rebuilt when favourites change
+	private static StopSearchIndex searchIndex;
+	private static int indexedFavourites = -1;
+
 	private String selectedStop;
+	private EditText stopText;
+	private ArrayAdapter<StopSearchIndex.Match> suggestions;
 
 	@Override
 	public Dialog onCreateDialog(Bundle savedInstanceState) {
 		final View v = getActivity().getLayoutInflater().inflate(
 				R.layout.add_stop, null);
-		
+		stopText = (EditText) v.findViewById(R.id.edit_stop);
+
+		suggestions = new ArrayAdapter<StopSearchIndex.Match>(getActivity(),
+				android.R.layout.simple_list_item_1, new ArrayList<StopSearchIndex.Match>());
+		ListView suggestionList = new ListView(getActivity());
+		suggestionList.setAdapter(suggestions);
+		suggestionList.setOnItemClickListener(new OnItemClickListener() {
+			@Override
+			public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+				StopSearchIndex.Match match = suggestions.getItem(position);
+				selectedStop = Integer.toString(match.getStopNum());
+				sendResult(Activity.RESULT_OK);
+				dismiss();
+			}
+		});
+
+		stopText.addTextChangedListener(new TextWatcher() {
+			@Override
+			public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+			}
+
+			@Override
+			public void onTextChanged(CharSequence s, int start, int before, int count) {
+			}
+
+			@Override
+			public void afterTextChanged(Editable s) {
+				showSuggestions();
+			}
+		});
+
+		LinearLayout layout = new LinearLayout(getActivity());
+		layout.setOrientation(LinearLayout.VERTICAL);
+		layout.addView(v);
+		layout.addView(suggestionList);
+
 		AlertDialog dialog = new AlertDialog.Builder(getActivity())
-				.setView(v)
+				.setView(layout)
 				.setTitle(R.string.add_stop_title)
 				.setPositiveButton(android.R.string.ok, new OnClickListener() {
 					@Override
 					public void onClick(DialogInterface dialog, int which) {
-						EditText et = (EditText) v.findViewById(R.id.edit_stop);
-						selectedStop = et.getText().toString();
+						selectedStop = stopText.getText().toString();
 						sendResult(Activity.RESULT_OK);
 					}
 				})
 				.setNegativeButton(android.R.string.cancel, null)
 				.create();
-		
+
 		dialog.show();
 		dialog.getWindow().setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_STATE_ALWAYS_VISIBLE);
-		
+
+		FavouriteStops favourites = FavouriteStops.getInstance(getActivity());
+		if (searchIndex == null || indexedFavourites != favourites.getModificationCount()) {
+			indexedFavourites = favourites.getModificationCount();
+			new BuildSearchIndex(new ArrayList<BusStop>(favourites.getFavourites()),
+					TranslinkServiceFactory.getStopCatalogue(getActivity())).execute();
+		}
+
 		return dialog;
 	}
 
+	/**
+	 * Replace suggestions with stops matching text entered so far; searching
+	 * takes microseconds, so is done on the UI thread
+	 */
+	private void showSuggestions() {
+		suggestions.clear();
+		if (searchIndex == null)
+			return;
+
+		for (StopSearchIndex.Match next : searchIndex.search(stopText.getText().toString(),
+				MAX_SUGGESTIONS))
+			suggestions.add(next);
+	}
+
 	/**
 	 * Sends result to target activity when user presses OK button
 	 * @param resultCode  the result code
@@ -57,4 +137,35 @@ public class NewStopDialog extends DialogFragment {
 		getTargetFragment().onActivityResult(getTargetRequestCode(),
 				resultCode, i);
 	}
+
+	/**
+	 * Asynchronous task that indexes favourite stops and the stops of the
+	 * stop catalogue, if there is one, for suggestions
+	 */
+	private class BuildSearchIndex extends AsyncTask<Void, Void, StopSearchIndex> {
+		private List<BusStop> favourites;
+		private StopCatalogue catalogue;
+
+		BuildSearchIndex(List<BusStop> favourites, StopCatalogue catalogue) {
+			this.favourites = favourites;
+			this.catalogue = catalogue;
+		}
+
+		@Override
+		protected StopSearchIndex doInBackground(Void... params) {
+			List<BusStop> stops = new ArrayList<BusStop>(favourites);
+			if (catalogue != null) {
+				for (int i = 0; i < catalogue.size(); i++)
+					stops.add(catalogue.getBusStopAt(i));
+			}
+			return new StopSearchIndex(stops);
+		}
+
+		@Override
+		protected void onPostExecute(StopSearchIndex index) {
+			searchIndex = index;
+			if (stopText != null)
+				showSuggestions();
+		}
+	}
 }
@@ -66,14 +66,12 @@ public class StopListActivity extends FragmentActivity implements StopListFragme
 	}
 	
 	@Override
-	public void onStopSelection(int position) {
+	public void onStopSelection(BusStop stop) {
 		FragmentManager fm = getSupportFragmentManager();
 		MapDisplayFragment mapFragment = (MapDisplayFragment) fm.findFragmentByTag(MAP_FRAG);
-		FavouriteStops favs = FavouriteStops.getInstance(this);
-		favs.setIndexOfSelected(position);
 		
 		if(mapFragment != null) {
-			mapFragment.setBusStop(favs.getSelectedStop());
+			mapFragment.setBusStop(stop);
 			mapFragment.update(true);
 		}
 	}
@@ -96,6 +94,20 @@ public class StopListActivity extends FragmentActivity implements StopListFragme
 		}
 	}
 	
+	@Override
+	public void refreshStopInfo(Bundle args) {
+		View v = findViewById(R.id.wait_times_container);
+		
+		// in single-pane layout wait times are shown in a dialog on request only
+		if(v != null) {
+			BusStop selectedStop = FavouriteStops.getInstance(this).getSelectedStop();
+			TextView title = (TextView) v.findViewById(R.id.bus_wait_times_title);
+			title.setText("Next Bus: " + selectedStop.getStopNum());
+			TextView tv = (TextView) v.findViewById(R.id.bus_wait_times); 
+			tv.setText(args.getString("wait times"));
+		}
+	}
+	
 	@Override
 	public boolean onOptionsItemSelected(MenuItem item) {
 		switch (item.getItemId()) {
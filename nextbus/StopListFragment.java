@@ -1,7 +1,9 @@
 package ca.ubc.cpsc210.nextbus;
 
-import java.util.ArrayList;
-import java.util.Set;
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
@@ -21,33 +23,52 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
 import ca.ubc.cpsc210.exception.TranslinkException;
 import ca.ubc.cpsc210.nextbus.model.BusStop;
-import ca.ubc.cpsc210.nextbus.model.BusWaitTime;
 import ca.ubc.cpsc210.nextbus.model.FavouriteStops;
+import ca.ubc.cpsc210.nextbus.model.SnapshotDiff;
+import ca.ubc.cpsc210.nextbus.model.StopSnapshot;
+import ca.ubc.cpsc210.nextbus.model.WaitTimeTable;
+import ca.ubc.cpsc210.nextbus.storage.LastKnownDataCache;
+import ca.ubc.cpsc210.nextbus.translink.BatchResult;
 import ca.ubc.cpsc210.nextbus.translink.ITranslinkService;
-import ca.ubc.cpsc210.nextbus.translink.TranslinkService;
+import ca.ubc.cpsc210.nextbus.translink.TranslinkServiceFactory;
+import ca.ubc.cpsc210.nextbus.translink.WaitTimeRefreshScheduler;
 
 public class StopListFragment extends ListFragment {
 
 	public static final String NEW_STOP_ARG = "new_stop_arg";
 	private static final String NEW_STOP_TAG = "new_stop";
 	private static final int REQUEST_STOP = 0;
-	private ArrayAdapter<BusStop> adapter;
+	private static final int MAX_ESTIMATES = 6;
+	private StopListAdapter adapter;
 	private FavouriteStops selectedStops;
 	private BusStop selectedStop;
 	private ITranslinkService tlService;
+	private WaitTimeRefreshScheduler refreshScheduler;
 	private Callbacks callbacks;
+	private BusStop displayedStop;
+	private long displayedVersion;
+	private WaitTimeTable displayedWaitTimes;
+	private final SnapshotDiff waitTimeDiff = new SnapshotDiff();
+	private final DisplayedRowWatcher displayedRowWatcher = new DisplayedRowWatcher();
 	
 	/**
 	 * Callbacks to be implemented by parent activity.
 	 */
 	public static interface Callbacks {
-		public void onStopSelection(int position);
+		public void onStopSelection(BusStop stop);
 		public void updateStopInfo(Bundle args);
+		
+		/**
+		 * Called when wait times for selected stop have been refreshed
+		 * automatically or restored from last known data; only wait times
+		 * already on screen should be updated.
+		 */
+		public void refreshStopInfo(Bundle args);
 	}
 
 	@TargetApi(11)
@@ -58,10 +79,17 @@ public class StopListFragment extends ListFragment {
 
 		selectedStops = FavouriteStops.getInstance(getActivity());
 		selectedStop = null;
-		adapter = new StopListAdapter(selectedStops.getFavourites());
+		adapter = new StopListAdapter();
 		setListAdapter(adapter);
 		
-		tlService = new TranslinkService(getActivity());
+		tlService = TranslinkServiceFactory.getInstance(getActivity());
+		refreshScheduler = new WaitTimeRefreshScheduler(tlService, new AutoRefreshListener());
+
+		List<BusStop> favs = selectedStops.getFavourites();
+		BusStop[] favStops = favs.toArray(new BusStop[favs.size()]);
+		new RestoreLastKnownData(TranslinkServiceFactory.getLastKnownDataCache(getActivity()))
+				.execute(favStops);
+		new RefreshFavourites().execute(favStops);
 	}
 
 	@Override
@@ -92,12 +120,25 @@ public class StopListFragment extends ListFragment {
 		super.onDetach();
 	}
 
+	@Override
+	public void onResume() {
+		super.onResume();
+		refreshScheduler.resume();
+	}
+
 	@Override
 	public void onPause() {
 		super.onPause();
+		refreshScheduler.pause();
 		selectedStops.saveFavourites();
 	}
 
+	@Override
+	public void onDestroy() {
+		refreshScheduler.shutdown();
+		super.onDestroy();
+	}
+
 	@Override
 	public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
 		super.onCreateOptionsMenu(menu, inflater);
@@ -151,6 +192,7 @@ public class StopListFragment extends ListFragment {
 		BusStop toRemove 
 				= (BusStop) getListView().getItemAtPosition(info.position);
 		selectedStops.removeStop(toRemove);
+		refreshScheduler.unwatch(toRemove);
 		adapter.notifyDataSetChanged();
 		return true;
 	}
@@ -167,19 +209,81 @@ public class StopListFragment extends ListFragment {
 	@Override
 	public void onListItemClick(ListView l, View v, int position, long id) {
 		super.onListItemClick(l, v, position, id);
-		selectedStop = ((StopListAdapter) getListAdapter()).getItem(position);
-		callbacks.onStopSelection(position);
+		if (selectedStop != null)
+			refreshScheduler.unwatch(selectedStop);
+		selectedStop = adapter.getItem(position);
+		selectedStops.setSelectedStop(selectedStop);
+		callbacks.onStopSelection(selectedStop);
 		updateBusInfoAtSelectedStop();
 	}
 	
 	/**
-	 * Update bus wait time estimates for selected stop
+	 * Update bus wait time estimates for selected stop.  If stop has wait
+	 * times restored from last known data, they are shown straight away while
+	 * estimates are fetched in the background; otherwise a progress dialog is
+	 * shown until estimates arrive.
 	 */
 	void updateBusInfoAtSelectedStop() {
-		if(selectedStop != null)
-			new GetBusWaitTimes().execute(selectedStop);	
+		if(selectedStop == null)
+			return;
+
+		boolean restored = selectedStop.getSnapshot().isWaitTimesRestored();
+		if (restored)
+			callbacks.updateStopInfo(waitTimeArguments(selectedStop));
+		new GetBusWaitTimes(!restored).execute(selectedStop);
 	}
 	
+	/**
+	 * Produces a string representation of at most MAX_ESTIMATES wait time 
+	 * estimates, one per line.  Uses BusWaitTime's toString method to
+	 * get string representation of each wait time.  List is sorted
+	 * from shortest to longest wait time. If no buses are expected,
+	 * returns "No buses expected".
+	 * 
+	 * @param waitTimes  table of wait times
+	 * @return string representation of wait times for bus at this stop
+	 */
+	private String waitTimesToString(WaitTimeTable waitTimes) {
+		final String NONE_EXPECTED = "No buses expected";
+		StringBuilder str = new StringBuilder();
+
+		WaitTimeTable.Cursor next = waitTimes.topK(MAX_ESTIMATES, new WaitTimeTable.Cursor());
+		while (next.next()) {
+			str.append(next.toString()).append("\n");
+		}
+		
+		if( str.length() == 0 )
+			return NONE_EXPECTED;
+		else
+			return str.toString();
+	}
+
+	/**
+	 * Produces arguments describing wait times at a stop, for display
+	 * by parent activity, and remembers version of wait times displayed.
+	 * Must be called on UI thread.
+	 * @param stop  the stop
+	 * @return  arguments holding title and wait times
+	 */
+	private Bundle waitTimeArguments(BusStop stop) {
+		StopSnapshot snapshot = stop.getSnapshot();
+		displayedStop = stop;
+		displayedVersion = snapshot.getVersion();
+		displayedWaitTimes = snapshot.getWaitTimes();
+
+		String waitTimes = waitTimesToString(snapshot.getWaitTimes());
+		if (snapshot.isWaitTimesRestored()) {
+			String fetched = DateFormat.getTimeInstance(DateFormat.SHORT).format(
+					new Date(snapshot.getWaitTimesFetchTime()));
+			waitTimes = "As of " + fetched + ", updating...\n" + waitTimes;
+		}
+
+		Bundle arguments = new Bundle();
+		arguments.putString("wait times", waitTimes);
+		arguments.putString("title", stop.getLocationDesc() + " next bus...");
+		return arguments;
+	}
+
 	/**
 	 * Helper to create simple AlertDialog that displays a message
 	 * @param msg  the message to display
@@ -195,16 +299,26 @@ public class StopListFragment extends ListFragment {
 
 	/** 
 	 * Asynchronous task to get bus wait time estimates from Translink service.
-	 * Displays progress dialog while running in background.  
+	 * Estimates for all stops passed to the task are requested in parallel;
+	 * the first stop is the one whose estimates are displayed.
+	 * Displays progress dialog while running in background, unless told
+	 * not to because last known estimates are already displayed.
 	 */
 	private class GetBusWaitTimes extends
 			AsyncTask<BusStop, Void, Void> {
 		private ProgressDialog dialog = new ProgressDialog(getActivity());
+		private boolean showProgress;
 		private BusStop selectedStop;
 		private String exceptionMsg = null;
 
+		GetBusWaitTimes(boolean showProgress) {
+			this.showProgress = showProgress;
+		}
+
 		@Override
 		protected void onPreExecute() {
+			if (!showProgress)
+				return;
 			dialog.setMessage("Retrieving bus info...");
 			dialog.show();
 		}
@@ -213,9 +327,9 @@ public class StopListFragment extends ListFragment {
 		protected Void doInBackground(BusStop... selected) {
 			selectedStop = selected[0];
 
-			try {
-				tlService.addWaitTimeEstimatesToStop(selectedStop);
-			} catch (TranslinkException e) {
+			BatchResult result = tlService.addWaitTimeEstimatesToStops(Arrays.asList(selected));
+			TranslinkException e = result.getFailure(selectedStop);
+			if (e != null) {
 				e.printStackTrace();
 				exceptionMsg = e.getMessage();
 			}
@@ -225,49 +339,42 @@ public class StopListFragment extends ListFragment {
 
 		@Override
 		protected void onPostExecute(Void dummy) {
-			dialog.dismiss();
+			if (showProgress)
+				dialog.dismiss();
 
 			if (exceptionMsg == null) {
-				Bundle arguments = new Bundle();
-				String waitTimes = waitTimesToString(selectedStop.getWaitTimes());
-				
-				arguments.putString("wait times", waitTimes );
-				arguments.putString("title", selectedStop.getLocationDesc()
-						+ " next bus...");
-				callbacks.updateStopInfo(arguments);
+				callbacks.updateStopInfo(waitTimeArguments(selectedStop));
+				refreshScheduler.watch(selectedStop);
 			} else {
 				AlertDialog dialog = createSimpleDialog(exceptionMsg);
 				dialog.show();
 			}
 		}
-		
-		/**
-		 * Produces a string representation of at most MAX_ESTIMATES wait time 
-		 * estimates, one per line.  Uses BusWaitTime's toString method to
-		 * get string representation of each wait time.  List is sorted
-		 * from shortest to longest wait time. If no buses are expected,
-		 * returns "No buses expected".
-		 * 
-		 * @param waitTimes  set of wait times
-		 * @return string representation of wait times for bus at this stop
-		 */
-		private String waitTimesToString(Set<BusWaitTime> waitTimes) {
-			final int MAX_ESTIMATES = 6;
-			final String NONE_EXPECTED = "No buses expected";
-			int count = 0;
-			String str = "";
-
-			for (BusWaitTime next : waitTimes) {
-				str += next.toString() + "\n";
-				count++;
-				if (count >= MAX_ESTIMATES)
-					break;
-			}
-			
-			if( str.equals("") )
-				return NONE_EXPECTED;
-			else
-				return str;
+	}
+
+	/**
+	 * Asynchronous task to refresh bus wait time estimates for all favourite
+	 * stops at once, so that they are up to date whichever stop is selected.
+	 * Estimates for all stops are requested in parallel.  Failures are
+	 * ignored: a stop whose estimates cannot be fetched keeps the ones it has.
+	 * Estimates for the selected stop are shown once fetched, and refreshed
+	 * automatically from then on.
+	 */
+	private class RefreshFavourites extends AsyncTask<BusStop, Void, BatchResult> {
+		@Override
+		protected BatchResult doInBackground(BusStop... stops) {
+			return tlService.addWaitTimeEstimatesToStops(Arrays.asList(stops));
+		}
+
+		@Override
+		protected void onPostExecute(BatchResult result) {
+			if (callbacks == null || selectedStop == null
+					|| !result.getSucceeded().contains(selectedStop))
+				return;
+
+			refreshScheduler.watch(selectedStop);
+			if (selectedStop != displayedStop || displayedRowsChanged(selectedStop.getSnapshot()))
+				callbacks.refreshStopInfo(waitTimeArguments(selectedStop));
 		}
 	}
 
@@ -315,14 +422,157 @@ public class StopListFragment extends ListFragment {
 	}
 	
 	/**
-	 * Custom list adapter
+	 * Asynchronous task to restore last known wait times and bus locations of
+	 * stops, saved by an earlier run of the app, for display until they are
+	 * fetched again.  Once restored, the stop selected last time, or else the
+	 * first stop, is selected and its restored data shown.
+	 */
+	private class RestoreLastKnownData extends AsyncTask<BusStop, Void, Void> {
+		private LastKnownDataCache cache;
+
+		RestoreLastKnownData(LastKnownDataCache cache) {
+			this.cache = cache;
+		}
+
+		@Override
+		protected Void doInBackground(BusStop... stops) {
+			for (BusStop next : stops)
+				cache.restore(next);
+			return null;
+		}
+
+		@Override
+		protected void onPostExecute(Void dummy) {
+			adapter.notifyDataSetChanged();
+			if (callbacks == null || getView() == null || selectedStop != null
+					|| adapter.getCount() == 0)
+				return;
+
+			// show restored data for stop selected last time, or else first
+			// stop, while RefreshFavourites and the map fetch current data
+			BusStop stop = selectedStops.getSelectedStop();
+			int position = selectedStops.getFavourites().indexOf(stop);
+			if (position < 0) {
+				position = 0;
+				stop = adapter.getItem(0);
+			}
+
+			selectedStop = stop;
+			selectedStops.setSelectedStop(stop);
+			getListView().setItemChecked(position, true);
+			callbacks.onStopSelection(stop);
+			if (stop.getSnapshot().isWaitTimesRestored())
+				callbacks.refreshStopInfo(waitTimeArguments(stop));
+		}
+	}
+
+	/**
+	 * Passes automatically refreshed wait times for the selected stop to the
+	 * parent activity on the UI thread.  Failures are ignored: the next refresh
+	 * is simply scheduled later, and the user can still refresh manually.
+	 * Wait times are not redrawn unless estimates on screen have changed
+	 * since last displayed.
+	 */
+	private class AutoRefreshListener implements WaitTimeRefreshScheduler.Listener {
+		@Override
+		public void onWaitTimesRefreshed(final BusStop stop) {
+			Activity activity = getActivity();
+			if (activity == null)
+				return;
+
+			activity.runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					if (callbacks == null || !stop.equals(selectedStop))
+						return;
+					if (stop == displayedStop && !displayedRowsChanged(stop.getSnapshot()))
+						return;
+					callbacks.refreshStopInfo(waitTimeArguments(stop));
+				}
+			});
+		}
+
+		@Override
+		public void onRefreshFailed(BusStop stop, TranslinkException e) {
+			// ignore: scheduler backs off and tries again
+		}
+	}
+
+	/**
+	 * Determine if any of the estimates on screen differ in a snapshot of the
+	 * displayed stop.  If not, the snapshot is taken to be displayed.
+	 * @param snapshot  snapshot of displayed stop
+	 * @return  true if wait times must be redrawn
+	 */
+	private boolean displayedRowsChanged(StopSnapshot snapshot) {
+		if (snapshot.getVersion() == displayedVersion)
+			return false;
+
+		displayedRowWatcher.changed = false;
+		waitTimeDiff.diffWaitTimes(displayedWaitTimes, snapshot.getWaitTimes(), displayedRowWatcher);
+		if (displayedRowWatcher.changed)
+			return true;
+
+		displayedVersion = snapshot.getVersion();
+		displayedWaitTimes = snapshot.getWaitTimes();
+		return false;
+	}
+
+	/**
+	 * Notes whether any difference in wait times is among the first
+	 * MAX_ESTIMATES, which are the ones on screen
+	 */
+	private static class DisplayedRowWatcher implements SnapshotDiff.WaitTimeListener {
+		private boolean changed;
+
+		@Override
+		public void waitTimeAdded(WaitTimeTable after, int index) {
+			changed |= index < MAX_ESTIMATES;
+		}
+
+		@Override
+		public void waitTimeRemoved(WaitTimeTable before, int index) {
+			changed |= index < MAX_ESTIMATES;
+		}
+
+		@Override
+		public void waitTimeChanged(WaitTimeTable before, int beforeIndex,
+				WaitTimeTable after, int afterIndex) {
+			changed |= beforeIndex < MAX_ESTIMATES || afterIndex < MAX_ESTIMATES;
+		}
+
+		@Override
+		public void waitTimeUnchanged(WaitTimeTable before, int beforeIndex,
+				WaitTimeTable after, int afterIndex) {
+			// position on screen can only change if an estimate before it changed
+		}
+	}
+
+	/**
+	 * Custom list adapter, showing favourite stops as they are now
 	 * 
 	 * Adapted from "Android Programming - The Big Nerd Ranch Guide", Ch 9
 	 * by Phillips and Hardy 
 	 */
-	private class StopListAdapter extends ArrayAdapter<BusStop> {
-		public StopListAdapter(ArrayList<BusStop> favs) {
-			super(getActivity(), 0, favs);
+	private class StopListAdapter extends BaseAdapter {
+		@Override
+		public int getCount() {
+			return selectedStops.getFavourites().size();
+		}
+
+		@Override
+		public BusStop getItem(int position) {
+			return selectedStops.getFavourites().get(position);
+		}
+
+		@Override
+		public long getItemId(int position) {
+			return getItem(position).getStopNum();
+		}
+
+		@Override
+		public boolean hasStableIds() {
+			return true;
 		}
 		
 		@Override
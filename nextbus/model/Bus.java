@@ -3,11 +3,12 @@ package ca.ubc.cpsc210.nextbus.model;
 import ca.ubc.cpsc210.nextbus.util.LatLon;
 
 /**
- * Bus information, including route, position (lat/lon),
+ * Bus information, including route, vehicle number, position (lat/lon),
  * destination, time at which location was last updated.
  */
 public class Bus {
 	private BusRoute route;
+	private int vehicleNo;
 	private String dest;
 	private String time;
 	private LatLon latlon;
@@ -21,7 +22,21 @@ public class Bus {
 	 * @param time   time at which location was recorded
 	 */
 	public Bus(BusRoute route, double lat, double lon, String dest, String time) {
+		this(route, BusFleetSnapshot.NO_VEHICLE, lat, lon, dest, time);
+	}
+
+	/**
+	 * Constructor 
+	 * @param route      the bus route
+	 * @param vehicleNo  vehicle number, or BusFleetSnapshot.NO_VEHICLE if not known
+	 * @param lat        latitude of bus
+	 * @param lon        longitude of bus
+	 * @param dest       destination
+	 * @param time       time at which location was recorded
+	 */
+	public Bus(BusRoute route, int vehicleNo, double lat, double lon, String dest, String time) {
 		this.route = route;
+		this.vehicleNo = vehicleNo;
 		this.dest = dest;
 		this.time = time;
 		latlon = new LatLon(lat, lon);
@@ -35,6 +50,14 @@ public class Bus {
 		return route;
 	}
 
+	/**
+	 * Gets vehicle number
+	 * @return vehicle number, or BusFleetSnapshot.NO_VEHICLE if not known
+	 */
+	public int getVehicleNo() {
+		return vehicleNo;
+	}
+
 	/**
 	 * Gets bus location as LatLon object
 	 * @return bus location 
@@ -0,0 +1,801 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import ca.ubc.cpsc210.nextbus.util.FixedLatLon;
+import ca.ubc.cpsc210.nextbus.util.GeoMath;
+import ca.ubc.cpsc210.nextbus.util.LatLon;
+
+/**
+ * Positions of the buses serving a stop, held column by column: latitude
+ * and longitude (as microdegrees; see FixedLatLon), route ordinal, vehicle number, time recorded (as seconds since
+ * midnight, for display, and as milliseconds since the epoch, for
+ * comparison), staleness flag and destination (interned, since many buses
+ * share a destination).  Translink gives only the time of day at which a
+ * position was recorded; it is resolved to the nearest such time, in
+ * Vancouver, to the time the position was received.  The
+ * bounding box of all positions is maintained as buses are added, so
+ * zooming a map to fit the buses needs no pass over them.
+ *
+ * <p>Arrays are kept when the snapshot is cleared, so a snapshot that is
+ * reloaded with the same number of buses allocates nothing.  Snapshots
+ * published to a BusStop are sealed instead, and never reused.
+ *
+ * <p>Not thread-safe until sealed.  A sealed snapshot is read-only, so once
+ * safely published it can be read by any number of threads.
+ */
+public class BusFleetSnapshot {
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int NO_ROUTE = -1;
+
+	private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+	private static final TimeZone TRANSLINK_ZONE = TimeZone.getTimeZone("America/Vancouver");
+
+	/**
+	 * Value of getRecordedSecondOfDay and getRecordedTimeMillis when time
+	 * could not be parsed
+	 */
+	public static final int UNKNOWN_TIME = -1;
+
+	/**
+	 * Value of getVehicleNo when vehicle number is not known
+	 */
+	public static final int NO_VEHICLE = -1;
+
+	private static final ConcurrentMap<String, String> destinationPool =
+			new ConcurrentHashMap<String, String>();
+
+	private int[] latitudes;
+	private int[] longitudes;
+	private int[] routes;
+	private int[] vehicles;
+	private int[] recordedTimes;
+	private long[] recordedMillis;
+	private boolean[] stale;
+	private String[] destinations;
+	private String[] unparsedTimes;
+	private int size;
+	private boolean sealed;
+
+	private int minLat;
+	private int maxLat;
+	private int minLon;
+	private int maxLon;
+
+	// calendar in Vancouver used to resolve times of day; created when first needed
+	private Calendar calendar;
+
+	public BusFleetSnapshot() {
+		latitudes = new int[INITIAL_CAPACITY];
+		longitudes = new int[INITIAL_CAPACITY];
+		routes = new int[INITIAL_CAPACITY];
+		vehicles = new int[INITIAL_CAPACITY];
+		recordedTimes = new int[INITIAL_CAPACITY];
+		recordedMillis = new long[INITIAL_CAPACITY];
+		stale = new boolean[INITIAL_CAPACITY];
+		destinations = new String[INITIAL_CAPACITY];
+		clear();
+	}
+
+	/**
+	 * Add a bus
+	 * @param route  route bus is serving (may be null if not known)
+	 * @param lat    latitude of bus
+	 * @param lon    longitude of bus
+	 * @param dest   destination
+	 * @param time   time at which location was recorded, e.g. "10:23:42 am"
+	 */
+	public void add(BusRoute route, double lat, double lon, String dest, String time) {
+		add(route, NO_VEHICLE, lat, lon, dest, time);
+	}
+
+	/**
+	 * Add a bus
+	 * @param route      route bus is serving (may be null if not known)
+	 * @param vehicleNo  vehicle number, or NO_VEHICLE
+	 * @param lat        latitude of bus
+	 * @param lon        longitude of bus
+	 * @param dest       destination
+	 * @param time       time at which location was recorded, e.g. "10:23:42 am"
+	 */
+	public void add(BusRoute route, int vehicleNo, double lat, double lon, String dest,
+			String time) {
+		add(route, vehicleNo, lat, lon, dest, time, System.currentTimeMillis());
+	}
+
+	/**
+	 * Add a bus
+	 * @param route      route bus is serving (may be null if not known)
+	 * @param vehicleNo  vehicle number, or NO_VEHICLE
+	 * @param lat        latitude of bus
+	 * @param lon        longitude of bus
+	 * @param dest       destination
+	 * @param time       time at which location was recorded, e.g. "10:23:42 am"
+	 * @param now        time at which location was received, in milliseconds
+	 *                   since the epoch
+	 */
+	public void add(BusRoute route, int vehicleNo, double lat, double lon, String dest,
+			String time, long now) {
+		addE6(route, vehicleNo, FixedLatLon.toE6(lat), FixedLatLon.toE6(lon), dest, time, now);
+	}
+
+	/**
+	 * Add a bus
+	 * @param route      route bus is serving (may be null if not known)
+	 * @param vehicleNo  vehicle number, or NO_VEHICLE
+	 * @param latE6      latitude of bus in microdegrees
+	 * @param lonE6      longitude of bus in microdegrees
+	 * @param dest       destination
+	 * @param time       time at which location was recorded, e.g. "10:23:42 am"
+	 * @param now        time at which location was received, in milliseconds
+	 *                   since the epoch
+	 */
+	public void addE6(BusRoute route, int vehicleNo, int latE6, int lonE6, String dest,
+			String time, long now) {
+		checkNotSealed();
+		if (size == latitudes.length)
+			grow();
+
+		int ordinal = NO_ROUTE;
+		if (route != null) {
+			ordinal = route.getOrdinal();
+			if (ordinal == BusRoute.NOT_INTERNED)
+				ordinal = BusRouteRegistry.getInstance().intern(route.getName()).getOrdinal();
+		}
+
+		int seconds = parseSecondOfDay(time);
+		if (seconds == UNKNOWN_TIME && time != null) {
+			if (unparsedTimes == null)
+				unparsedTimes = new String[latitudes.length];
+			unparsedTimes[size] = time;
+		} else if (unparsedTimes != null)
+			unparsedTimes[size] = null;
+
+		latitudes[size] = latE6;
+		longitudes[size] = lonE6;
+		routes[size] = ordinal;
+		vehicles[size] = vehicleNo;
+		recordedTimes[size] = seconds;
+		recordedMillis[size] = (seconds == UNKNOWN_TIME ? UNKNOWN_TIME : toEpochMillis(seconds, now));
+		stale[size] = false;
+		destinations[size] = internDestination(dest);
+		size++;
+
+		minLat = Math.min(minLat, latE6);
+		maxLat = Math.max(maxLat, latE6);
+		minLon = Math.min(minLon, lonE6);
+		maxLon = Math.max(maxLon, lonE6);
+	}
+
+	/**
+	 * Add a bus
+	 * @param bus  the bus
+	 */
+	public void add(Bus bus) {
+		LatLon latlon = bus.getLatLon();
+		add(bus.getRoute(), bus.getVehicleNo(), latlon.getLatitude(), latlon.getLongitude(),
+				bus.getDestination(), bus.getTime());
+	}
+
+	/**
+	 * Remove all buses, keeping storage for reuse
+	 */
+	public void clear() {
+		checkNotSealed();
+		size = 0;
+		minLat = Integer.MAX_VALUE;
+		maxLat = Integer.MIN_VALUE;
+		minLon = Integer.MAX_VALUE;
+		maxLon = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Replace contents of this snapshot with those of another
+	 * @param other  the snapshot to copy
+	 */
+	public void copyFrom(BusFleetSnapshot other) {
+		clear();
+		while (latitudes.length < other.size)
+			grow();
+
+		System.arraycopy(other.latitudes, 0, latitudes, 0, other.size);
+		System.arraycopy(other.longitudes, 0, longitudes, 0, other.size);
+		System.arraycopy(other.routes, 0, routes, 0, other.size);
+		System.arraycopy(other.vehicles, 0, vehicles, 0, other.size);
+		System.arraycopy(other.recordedTimes, 0, recordedTimes, 0, other.size);
+		System.arraycopy(other.recordedMillis, 0, recordedMillis, 0, other.size);
+		System.arraycopy(other.stale, 0, stale, 0, other.size);
+		System.arraycopy(other.destinations, 0, destinations, 0, other.size);
+		if (other.unparsedTimes != null) {
+			if (unparsedTimes == null || unparsedTimes.length < latitudes.length)
+				unparsedTimes = new String[latitudes.length];
+			System.arraycopy(other.unparsedTimes, 0, unparsedTimes, 0, other.size);
+		} else
+			unparsedTimes = null;
+
+		size = other.size;
+		minLat = other.minLat;
+		maxLat = other.maxLat;
+		minLon = other.minLon;
+		maxLon = other.maxLon;
+	}
+
+	/**
+	 * Drop or flag buses whose position is stale
+	 * @param policy  the staleness policy
+	 * @param now     current time in milliseconds since the epoch
+	 * @return  number of buses dropped or flagged
+	 */
+	public int applyStaleness(StalenessPolicy policy, long now) {
+		checkNotSealed();
+		if (policy == StalenessPolicy.NONE)
+			return 0;
+
+		int numStale = 0;
+		if (policy.getAction() == StalenessPolicy.Action.FLAG) {
+			for (int i = 0; i < size; i++) {
+				stale[i] = policy.isStale(recordedMillis[i], now);
+				if (stale[i])
+					numStale++;
+			}
+			return numStale;
+		}
+
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (policy.isStale(recordedMillis[i], now)) {
+				numStale++;
+				continue;
+			}
+			if (kept != i)
+				move(i, kept);
+			kept++;
+		}
+
+		if (numStale > 0) {
+			size = kept;
+			computeBounds();
+		}
+		return numStale;
+	}
+
+	/**
+	 * Make snapshot read-only.  Sealing a sealed snapshot has no effect.
+	 */
+	public void seal() {
+		sealed = true;
+	}
+
+	/**
+	 * Determine if snapshot is read-only
+	 * @return  true if snapshot has been sealed
+	 */
+	public boolean isSealed() {
+		return sealed;
+	}
+
+	/**
+	 * Determine if this snapshot holds the same buses as another
+	 * @param other  the other snapshot
+	 * @return  true if both hold the same buses in the same order
+	 */
+	public boolean contentEquals(BusFleetSnapshot other) {
+		if (other == this)
+			return true;
+		if (size != other.size)
+			return false;
+
+		for (int i = 0; i < size; i++) {
+			if (vehicles[i] != other.vehicles[i] || recordedMillis[i] != other.recordedMillis[i]
+					|| stale[i] != other.stale[i] || !sameBus(i, other, i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Determine if bus at index has same route, position, destination,
+	 * recorded time and staleness as bus at another index of another
+	 * snapshot.  Vehicle numbers are not compared.
+	 */
+	boolean sameBus(int index, BusFleetSnapshot other, int otherIndex) {
+		return latitudes[index] == other.latitudes[otherIndex]
+				&& longitudes[index] == other.longitudes[otherIndex]
+				&& routes[index] == other.routes[otherIndex]
+				&& recordedTimes[index] == other.recordedTimes[otherIndex]
+				&& stale[index] == other.stale[otherIndex]
+				&& equal(destinations[index], other.destinations[otherIndex])
+				&& (recordedTimes[index] != UNKNOWN_TIME
+						|| equal(getTime(index), other.getTime(otherIndex)));
+	}
+
+	/**
+	 * Determine if position of bus at index was recorded at the same, known,
+	 * time as that of bus at another index of another snapshot, and has the
+	 * same staleness; if so it is the same GPS fix.
+	 */
+	boolean sameFix(int index, BusFleetSnapshot other, int otherIndex) {
+		return recordedMillis[index] != UNKNOWN_TIME
+				&& recordedMillis[index] == other.recordedMillis[otherIndex]
+				&& stale[index] == other.stale[otherIndex];
+	}
+
+	/**
+	 * Gets number of buses
+	 * @return  number of buses
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Determine if there are no buses
+	 * @return  true if there are no buses
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets latitude of bus at index
+	 * @param index  index of bus
+	 * @return  latitude in degrees
+	 */
+	public double getLatitude(int index) {
+		return (double) latitudes[checkIndex(index)] / FixedLatLon.SCALE;
+	}
+
+	/**
+	 * Gets latitude of bus at index
+	 * @param index  index of bus
+	 * @return  latitude in microdegrees
+	 */
+	public int getLatitudeE6(int index) {
+		return latitudes[checkIndex(index)];
+	}
+
+	/**
+	 * Gets longitude of bus at index
+	 * @param index  index of bus
+	 * @return  longitude in degrees
+	 */
+	public double getLongitude(int index) {
+		return (double) longitudes[checkIndex(index)] / FixedLatLon.SCALE;
+	}
+
+	/**
+	 * Gets longitude of bus at index
+	 * @param index  index of bus
+	 * @return  longitude in microdegrees
+	 */
+	public int getLongitudeE6(int index) {
+		return longitudes[checkIndex(index)];
+	}
+
+	/**
+	 * Gets route of bus at index
+	 * @param index  index of bus
+	 * @return  route, or null if not known
+	 */
+	public BusRoute getRoute(int index) {
+		int ordinal = routes[checkIndex(index)];
+		return (ordinal == NO_ROUTE ? null : BusRouteRegistry.getInstance().get(ordinal));
+	}
+
+	/**
+	 * Gets vehicle number of bus at index
+	 * @param index  index of bus
+	 * @return  vehicle number, or NO_VEHICLE if not known
+	 */
+	public int getVehicleNo(int index) {
+		return vehicles[checkIndex(index)];
+	}
+
+	/**
+	 * Gets destination of bus at index
+	 * @param index  index of bus
+	 * @return  destination
+	 */
+	public String getDestination(int index) {
+		return destinations[checkIndex(index)];
+	}
+
+	/**
+	 * Gets time at which location of bus at index was recorded
+	 * @param index  index of bus
+	 * @return  seconds since midnight, or UNKNOWN_TIME
+	 */
+	public int getRecordedSecondOfDay(int index) {
+		return recordedTimes[checkIndex(index)];
+	}
+
+	/**
+	 * Gets time at which location of bus at index was recorded
+	 * @param index  index of bus
+	 * @return  milliseconds since the epoch, or UNKNOWN_TIME
+	 */
+	public long getRecordedTimeMillis(int index) {
+		return recordedMillis[checkIndex(index)];
+	}
+
+	/**
+	 * Determine if position of bus at index has been flagged as stale
+	 * @param index  index of bus
+	 * @return  true if stale
+	 */
+	public boolean isStale(int index) {
+		return stale[checkIndex(index)];
+	}
+
+	/**
+	 * Gets time at which location of bus at index was recorded, in the form
+	 * used by Translink
+	 * @param index  index of bus
+	 * @return  time, e.g. "10:23:42 am"
+	 */
+	public String getTime(int index) {
+		int seconds = recordedTimes[checkIndex(index)];
+		if (seconds == UNKNOWN_TIME)
+			return (unparsedTimes == null ? null : unparsedTimes[index]);
+		return formatSecondOfDay(seconds);
+	}
+
+	/**
+	 * Produce description of bus at index in the format of Bus.getDescription,
+	 * followed by " (stale)" if position has been flagged as stale
+	 * @param index  index of bus
+	 * @return  description of destination and time location was captured
+	 */
+	public String getDescription(int index) {
+		String description = "Destination: " + getDestination(index) + "\nLocation at: " + getTime(index);
+		return (stale[index] ? description + " (stale)" : description);
+	}
+
+	/**
+	 * Produce bus at index as an object
+	 * @param index  index of bus
+	 * @return  the bus
+	 */
+	public Bus get(int index) {
+		return new Bus(getRoute(index), getVehicleNo(index), getLatitude(index),
+				getLongitude(index), getDestination(index), getTime(index));
+	}
+
+	/**
+	 * Produce list of all buses as objects
+	 * @return  new list of buses
+	 */
+	public List<Bus> toList() {
+		List<Bus> buses = new ArrayList<Bus>(size);
+		for (int i = 0; i < size; i++)
+			buses.add(get(i));
+		return buses;
+	}
+
+	/**
+	 * Gets smallest latitude of any bus
+	 * @return  latitude in degrees
+	 * @throws IllegalStateException  if there are no buses
+	 */
+	public double getMinLatitude() {
+		checkNotEmpty();
+		return (double) minLat / FixedLatLon.SCALE;
+	}
+
+	/**
+	 * Gets largest latitude of any bus
+	 * @return  latitude in degrees
+	 * @throws IllegalStateException  if there are no buses
+	 */
+	public double getMaxLatitude() {
+		checkNotEmpty();
+		return (double) maxLat / FixedLatLon.SCALE;
+	}
+
+	/**
+	 * Gets smallest longitude of any bus
+	 * @return  longitude in degrees
+	 * @throws IllegalStateException  if there are no buses
+	 */
+	public double getMinLongitude() {
+		checkNotEmpty();
+		return (double) minLon / FixedLatLon.SCALE;
+	}
+
+	/**
+	 * Gets largest longitude of any bus
+	 * @return  longitude in degrees
+	 * @throws IllegalStateException  if there are no buses
+	 */
+	public double getMaxLongitude() {
+		checkNotEmpty();
+		return (double) maxLon / FixedLatLon.SCALE;
+	}
+
+	/**
+	 * Gets centre of bounding box of all buses
+	 * @return  centre of bounding box
+	 * @throws IllegalStateException  if there are no buses
+	 */
+	public LatLon getCentre() {
+		return getCentreE6().toLatLon();
+	}
+
+	/**
+	 * Gets centre of bounding box of all buses
+	 * @return  centre of bounding box
+	 * @throws IllegalStateException  if there are no buses
+	 */
+	public FixedLatLon getCentreE6() {
+		checkNotEmpty();
+		return new FixedLatLon((int) (((long) minLat + maxLat) / 2),
+				(int) (((long) minLon + maxLon) / 2));
+	}
+
+	/**
+	 * Gets height of bounding box of all buses
+	 * @return  span of latitude in microdegrees
+	 * @throws IllegalStateException  if there are no buses
+	 */
+	public int getLatitudeSpanE6() {
+		checkNotEmpty();
+		return maxLat - minLat;
+	}
+
+	/**
+	 * Gets width of bounding box of all buses
+	 * @return  span of longitude in microdegrees
+	 * @throws IllegalStateException  if there are no buses
+	 */
+	public int getLongitudeSpanE6() {
+		checkNotEmpty();
+		return maxLon - minLon;
+	}
+
+	/**
+	 * Find buses within a distance of a point
+	 * @param centre  the point
+	 * @param radius  distance in metres
+	 * @return  indices of buses within radius, nearest first
+	 */
+	public int[] withinRadius(LatLon centre, double radius) {
+		double lat = centre.getLatitude();
+		double lon = centre.getLongitude();
+		double dLat = radius / GeoMath.METRES_PER_DEGREE;
+		double dLon = GeoMath.longitudeDegrees(radius, Math.min(90, Math.abs(lat) + dLat));
+		long latE6 = FixedLatLon.toE6(lat);
+		long lonE6 = FixedLatLon.toE6(lon);
+		double dLatE6 = dLat * FixedLatLon.SCALE + 1;
+		double dLonE6 = dLon * FixedLatLon.SCALE + 1;
+
+		int[] found = new int[size];
+		double[] distances = new double[size];
+		int count = 0;
+
+		for (int i = 0; i < size; i++) {
+			// cheap bounding box test before computing distance
+			if (Math.abs(latitudes[i] - latE6) > dLatE6 || Math.abs(longitudes[i] - lonE6) > dLonE6)
+				continue;
+
+			double d = GeoMath.distance(lat, lon, getLatitude(i), getLongitude(i));
+			if (d <= radius)
+				count = insertByDistance(found, distances, count, found.length, i, d);
+		}
+
+		return Arrays.copyOf(found, count);
+	}
+
+	/**
+	 * Find the buses nearest a point
+	 * @param centre  the point
+	 * @param k       maximum number of buses to find
+	 * @return  indices of (at most) k nearest buses, nearest first
+	 */
+	public int[] nearest(LatLon centre, int k) {
+		int limit = Math.max(0, Math.min(k, size));
+		int[] found = new int[limit];
+		double[] distances = new double[limit];
+		int count = 0;
+
+		for (int i = 0; i < size; i++) {
+			double d = GeoMath.distance(centre.getLatitude(), centre.getLongitude(),
+					getLatitude(i), getLongitude(i));
+			count = insertByDistance(found, distances, count, limit, i, d);
+		}
+
+		return found;
+	}
+
+	/**
+	 * Insert bus into list of at most limit buses kept in order of distance
+	 * @return  new length of list
+	 */
+	private static int insertByDistance(int[] found, double[] distances, int count, int limit,
+			int index, double distance) {
+		if (count == limit && (limit == 0 || distance >= distances[limit - 1]))
+			return count;
+
+		int j = (count < limit ? count++ : limit - 1);
+		while (j > 0 && distances[j - 1] > distance) {
+			found[j] = found[j - 1];
+			distances[j] = distances[j - 1];
+			j--;
+		}
+		found[j] = index;
+		distances[j] = distance;
+		return count;
+	}
+
+	/**
+	 * Parse time of the form "hh:mm:ss am", "h:mm am" or "hh:mm:ss" (24 hour)
+	 * @return  seconds since midnight, or UNKNOWN_TIME
+	 */
+	static int parseSecondOfDay(String time) {
+		if (time == null)
+			return UNKNOWN_TIME;
+
+		int hour = 0;
+		int minute = 0;
+		int second = 0;
+		int numFields = 0;
+		int digits = 0;
+		int i = 0;
+		int length = time.length();
+
+		for (; i < length && numFields < 3; i++) {
+			char c = time.charAt(i);
+			if (c >= '0' && c <= '9') {
+				if (++digits > 2)
+					return UNKNOWN_TIME;
+				if (numFields == 0)
+					hour = hour * 10 + (c - '0');
+				else if (numFields == 1)
+					minute = minute * 10 + (c - '0');
+				else
+					second = second * 10 + (c - '0');
+			} else if (c == ':' && digits > 0) {
+				numFields++;
+				digits = 0;
+			} else
+				break;
+		}
+		if (digits > 0)
+			numFields++;
+		if (numFields < 2)
+			return UNKNOWN_TIME;
+
+		String suffix = time.substring(i).trim().toLowerCase(Locale.US);
+		if (suffix.equals("am") || suffix.equals("pm")) {
+			if (hour < 1 || hour > 12)
+				return UNKNOWN_TIME;
+			hour = hour % 12 + (suffix.equals("pm") ? 12 : 0);
+		} else if (suffix.length() > 0 || hour > 23)
+			return UNKNOWN_TIME;
+
+		if (minute > 59 || second > 59)
+			return UNKNOWN_TIME;
+
+		return hour * 3600 + minute * 60 + second;
+	}
+
+	/**
+	 * Format seconds since midnight as Translink does, e.g. "09:05:42 pm"
+	 */
+	static String formatSecondOfDay(int seconds) {
+		int hour = seconds / 3600;
+		int minute = seconds / 60 % 60;
+		int second = seconds % 60;
+		int hour12 = (hour % 12 == 0 ? 12 : hour % 12);
+
+		char[] text = {
+				(char) ('0' + hour12 / 10), (char) ('0' + hour12 % 10), ':',
+				(char) ('0' + minute / 10), (char) ('0' + minute % 10), ':',
+				(char) ('0' + second / 10), (char) ('0' + second % 10), ' ',
+				hour < 12 ? 'a' : 'p', 'm' };
+		return new String(text);
+	}
+
+	/**
+	 * Resolve time of day in Vancouver to the nearest such time to now
+	 * @param secondOfDay  seconds since midnight
+	 * @param now          current time in milliseconds since the epoch
+	 * @return  milliseconds since the epoch
+	 */
+	private long toEpochMillis(int secondOfDay, long now) {
+		if (calendar == null)
+			calendar = Calendar.getInstance(TRANSLINK_ZONE, Locale.US);
+
+		// set time of day rather than add it to midnight: a day on which
+		// clocks change is 23 or 25 hours long
+		calendar.setTimeInMillis(now);
+		calendar.set(Calendar.HOUR_OF_DAY, secondOfDay / 3600);
+		calendar.set(Calendar.MINUTE, secondOfDay / 60 % 60);
+		calendar.set(Calendar.SECOND, secondOfDay % 60);
+		calendar.set(Calendar.MILLISECOND, 0);
+		long millis = calendar.getTimeInMillis();
+
+		// positions recorded just before midnight may be received just after
+		if (millis - now > MILLIS_PER_DAY / 2)
+			calendar.add(Calendar.DATE, -1);
+		else if (now - millis > MILLIS_PER_DAY / 2)
+			calendar.add(Calendar.DATE, 1);
+		else
+			return millis;
+		return calendar.getTimeInMillis();
+	}
+
+	private static String internDestination(String dest) {
+		if (dest == null)
+			return null;
+
+		String pooled = destinationPool.putIfAbsent(dest, dest);
+		return (pooled == null ? dest : pooled);
+	}
+
+	private int checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		return index;
+	}
+
+	private static boolean equal(String a, String b) {
+		return (a == null ? b == null : a.equals(b));
+	}
+
+	private void checkNotSealed() {
+		if (sealed)
+			throw new IllegalStateException("Bus fleet snapshot is read-only");
+	}
+
+	private void move(int from, int to) {
+		latitudes[to] = latitudes[from];
+		longitudes[to] = longitudes[from];
+		routes[to] = routes[from];
+		vehicles[to] = vehicles[from];
+		recordedTimes[to] = recordedTimes[from];
+		recordedMillis[to] = recordedMillis[from];
+		stale[to] = stale[from];
+		destinations[to] = destinations[from];
+		if (unparsedTimes != null)
+			unparsedTimes[to] = unparsedTimes[from];
+	}
+
+	private void computeBounds() {
+		minLat = Integer.MAX_VALUE;
+		maxLat = Integer.MIN_VALUE;
+		minLon = Integer.MAX_VALUE;
+		maxLon = Integer.MIN_VALUE;
+		for (int i = 0; i < size; i++) {
+			minLat = Math.min(minLat, latitudes[i]);
+			maxLat = Math.max(maxLat, latitudes[i]);
+			minLon = Math.min(minLon, longitudes[i]);
+			maxLon = Math.max(maxLon, longitudes[i]);
+		}
+	}
+
+	private void checkNotEmpty() {
+		if (size == 0)
+			throw new IllegalStateException("No buses");
+	}
+
+	private void grow() {
+		int capacity = latitudes.length * 2;
+		latitudes = Arrays.copyOf(latitudes, capacity);
+		longitudes = Arrays.copyOf(longitudes, capacity);
+		routes = Arrays.copyOf(routes, capacity);
+		vehicles = Arrays.copyOf(vehicles, capacity);
+		recordedTimes = Arrays.copyOf(recordedTimes, capacity);
+		recordedMillis = Arrays.copyOf(recordedMillis, capacity);
+		stale = Arrays.copyOf(stale, capacity);
+		destinations = Arrays.copyOf(destinations, capacity);
+		if (unparsedTimes != null)
+			unparsedTimes = Arrays.copyOf(unparsedTimes, capacity);
+	}
+}
@@ -3,9 +3,25 @@ package ca.ubc.cpsc210.nextbus.model;
 
 /**
  * A bus route
+ * 
+ * <p>Routes obtained from BusRouteRegistry are shared: there is one instance
+ * per route name, identified by its ordinal, and it cannot be renamed.
+ * Routes created with a constructor are independent of the registry.
  */
 public class BusRoute implements Comparable<BusRoute> {
+	/**
+	 * Ordinal of a route that is not in the registry
+	 */
+	public static final int NOT_INTERNED = -1;
+
+	/**
+	 * Longest name whose sort key orders it exactly
+	 */
+	private static final int MAX_KEYED_LENGTH = 7;
+
 	private String name;
+	private final int ordinal;
+	private long sortKey;
 
 	/**
 	 * Constructor 
@@ -13,7 +29,19 @@ public class BusRoute implements Comparable<BusRoute> {
 	 * @param name  the name of this bus route
 	 */
 	public BusRoute(String name) {
+		this(name, NOT_INTERNED);
+	}
+
+	/**
+	 * Constructor for routes held in the registry
+	 * 
+	 * @param name     the name of this bus route
+	 * @param ordinal  index of route in registry
+	 */
+	BusRoute(String name, int ordinal) {
 		this.name = name;
+		this.ordinal = ordinal;
+		sortKey = sortKeyOf(name);
 	}
 	
 	/**
@@ -33,12 +61,28 @@ public class BusRoute implements Comparable<BusRoute> {
 		return name;
 	}
 
+	/**
+	 * Gets index of this route in BusRouteRegistry
+	 * @return ordinal, or NOT_INTERNED if route is not in registry
+	 */
+	public int getOrdinal() {
+		return ordinal;
+	}
+
 	/**
 	 * Sets name of route
 	 * @param name  name of the route
+	 * @throws UnsupportedOperationException  if route is shared through the registry
+	 * @deprecated routes are identified by name; use BusRouteRegistry.intern
+	 *             to get the route having another name
 	 */
+	@Deprecated
 	public void setName(String name) {
+		if (ordinal != NOT_INTERNED)
+			throw new UnsupportedOperationException("Cannot rename shared route " + this.name);
+
 		this.name = name;
+		sortKey = sortKeyOf(name);
 	}
 
     /**
@@ -72,6 +116,8 @@ public class BusRoute implements Comparable<BusRoute> {
 		if (getClass() != obj.getClass())
 			return false;
 		BusRoute other = (BusRoute) obj;
+		if (ordinal != NOT_INTERNED && other.ordinal != NOT_INTERNED)
+			return false;	// each name is interned once, so other route has another name
 		if (name == null) {
 			if (other.name != null)
 				return false;
@@ -81,12 +127,37 @@ public class BusRoute implements Comparable<BusRoute> {
 	}
 
 	/**
-	 * Compare bus routes by name
+	 * Compare bus routes by name.  Short names (all route names in use)
+	 * are compared by a precomputed numeric key that orders exactly as
+	 * the names do, so the names themselves are not examined.
 	 */
     @Override
     public int compareTo(BusRoute other) {
+        if (this == other)
+            return 0;
+        if (sortKey >= 0 && other.sortKey >= 0)
+            return (sortKey < other.sortKey ? -1 : (sortKey == other.sortKey ? 0 : 1));
         return name.compareTo(other.name);
     }
-	
-	
+
+	/**
+	 * Pack characters of a short ASCII name into a long, one per byte, first
+	 * character most significant and padded with zeros, so that numeric order
+	 * of keys is the same as String order of names.
+	 * @return  the key, or -1 if name cannot be keyed exactly
+	 */
+	private static long sortKeyOf(String name) {
+		if (name == null || name.length() > MAX_KEYED_LENGTH)
+			return -1;
+
+		long key = 0;
+		for (int i = 0; i < MAX_KEYED_LENGTH; i++) {
+			int c = (i < name.length() ? name.charAt(i) : 0);
+			if (i < name.length() && (c == 0 || c > 0x7F))
+				return -1;
+			key = (key << 8) | c;
+		}
+
+		return key;
+	}
 }
@@ -0,0 +1,82 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of bus routes, one per route name.  Interning routes means each
+ * route is allocated once for the life of the app however many stops and
+ * responses refer to it, and gives each route a small integer ordinal that
+ * can be used to index arrays.
+ * 
+ * Design Pattern: Singleton, Flyweight
+ */
+public class BusRouteRegistry {
+	private static final BusRouteRegistry instance = new BusRouteRegistry();
+
+	private ConcurrentMap<String, BusRoute> routes;
+	private volatile BusRoute[] byOrdinal;
+	private volatile int size;
+
+	private BusRouteRegistry() {
+		routes = new ConcurrentHashMap<String, BusRoute>();
+		byOrdinal = new BusRoute[256];
+	}
+
+	/**
+	 * Gets single instance of this class
+	 * @return instance (the only one) of BusRouteRegistry
+	 */
+	public static BusRouteRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Gets the route having a given name, adding it to registry if necessary
+	 * @param name  name of route
+	 * @return  the shared route with that name
+	 */
+	public BusRoute intern(String name) {
+		BusRoute route = routes.get(name);
+		if (route != null)
+			return route;
+
+		synchronized (this) {
+			route = routes.get(name);
+			if (route == null) {
+				if (size == byOrdinal.length) {
+					BusRoute[] larger = new BusRoute[size * 2];
+					System.arraycopy(byOrdinal, 0, larger, 0, size);
+					byOrdinal = larger;
+				}
+
+				// publish route in array before size, so get need not lock
+				route = new BusRoute(name, size);
+				byOrdinal[size] = route;
+				size = size + 1;
+				routes.put(name, route);
+			}
+			return route;
+		}
+	}
+
+	/**
+	 * Gets the route having a given ordinal
+	 * @param ordinal  ordinal of route
+	 * @return  the route
+	 * @throws IndexOutOfBoundsException  if no route has that ordinal
+	 */
+	public BusRoute get(int ordinal) {
+		if (ordinal < 0 || ordinal >= size)
+			throw new IndexOutOfBoundsException("No route with ordinal " + ordinal);
+		return byOrdinal[ordinal];
+	}
+
+	/**
+	 * Gets number of routes registered; ordinals run from 0 to size() - 1
+	 * @return  number of routes
+	 */
+	public int size() {
+		return size;
+	}
+}
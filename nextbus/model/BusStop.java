@@ -13,30 +13,38 @@
 
 package ca.ubc.cpsc210.nextbus.model;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import ca.ubc.cpsc210.nextbus.util.FixedLatLon;
 import ca.ubc.cpsc210.nextbus.util.LatLon;
 
 /**
  * Bus stop information including stop number, description,
  * location (lat/lon), routes that service stop, estimated wait
  * times for buses at this stop and buses serving this stop.
+ *
+ * <p>Wait times and buses are held in an immutable StopSnapshot that is
+ * replaced as a whole on each refresh, so they may be read on one thread
+ * while being refreshed on another.
  */
 public class BusStop {
 	private int stopNum;
 	private String locationDescription;
-	private LatLon latlon;
+	private FixedLatLon latlon;
 	private Set<BusRoute> routes;
-	private Set<BusWaitTime> waitTimes;
-	private List<Bus> buses;
+	private Map<String, BusRoute> routesByName;
+	private final AtomicReference<StopSnapshot> snapshot =
+			new AtomicReference<StopSnapshot>(StopSnapshot.EMPTY);
 	
 	/**
 	 * Constructor 
@@ -49,10 +57,9 @@ public class BusStop {
 	public BusStop(JSONObject json) throws JSONException {
 		stopNum = json.getInt("StopNo");
 		locationDescription = json.getString("Name");
-		latlon = getLatLonFromJSON(json);
+		latlon = new FixedLatLon(json.getJSONObject("LatLon"));
 		routes = getRoutesFromJSON(json);
-		waitTimes = new TreeSet<BusWaitTime>();
-		buses = new ArrayList<Bus>();
+		routesByName = indexByName(routes);
 	}
 	
 	/**
@@ -65,12 +72,23 @@ public class BusStop {
 	 * @param routes    set of routes that service this stop
 	 */
 	public BusStop(int stopNum, String location, double lat, double lon, Set<BusRoute> routes) {
+		this(stopNum, location, FixedLatLon.fromDegrees(lat, lon), routes);
+	}
+
+	/**
+	 * Constructor 
+	 * 
+	 * @param stopNum   the stop number
+	 * @param location  description of bus stop location
+	 * @param latlon    location of stop
+	 * @param routes    set of routes that service this stop
+	 */
+	public BusStop(int stopNum, String location, FixedLatLon latlon, Set<BusRoute> routes) {
 		this.stopNum = stopNum;
 		this.locationDescription = location;
-		latlon = new LatLon(lat, lon);
+		this.latlon = latlon;
 		this.routes = routes;
-		waitTimes = new TreeSet<BusWaitTime>();
-		buses = new ArrayList<Bus>();
+		routesByName = indexByName(routes);
 	}
 
 	/**
@@ -94,20 +112,66 @@ public class BusStop {
 	 * @return  location of bus stop
 	 */
 	public LatLon getLatLon() {
+		return latlon.toLatLon();
+	}
+
+	/**
+	 * Gets location of bus stop in microdegrees
+	 * @return  location of bus stop
+	 */
+	public FixedLatLon getFixedLatLon() {
 		return latlon;
 	}
 	
+	/**
+	 * Gets routes that service this stop
+	 * @return  unmodifiable set of routes that service this stop
+	 */
+	public Set<BusRoute> getRoutes() {
+		return Collections.unmodifiableSet(routes);
+	}
+	
 	/**
 	 * Gets set of wait times for buses at this stop sorted using natural ordering
-	 * defined for BusWaitTime.  
+	 * defined for BusWaitTime.  Set is a copy: changing it does not change
+	 * wait times of this stop.
 	 * 
 	 * @see ca.ubc.cpsc210.nextbus.model.BusWaitTime#compareTo(BusWaitTime)
 	 * 
-	 * @return  set of wait times for buses at this stop
+	 * @return  new set holding wait times for buses at this stop
 	 */
 	public Set<BusWaitTime> getWaitTimes() {
-        return waitTimes;
+        return snapshot.get().getWaitTimes().toSet();
     }
+
+	/**
+	 * Gets table of wait times for buses at this stop.  Reading the table
+	 * does not create a BusWaitTime per estimate as getWaitTimes does.
+	 * 
+	 * @return  sealed table of wait times for buses at this stop
+	 */
+	public WaitTimeTable getWaitTimeTable() {
+		return snapshot.get().getWaitTimes();
+	}
+
+	/**
+	 * Gets current wait times and buses of this stop.  To read wait times
+	 * and buses that are consistent with each other, or with the version,
+	 * get the snapshot once and read everything from it.
+	 * 
+	 * @return  current snapshot
+	 */
+	public StopSnapshot getSnapshot() {
+		return snapshot.get();
+	}
+
+	/**
+	 * Gets version of current snapshot
+	 * @return  version, incremented each time wait times or buses change
+	 */
+	public long getVersion() {
+		return snapshot.get().getVersion();
+	}
 	
 	/**
 	 * Return bus route with specified name or null if no such route serves this stop.
@@ -116,11 +180,7 @@ public class BusStop {
 	 * @return bus route with given name or null if no such route serves this stop.
 	 */
 	public BusRoute getRouteNamed(String routeName) {
-		for(BusRoute route : routes)
-			if(route.getName().equals(routeName))
-				return route;
-		
-		return null;
+		return routesByName.get(routeName);
 	}
 
 	/**
@@ -128,14 +188,57 @@ public class BusStop {
 	 * @param bwt estimated wait time
 	 */
 	public void addWaitTime(BusWaitTime bwt) {
-		waitTimes.add(bwt);
+		addWaitTime(bwt.getRoute(), bwt.getEstimate(), bwt.isCancelled());
+	}
+
+	/**
+	 * Add an estimated wait time for a bus at this stop.  Copies the current
+	 * table, so to load many estimates build a table and use setWaitTimes.
+	 * 
+	 * @param route        route of bus
+	 * @param waitTime     estimated wait time in minutes
+	 * @param isCancelled  true if bus is cancelled
+	 */
+	public void addWaitTime(BusRoute route, int waitTime, boolean isCancelled) {
+		StopSnapshot current;
+		StopSnapshot next;
+		do {
+			current = snapshot.get();
+			WaitTimeTable table = new WaitTimeTable();
+			table.copyFrom(current.getWaitTimes());
+			table.add(route, waitTime, isCancelled);
+			table.seal();
+			next = current.withWaitTimes(table, System.currentTimeMillis());
+		} while (!snapshot.compareAndSet(current, next));
+	}
+
+	/**
+	 * Replace wait times for buses at this stop with ones just fetched.  The
+	 * table is sealed and must not be changed by the caller afterwards.  The
+	 * version is not changed if the new wait times are the same as the
+	 * current ones, though their fetch time is.
+	 * 
+	 * @param table  wait times for buses at this stop
+	 */
+	public void setWaitTimes(WaitTimeTable table) {
+		setWaitTimes(table, System.currentTimeMillis());
 	}
 	
 	/**
-	 * Clear wait times for buses at this stop
+	 * Clear wait times for buses at this stop, so that they are not known
 	 */
 	public void clearWaitTimes() {
-		waitTimes.clear();
+		setWaitTimes(StopSnapshot.EMPTY.getWaitTimes(), 0);
+	}
+
+	private void setWaitTimes(WaitTimeTable table, long fetchTime) {
+		table.seal();
+		StopSnapshot current;
+		do {
+			current = snapshot.get();
+			if (current.getWaitTimes().contentEquals(table))
+				table = current.getWaitTimes();
+		} while (!snapshot.compareAndSet(current, current.withWaitTimes(table, fetchTime)));
 	}
 	
 	/**
@@ -143,24 +246,100 @@ public class BusStop {
 	 * @param b  bus  to add
 	 */
 	public void addBus(Bus b) {
-		buses.add(b);
+		StopSnapshot current;
+		StopSnapshot next;
+		do {
+			current = snapshot.get();
+			BusFleetSnapshot fleet = new BusFleetSnapshot();
+			fleet.copyFrom(current.getBuses());
+			fleet.add(b);
+			fleet.seal();
+			next = current.withBuses(fleet, System.currentTimeMillis());
+		} while (!snapshot.compareAndSet(current, next));
+	}
+
+	/**
+	 * Add a bus that is serving this stop.  Copies the current snapshot of
+	 * buses, so to load many buses build a snapshot and use setBuses.
+	 * 
+	 * @param route  route bus is serving
+	 * @param lat    latitude of bus
+	 * @param lon    longitude of bus
+	 * @param dest   destination
+	 * @param time   time at which location was recorded
+	 */
+	public void addBus(BusRoute route, double lat, double lon, String dest, String time) {
+		addBus(new Bus(route, lat, lon, dest, time));
+	}
+
+	/**
+	 * Replace buses serving this stop with ones just fetched.  The snapshot
+	 * is sealed and must not be changed by the caller afterwards.  The
+	 * version is not changed if the new buses are the same as the current
+	 * ones, though their fetch time is.
+	 * 
+	 * @param fleet  buses serving this stop
+	 */
+	public void setBuses(BusFleetSnapshot fleet) {
+		setBuses(fleet, System.currentTimeMillis());
 	}
 	
 	/**
-	 * Clear list of buses serving this stop
+	 * Clear list of buses serving this stop, so that they are not known
 	 */
 	public void clearBuses() {
-		buses.clear();
+		setBuses(StopSnapshot.EMPTY.getBuses(), 0);
+	}
+
+	private void setBuses(BusFleetSnapshot fleet, long fetchTime) {
+		fleet.seal();
+		StopSnapshot current;
+		do {
+			current = snapshot.get();
+			if (current.getBuses().contentEquals(fleet))
+				fleet = current.getBuses();
+		} while (!snapshot.compareAndSet(current, current.withBuses(fleet, fetchTime)));
+	}
+
+	/**
+	 * Show wait times and buses saved by an earlier run of the app, until
+	 * they are fetched.  Has no effect if either has been fetched or cleared
+	 * since this stop was created.  The table and snapshot are sealed and
+	 * must not be changed by the caller afterwards.
+	 * 
+	 * @param table               last known wait times
+	 * @param waitTimesFetchTime  time wait times were fetched, or 0 if never
+	 * @param fleet               last known buses
+	 * @param busesFetchTime      time buses were fetched, or 0 if never
+	 * @return  true if restored
+	 */
+	public boolean restore(WaitTimeTable table, long waitTimesFetchTime, BusFleetSnapshot fleet,
+			long busesFetchTime) {
+		table.seal();
+		fleet.seal();
+		return snapshot.compareAndSet(StopSnapshot.EMPTY,
+				StopSnapshot.restored(table, waitTimesFetchTime, fleet, busesFetchTime));
 	}
 	
     /**
-     * Get a list of buses currently serving this stop
+     * Get a list of buses currently serving this stop.  List is a copy:
+     * changing it does not change buses of this stop.
      * 
-     * @return list of buses serving this stop
+     * @return new list of buses serving this stop
      */
     public List<Bus> getBuses() {
-        return buses;
-    }	
+        return snapshot.get().getBuses().toList();
+    }
+
+	/**
+	 * Gets positions of buses currently serving this stop.  Reading the
+	 * snapshot does not create a Bus per bus as getBuses does.
+	 * 
+	 * @return  sealed snapshot of buses serving this stop
+	 */
+	public BusFleetSnapshot getBusFleet() {
+		return snapshot.get().getBuses();
+	}
 	
     /**
      * Produces stop number and description of bus stop location in
@@ -206,16 +385,18 @@ public class BusStop {
 	}
 	
 	/**
-	 * Parse LatLon object from JSONObject
-	 * @param json  the JSONObject
-	 * @return  a LatLon object parsed from json
-	 * @throws JSONException 
+	 * Index routes by name for constant time lookup
+	 * @param routes  the routes
+	 * @return  map from route name to route
 	 */
-	private LatLon getLatLonFromJSON(JSONObject json) throws JSONException {
-		JSONObject jsonLatLon = json.getJSONObject("LatLon");
-		String lat = jsonLatLon.getString("Latitude");
-		String lon = jsonLatLon.getString("Longitude");
-		return new LatLon(lat, lon);
+	private static Map<String, BusRoute> indexByName(Set<BusRoute> routes) {
+		Map<String, BusRoute> index = new HashMap<String, BusRoute>(routes.size() * 2);
+		
+		for(BusRoute next : routes) {
+			index.put(next.getName(), next);
+		}
+		
+		return index;
 	}
 	
 	/**
@@ -244,7 +425,7 @@ public class BusStop {
 		
 		for(int index = 0; index < routeNames.length(); index++) {
 			String routeName = routeNames.getString(index);
-			BusRoute route = new BusRoute(routeName);
+			BusRoute route = BusRouteRegistry.getInstance().intern(routeName);
 			routes.add(route);
 		}
 		
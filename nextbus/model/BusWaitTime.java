@@ -66,6 +66,17 @@ public class BusWaitTime implements Comparable<BusWaitTime> {
 	 */
 	@Override
 	public String toString() {
+		return format(route, waitTime, isCancelled);
+	}
+
+	/**
+	 * Produce string representation of a wait time in the format used by toString
+	 * @param route        the route
+	 * @param waitTime     wait time in minutes
+	 * @param isCancelled  true if bus is cancelled
+	 * @return  string representation of wait time
+	 */
+	static String format(BusRoute route, int waitTime, boolean isCancelled) {
 		return route.getName() + ": " + (waitTime < 2 ? "NOW" : waitTime + " mins") + (isCancelled ? " - cancelled" : "");
 	}
 
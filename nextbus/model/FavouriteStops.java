@@ -1,40 +1,120 @@
 package ca.ubc.cpsc210.nextbus.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import android.content.Context;
 import android.util.Log;
+import ca.ubc.cpsc210.exception.UnsupportedVersionException;
+import ca.ubc.cpsc210.nextbus.storage.FavouriteStopsBinarySerializer;
 import ca.ubc.cpsc210.nextbus.storage.FavouriteStopsJSONSerializer;
+import ca.ubc.cpsc210.nextbus.storage.FavouriteStopsJournal;
 
 /**
- * Favourite bus stops
- * 
+ * Favourite bus stops, in the order they were added unless moved.  Stops
+ * are indexed by stop number, so adding, removing and finding a stop take
+ * constant time however many there are; a removed stop leaves a gap that is
+ * closed once gaps outnumber stops.  The selected stop is remembered by
+ * number, so it stays selected as other stops are added, removed and moved.
+ *
+ * <p>Each change is saved by appending it to a journal, so saving costs the
+ * same however many stops there are.
+ *
+ * <p>Safe for use by several threads at once.  Readers do not block one
+ * another, and getFavourites returns a read-only list that is rebuilt only
+ * after stops have changed.
+ *
  * Design Pattern: Singleton
  */
 public class FavouriteStops {
 	private static final String LOG_TAG = "FavouriteStops";
-	private static final String FILENAME = "favs.json";
-	private FavouriteStopsJSONSerializer serializer;
-	private ArrayList<BusStop> stops;
-	private int indexOfSelected;
+	private static final String FILENAME = "favs.bin";
+	private static final String JSON_FILENAME = "favs.json";
+	private static final String JOURNAL_FILENAME = "favs.log";
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int NO_SELECTION = -1;
 	private static FavouriteStops instance;
 
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private FavouriteStopsBinarySerializer serializer;
+	private FavouriteStopsJournal journal;
+
+	// stops in order, with null where one was removed
+	private BusStop[] slots;
+	private int end;
+	private int size;
+	private Map<Integer, Integer> slotOf;
+	private int selectedStopNum;
+	private volatile int modificationCount;
+
+	// read-only list of stops, or null if stops have changed since it was built
+	private volatile List<BusStop> favourites;
+
 	/**
 	 * Constructor
-	 * 		Reads favourite stops from file if saved from previous execution
-	 *      of app.  Otherwise, list of favourite stops is empty.
+	 * 		Reads favourite stops from file, and replays changes journaled
+	 *      since, if saved from previous execution of app.  Otherwise, list
+	 *      of favourite stops is empty.
 	 * @param c  application context
 	 */
 	private FavouriteStops(Context c) {
-		indexOfSelected = -1;
-		
-		serializer = new FavouriteStopsJSONSerializer(c, FILENAME);
+		selectedStopNum = NO_SELECTION;
+		slots = new BusStop[INITIAL_CAPACITY];
+		slotOf = new HashMap<Integer, Integer>();
+
+		serializer = new FavouriteStopsBinarySerializer(c, FILENAME);
+		journal = new FavouriteStopsJournal(serializer, c.getFileStreamPath(FILENAME),
+				c.getFileStreamPath(JOURNAL_FILENAME));
+
+		List<BusStop> unconverted = new ArrayList<BusStop>();
+		if (!serializer.exists()) {
+			try {
+				unconverted = migrateFromJSON(c);
+			} catch (Exception e) {
+				Log.e(LOG_TAG, "Error loading favourite bus stops saved in JSON format");
+			}
+		}
+
+		try {
+			for (BusStop next : journal.recover())
+				append(next);
+		} catch (UnsupportedVersionException e) {
+			// journal keeps file for version of app that wrote it
+			Log.e(LOG_TAG, "Favourite bus stops saved by a later version of app cannot be read");
+		}
+
+		// journal them, so they are not lost until JSON file is read again
+		addStops(unconverted);
+	}
+
+	/**
+	 * Read favourite stops saved in JSON format by earlier versions of app,
+	 * and replace JSON file with binary file.  JSON file is kept if binary
+	 * file cannot be written, and is read again next time.
+	 * @param c  application context
+	 * @return  favourite stops that could not be converted; empty if they
+	 *          were converted or there is no JSON file
+	 */
+	private List<BusStop> migrateFromJSON(Context c) throws Exception {
+		List<BusStop> favs = new FavouriteStopsJSONSerializer(c, JSON_FILENAME).readFavourites();
+		if (favs.isEmpty())
+			return favs;
 
 		try {
-			stops = serializer.readFavourites();
+			serializer.writeFavourites(favs);
+			c.deleteFile(JSON_FILENAME);
+			Log.i(LOG_TAG, "Favourites converted to binary format");
+			return new ArrayList<BusStop>();
 		} catch (Exception e) {
-			stops = new ArrayList<BusStop>();
-			Log.e(LOG_TAG, "Error loading favourite bus stops");
+			Log.e(LOG_TAG, "Error converting favourites to binary format");
+			return favs;
 		}
 	}
 
@@ -43,9 +123,9 @@ public class FavouriteStops {
 	 * @param c  application context
 	 * @return instance (the only one) of FavouriteStops
 	 */
-	public static FavouriteStops getInstance(Context c) {
+	public static synchronized FavouriteStops getInstance(Context c) {
 		if (instance == null) {
-			instance = new FavouriteStops(c);
+			instance = new FavouriteStops(c.getApplicationContext());
 		}
 
 		return instance;
@@ -54,76 +134,279 @@ public class FavouriteStops {
 	/**
 	 * Adds a bus stop to favourite stops only if stop is not null
 	 * and is not already on list of favourite stops
-	 * 
+	 *
 	 * @param stop   the bus stop to add
 	 * @return true if stop was added, false otherwise
 	 */
 	public boolean addStop(BusStop stop) {
-		if (stop != null && !stops.contains(stop)) {
-			stops.add(stop);
-			return true;
+		return addStops(Collections.singletonList(stop)) == 1;
+	}
+
+	/**
+	 * Adds bus stops to end of favourite stops, in order, skipping any that
+	 * are null or already on list of favourite stops
+	 *
+	 * @param stops  the bus stops to add
+	 * @return number of stops added
+	 */
+	public int addStops(Collection<BusStop> stops) {
+		int added = 0;
+		lock.writeLock().lock();
+		try {
+			for (BusStop next : stops) {
+				if (next != null && !slotOf.containsKey(next.getStopNum())) {
+					append(next);
+					journal.added(next);
+					added++;
+				}
+			}
+			if (added > 0)
+				changed();
+		} finally {
+			lock.writeLock().unlock();
 		}
-		return false;
+		return added;
 	}
 
 	/**
 	 * Remove a stop from list of favourite stops
-	 * 
+	 *
 	 * @param stop  the bus stop to remove
+	 * @return true if stop was removed, false if it was not a favourite
 	 */
-	public void removeStop(BusStop stop) {
-		stops.remove(stop);
+	public boolean removeStop(BusStop stop) {
+		return removeStops(Collections.singletonList(stop)) == 1;
 	}
 
 	/**
-	 * Get list of favourite stops
+	 * Remove stops from list of favourite stops
+	 *
+	 * @param stops  the bus stops to remove
+	 * @return number of stops removed
+	 */
+	public int removeStops(Collection<BusStop> stops) {
+		int removed = 0;
+		lock.writeLock().lock();
+		try {
+			for (BusStop next : stops) {
+				Integer slot = (next == null ? null : slotOf.remove(next.getStopNum()));
+				if (slot != null) {
+					journal.removed(slots[slot]);
+					slots[slot] = null;
+					size--;
+					removed++;
+				}
+			}
+
+			if (removed > 0) {
+				if (end - size > size && end > INITIAL_CAPACITY)
+					compact();
+				changed();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return removed;
+	}
+
+	/**
+	 * Move a favourite stop to a new position, shifting the stops between.
+	 *
+	 * @param stop      the bus stop to move
+	 * @param position  its new position in list of favourite stops; moved to
+	 *                  start or end of list if out of range
+	 * @return true if stop was moved, false if it was not a favourite
+	 */
+	public boolean moveStop(BusStop stop, int position) {
+		lock.writeLock().lock();
+		try {
+			if (stop == null || !slotOf.containsKey(stop.getStopNum()))
+				return false;
+
+			compact();
+			int from = slotOf.get(stop.getStopNum());
+			int to = Math.max(0, Math.min(position, size - 1));
+			BusStop moving = slots[from];
+			if (from < to)
+				System.arraycopy(slots, from + 1, slots, from, to - from);
+			else
+				System.arraycopy(slots, to, slots, to + 1, from - to);
+			slots[to] = moving;
+			for (int i = Math.min(from, to); i <= Math.max(from, to); i++)
+				slotOf.put(slots[i].getStopNum(), i);
+
+			journal.moved(moving, to);
+			changed();
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get list of favourite stops, in order.  The list is a read-only
+	 * copy: it does not change when stops are added or removed.
 	 * @return  list of favourite stops
 	 */
-	public ArrayList<BusStop> getFavourites() {
-		return stops;
+	public List<BusStop> getFavourites() {
+		List<BusStop> current = favourites;
+		if (current != null)
+			return current;
+
+		lock.readLock().lock();
+		try {
+			List<BusStop> stops = new ArrayList<BusStop>(size);
+			for (int i = 0; i < end; i++) {
+				if (slots[i] != null)
+					stops.add(slots[i]);
+			}
+			current = Collections.unmodifiableList(stops);
+			favourites = current;
+			return current;
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
-	
+
 	/**
-	 * Set the index into the list of the selected stop
-	 * 
-	 * @param indexOfSelected  index of selected stop
+	 * Gets number of favourite stops
+	 * @return  number of stops
 	 */
-	public void setIndexOfSelected(int indexOfSelected) {
-		this.indexOfSelected = indexOfSelected;
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
-	
+
+	/**
+	 * Gets favourite stop having given number
+	 * @param stopNum  the stop number
+	 * @return  the stop, or null if it is not a favourite
+	 */
+	public BusStop getStop(int stopNum) {
+		lock.readLock().lock();
+		try {
+			Integer slot = slotOf.get(stopNum);
+			return (slot == null ? null : slots[slot]);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Determine if a stop is a favourite
+	 * @param stopNum  the stop number
+	 * @return  true if stop is on list of favourite stops
+	 */
+	public boolean contains(int stopNum) {
+		return getStop(stopNum) != null;
+	}
+
+	/**
+	 * Select a stop
+	 *
+	 * @param stop  the stop to select, or null to select none
+	 */
+	public void setSelectedStop(BusStop stop) {
+		lock.writeLock().lock();
+		try {
+			selectedStopNum = (stop == null ? NO_SELECTION : stop.getStopNum());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
 	/**
 	 * Produce the selected bus stop
-	 * 
-	 * @return selected bus stop or null if none selected
+	 *
+	 * @return selected bus stop or null if none selected, or if selected stop
+	 *         has since been removed
 	 */
 	public BusStop getSelectedStop() {
-		if(indexOfSelected != -1)
-			return stops.get(indexOfSelected);
-		
-		return null;
+		lock.readLock().lock();
+		try {
+			Integer slot = slotOf.get(selectedStopNum);
+			return (slot == null ? null : slots[slot]);
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
-	
+
 	/**
 	 * Clears the list of favourite stops.
 	 */
 	public void clear() {
-		stops.clear();
-		indexOfSelected = -1;
+		lock.writeLock().lock();
+		try {
+			Arrays.fill(slots, 0, end, null);
+			end = 0;
+			size = 0;
+			slotOf.clear();
+			selectedStopNum = NO_SELECTION;
+			journal.cleared();
+			changed();
+		} finally {
+			lock.writeLock().unlock();
+		}
 	}
 
 	/**
-	 * Write favourite stops to file
-	 * @return true if successful, false otherwise
+	 * Gets number of times stops have been added to, removed from or moved in list,
+	 * so that anything derived from the list can tell when it is out of date
+	 * @return  modification count
 	 */
-	public boolean saveFavourites() {
-		try {
-			serializer.writeFavourites(stops);
-			Log.i(LOG_TAG, "Favourites written to file");
-			return true;
-		} catch (Exception e) {
-			Log.e(LOG_TAG, "Error saving favourites to file");
-			return false;
+	public int getModificationCount() {
+		return modificationCount;
+	}
+
+	/**
+	 * Write any changes to favourite stops not yet journaled.  Changes are
+	 * written on a background thread as they are made; this method does not
+	 * wait.
+	 */
+	public void saveFavourites() {
+		journal.flush();
+	}
+
+	/**
+	 * Add stop to end of slots.  Caller must hold write lock or be constructor.
+	 */
+	private void append(BusStop stop) {
+		if (slotOf.containsKey(stop.getStopNum()))
+			return;
+
+		if (end == slots.length)
+			slots = Arrays.copyOf(slots, slots.length * 2);
+		slotOf.put(stop.getStopNum(), end);
+		slots[end++] = stop;
+		size++;
+	}
+
+	/**
+	 * Close gaps left by removed stops.  Caller must hold write lock.
+	 */
+	private void compact() {
+		int kept = 0;
+		for (int i = 0; i < end; i++) {
+			if (slots[i] != null) {
+				slots[kept] = slots[i];
+				slotOf.put(slots[kept].getStopNum(), kept);
+				kept++;
+			}
 		}
+		Arrays.fill(slots, kept, end, null);
+		end = kept;
+	}
+
+	/**
+	 * Note change to list.  Caller must hold write lock, and must have
+	 * journaled change.
+	 */
+	private void changed() {
+		favourites = null;
+		modificationCount++;
 	}
 }
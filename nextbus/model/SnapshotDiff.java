@@ -0,0 +1,188 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import java.util.Arrays;
+
+/**
+ * Compares the wait times or buses of two snapshots of a stop, typically
+ * the one last drawn and the one just published, and reports each estimate
+ * or bus as added, removed, changed or unchanged so that a display can
+ * update only what changed.
+ *
+ * <p>Estimates carry no identity, so they are matched route by route in
+ * order of wait time.  When a route has fewer estimates than before, the
+ * soonest of the old ones are taken to have departed; when it has more, the
+ * latest of the new ones are taken to be newly scheduled.  Buses are
+ * matched by vehicle number; buses with no vehicle number are always
+ * reported as removed and added.  A matched bus whose position was recorded
+ * at the same time as before is the same GPS fix, so it is reported as
+ * unchanged without comparing anything else.
+ *
+ * <p>Scratch space is kept between calls, so a SnapshotDiff that is reused
+ * allocates nothing once grown.  Not thread-safe.
+ */
+public class SnapshotDiff {
+	private static final long INDEX_MASK = 0xffffffffL;
+
+	private long[] beforeKeys = new long[16];
+	private long[] afterKeys = new long[16];
+
+	/**
+	 * Receives the result of comparing two tables of wait times.  Indices
+	 * are positions in sorted order.
+	 */
+	public static interface WaitTimeListener {
+		public void waitTimeAdded(WaitTimeTable after, int index);
+		public void waitTimeRemoved(WaitTimeTable before, int index);
+		public void waitTimeChanged(WaitTimeTable before, int beforeIndex,
+				WaitTimeTable after, int afterIndex);
+		public void waitTimeUnchanged(WaitTimeTable before, int beforeIndex,
+				WaitTimeTable after, int afterIndex);
+	}
+
+	/**
+	 * Receives the result of comparing two snapshots of buses
+	 */
+	public static interface BusListener {
+		public void busAdded(BusFleetSnapshot after, int index);
+		public void busRemoved(BusFleetSnapshot before, int index);
+		public void busChanged(BusFleetSnapshot before, int beforeIndex,
+				BusFleetSnapshot after, int afterIndex);
+		public void busUnchanged(BusFleetSnapshot before, int beforeIndex,
+				BusFleetSnapshot after, int afterIndex);
+	}
+
+	/**
+	 * Compare two tables of wait times
+	 * @param before    wait times previously seen
+	 * @param after     current wait times
+	 * @param listener  receives one event per estimate
+	 * @return  number of estimates added, removed or changed
+	 */
+	public int diffWaitTimes(WaitTimeTable before, WaitTimeTable after,
+			WaitTimeListener listener) {
+		int numBefore = before.size();
+		int numAfter = after.size();
+		ensureCapacity(numBefore, numAfter);
+
+		// group estimates by route, keeping sorted order within each route
+		for (int i = 0; i < numBefore; i++)
+			beforeKeys[i] = key(before.getRouteOrdinal(i), i);
+		for (int i = 0; i < numAfter; i++)
+			afterKeys[i] = key(after.getRouteOrdinal(i), i);
+		Arrays.sort(beforeKeys, 0, numBefore);
+		Arrays.sort(afterKeys, 0, numAfter);
+
+		int changes = 0;
+		int b = 0;
+		int a = 0;
+		while (b < numBefore || a < numAfter) {
+			int route = nextRoute(b, numBefore, a, numAfter);
+			int bEnd = endOfGroup(beforeKeys, b, numBefore, route);
+			int aEnd = endOfGroup(afterKeys, a, numAfter, route);
+
+			// soonest old estimates have departed
+			for (; bEnd - b > aEnd - a; b++, changes++)
+				listener.waitTimeRemoved(before, index(beforeKeys[b]));
+
+			for (; b < bEnd && a < aEnd; b++, a++) {
+				int bi = index(beforeKeys[b]);
+				int ai = index(afterKeys[a]);
+				if (before.getMinutes(bi) == after.getMinutes(ai)
+						&& before.isCancelled(bi) == after.isCancelled(ai))
+					listener.waitTimeUnchanged(before, bi, after, ai);
+				else {
+					listener.waitTimeChanged(before, bi, after, ai);
+					changes++;
+				}
+			}
+
+			// latest new estimates are newly scheduled
+			for (; a < aEnd; a++, changes++)
+				listener.waitTimeAdded(after, index(afterKeys[a]));
+		}
+
+		return changes;
+	}
+
+	/**
+	 * Compare two snapshots of buses
+	 * @param before    buses previously seen
+	 * @param after     current buses
+	 * @param listener  receives one event per bus
+	 * @return  number of buses added, removed or changed
+	 */
+	public int diffBuses(BusFleetSnapshot before, BusFleetSnapshot after,
+			BusListener listener) {
+		int numBefore = before.size();
+		int numAfter = after.size();
+		ensureCapacity(numBefore, numAfter);
+
+		for (int i = 0; i < numBefore; i++)
+			beforeKeys[i] = key(before.getVehicleNo(i), i);
+		for (int i = 0; i < numAfter; i++)
+			afterKeys[i] = key(after.getVehicleNo(i), i);
+		Arrays.sort(beforeKeys, 0, numBefore);
+		Arrays.sort(afterKeys, 0, numAfter);
+
+		int changes = 0;
+		int b = 0;
+		int a = 0;
+		while (b < numBefore || a < numAfter) {
+			int bVehicle = (b < numBefore ? group(beforeKeys[b]) : Integer.MAX_VALUE);
+			int aVehicle = (a < numAfter ? group(afterKeys[a]) : Integer.MAX_VALUE);
+
+			if (b < numBefore && (bVehicle < aVehicle || bVehicle == BusFleetSnapshot.NO_VEHICLE)) {
+				listener.busRemoved(before, index(beforeKeys[b++]));
+				changes++;
+			} else if (a < numAfter && (aVehicle < bVehicle || aVehicle == BusFleetSnapshot.NO_VEHICLE)) {
+				listener.busAdded(after, index(afterKeys[a++]));
+				changes++;
+			} else {
+				int bi = index(beforeKeys[b++]);
+				int ai = index(afterKeys[a++]);
+				if (before.sameFix(bi, after, ai) || before.sameBus(bi, after, ai))
+					listener.busUnchanged(before, bi, after, ai);
+				else {
+					listener.busChanged(before, bi, after, ai);
+					changes++;
+				}
+			}
+		}
+
+		return changes;
+	}
+
+	private int nextRoute(int b, int numBefore, int a, int numAfter) {
+		if (b == numBefore)
+			return group(afterKeys[a]);
+		if (a == numAfter)
+			return group(beforeKeys[b]);
+		return Math.min(group(beforeKeys[b]), group(afterKeys[a]));
+	}
+
+	private static int endOfGroup(long[] keys, int from, int to, int group) {
+		int end = from;
+		while (end < to && group(keys[end]) == group)
+			end++;
+		return end;
+	}
+
+	private static long key(int group, int index) {
+		return ((long) group << 32) | index;
+	}
+
+	private static int group(long key) {
+		return (int) (key >> 32);
+	}
+
+	private static int index(long key) {
+		return (int) (key & INDEX_MASK);
+	}
+
+	private void ensureCapacity(int numBefore, int numAfter) {
+		if (beforeKeys.length < numBefore)
+			beforeKeys = new long[Math.max(numBefore, beforeKeys.length * 2)];
+		if (afterKeys.length < numAfter)
+			afterKeys = new long[Math.max(numAfter, afterKeys.length * 2)];
+	}
+}
@@ -0,0 +1,70 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+/**
+ * Rule for bus positions whose GPS fix is older than a threshold: such
+ * buses are either dropped or kept and flagged as stale.  Buses whose
+ * recorded time is not known are never treated as stale.
+ */
+public final class StalenessPolicy {
+	/**
+	 * What to do with a bus whose position is stale
+	 */
+	public enum Action {
+		DROP, FLAG
+	}
+
+	/**
+	 * Policy under which no position is stale
+	 */
+	public static final StalenessPolicy NONE = new StalenessPolicy(Long.MAX_VALUE, Action.FLAG);
+
+	private final long maxAgeMillis;
+	private final Action action;
+
+	/**
+	 * Constructor
+	 * @param maxAgeMillis  age in milliseconds beyond which a position is stale
+	 * @param action        what to do with stale positions
+	 */
+	public StalenessPolicy(long maxAgeMillis, Action action) {
+		if (maxAgeMillis < 0)
+			throw new IllegalArgumentException("Negative maximum age: " + maxAgeMillis);
+		if (action == null)
+			throw new NullPointerException("action");
+
+		this.maxAgeMillis = maxAgeMillis;
+		this.action = action;
+	}
+
+	/**
+	 * Gets age beyond which a position is stale
+	 * @return  age in milliseconds
+	 */
+	public long getMaxAgeMillis() {
+		return maxAgeMillis;
+	}
+
+	/**
+	 * Gets what is done with stale positions
+	 * @return  the action
+	 */
+	public Action getAction() {
+		return action;
+	}
+
+	/**
+	 * Determine if a position is stale
+	 * @param recordedMillis  time position was recorded, in milliseconds since
+	 *                        the epoch, or BusFleetSnapshot.UNKNOWN_TIME
+	 * @param now             current time in milliseconds since the epoch
+	 * @return  true if position is older than maximum age
+	 */
+	public boolean isStale(long recordedMillis, long now) {
+		return recordedMillis != BusFleetSnapshot.UNKNOWN_TIME && now - recordedMillis > maxAgeMillis;
+	}
+
+	@Override
+	public String toString() {
+		return (this == NONE ? "NONE" : action + " after " + maxAgeMillis + " ms");
+	}
+}
@@ -0,0 +1,376 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Index of bus stops by the words of their location descriptions and by
+ * stop number, for suggesting stops as the user types.
+ *
+ * <p>Each word of a query matches any word of a description that it is a
+ * prefix of, so "ubc lo" matches "UBC LOOP BAY 5"; case and punctuation are
+ * ignored.  A query that is a single number also matches stop numbers it
+ * is a prefix of.  Matches are ranked: the stop with exactly that number,
+ * then stops whose numbers start with it (shorter numbers first), then
+ * stops by description: those with more whole-word matches first, then
+ * those in which the least common word of the query occurs earlier (as a
+ * whole word if it is one), then those with shorter descriptions.
+ * Remaining ties go to the lower stop number.
+ *
+ * <p>The words of all descriptions are held in one sorted array, each
+ * word's occurrences ordered from best to worst ranked, so the descriptions
+ * matching a word are found by binary search and a query stops reading a
+ * word's occurrences as soon as none can make the top k.  An index never
+ * changes once built; build a new one when the set of stops changes.  Safe
+ * for use by several threads at once.
+ */
+public final class StopSearchIndex {
+	private static final int ENTRY_BITS = 28;
+	private static final int LENGTH_BITS = 16;
+	private static final int POSITION_BITS = 8;
+	private static final int EXACT_BITS = 8;
+	private static final int RANK_SHIFT = ENTRY_BITS + LENGTH_BITS + POSITION_BITS + EXACT_BITS;
+	private static final long ENTRY_MASK = (1L << ENTRY_BITS) - 1;
+	private static final int MAX_DIGITS = 9;
+
+	private static final int EXACT_NUMBER = 0;
+	private static final int NUMBER_PREFIX = 1;
+	private static final int DESCRIPTION = 2;
+
+	// entries are in increasing order of stop number
+	private final int[] stopNums;
+	private final String[] descriptions;
+	private final String[] normalised;
+
+	// one posting per word of each description
+	private final String[] words;
+	private final int[] wordEntry;
+	private final int[] wordPosition;
+
+	/**
+	 * A stop matching a query
+	 */
+	public static final class Match {
+		private final int stopNum;
+		private final String description;
+
+		Match(int stopNum, String description) {
+			this.stopNum = stopNum;
+			this.description = description;
+		}
+
+		public int getStopNum() {
+			return stopNum;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		public String toString() {
+			return stopNum + "  " + description;
+		}
+	}
+
+	/**
+	 * A word of a description, and where it occurs
+	 */
+	private static class Posting {
+		final String word;
+		final int entry;
+		final int position;
+		final long bound;
+
+		Posting(String word, int entry, int position, long bound) {
+			this.word = word;
+			this.entry = entry;
+			this.position = position;
+			this.bound = bound;
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param stops  the stops to index; where several have the same number,
+	 *               the first is indexed
+	 */
+	public StopSearchIndex(Collection<BusStop> stops) {
+		TreeMap<Integer, BusStop> byNumber = new TreeMap<Integer, BusStop>();
+		for (BusStop next : stops) {
+			if (!byNumber.containsKey(next.getStopNum()))
+				byNumber.put(next.getStopNum(), next);
+		}
+
+		int n = byNumber.size();
+		if (n > ENTRY_MASK)
+			throw new IllegalArgumentException("Too many stops: " + n);
+
+		stopNums = new int[n];
+		descriptions = new String[n];
+		normalised = new String[n];
+		List<Posting> postings = new ArrayList<Posting>();
+
+		int entry = 0;
+		for (BusStop stop : byNumber.values()) {
+			stopNums[entry] = stop.getStopNum();
+			descriptions[entry] = (stop.getLocationDesc() == null ? "" : stop.getLocationDesc());
+			normalised[entry] = join(split(descriptions[entry]));
+
+			String text = normalised[entry];
+			for (int start = 1; start < text.length(); start = text.indexOf(' ', start) + 1) {
+				String word = text.substring(start, text.indexOf(' ', start));
+				int position = start - 1;
+				postings.add(new Posting(word, entry, position,
+						key(DESCRIPTION, 0, position, descriptions[entry].length(), entry)));
+			}
+			entry++;
+		}
+
+		// by word, then best ranked first
+		Collections.sort(postings, new Comparator<Posting>() {
+			@Override
+			public int compare(Posting a, Posting b) {
+				int byWord = a.word.compareTo(b.word);
+				if (byWord != 0)
+					return byWord;
+				return (a.bound < b.bound ? -1 : (a.bound == b.bound ? 0 : 1));
+			}
+		});
+
+		words = new String[postings.size()];
+		wordEntry = new int[words.length];
+		wordPosition = new int[words.length];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = postings.get(i).word;
+			wordEntry[i] = postings.get(i).entry;
+			wordPosition[i] = postings.get(i).position;
+		}
+	}
+
+	/**
+	 * Gets number of stops in index
+	 * @return  number of stops
+	 */
+	public int size() {
+		return stopNums.length;
+	}
+
+	/**
+	 * Find stops matching a query
+	 * @param query  text typed by user, e.g. "ubc lo" or "514"
+	 * @param k      maximum number of matches to find
+	 * @return  (at most) k best matches, best first; none if query has no words
+	 */
+	public List<Match> search(String query, int k) {
+		String[] queryWords = split(query);
+		int limit = Math.max(0, Math.min(k, stopNums.length));
+		if (queryWords.length == 0 || limit == 0)
+			return new ArrayList<Match>(0);
+
+		long[] best = new long[limit];
+		int count = 0;
+		BitSet matched = new BitSet(stopNums.length);
+
+		if (queryWords.length == 1 && isNumber(queryWords[0]))
+			count = searchNumbers(queryWords[0], best, count, limit, matched);
+
+		// drive search from the word matching fewest descriptions; other
+		// words can be whole-word matches only if some description has them
+		String[] prefixes = new String[queryWords.length];
+		String[] wholeWords = new String[queryWords.length];
+		int driver = 0;
+		int driverStart = 0;
+		int driverEnd = 0;
+		int wholeInIndex = 0;
+		for (int w = 0; w < queryWords.length; w++) {
+			prefixes[w] = " " + queryWords[w];
+			wholeWords[w] = prefixes[w] + " ";
+			int start = lowerBound(words, queryWords[w]);
+			int end = lowerBound(words, queryWords[w] + Character.MAX_VALUE);
+			if (start < end && words[start].equals(queryWords[w]))
+				wholeInIndex++;
+			if (w == 0 || end - start < driverEnd - driverStart) {
+				driver = w;
+				driverStart = start;
+				driverEnd = end;
+			}
+		}
+		boolean driverInIndex = (driverStart < driverEnd && words[driverStart].equals(queryWords[driver]));
+		int otherWholeWords = wholeInIndex - (driverInIndex ? 1 : 0);
+
+		int i = driverStart;
+		while (i < driverEnd) {
+			int entry = wordEntry[i];
+
+			// best this or any later occurrence of the same word could rank
+			int mostExact = otherWholeWords + (words[i].length() == queryWords[driver].length() ? 1 : 0);
+			if (count == limit && key(DESCRIPTION, mostExact, wordPosition[i],
+					descriptions[entry].length(), entry) >= best[limit - 1]) {
+				i = lowerBound(words, words[i] + Character.MIN_VALUE);
+				continue;
+			}
+			i++;
+
+			if (matched.get(entry))
+				continue;
+			matched.set(entry);
+
+			String text = normalised[entry];
+			int exact = 0;
+			boolean all = true;
+			for (int w = 0; w < queryWords.length && all; w++) {
+				if (w == driver)
+					continue;
+				if (text.indexOf(prefixes[w]) < 0)
+					all = false;
+				else if (text.indexOf(wholeWords[w]) >= 0)
+					exact++;
+			}
+
+			// rank by best occurrence of driver: a whole word, else the earliest
+			if (all) {
+				int position = text.indexOf(wholeWords[driver]);
+				if (position >= 0)
+					exact++;
+				else
+					position = text.indexOf(prefixes[driver]);
+				count = insert(best, count, limit, key(DESCRIPTION, exact, position,
+						descriptions[entry].length(), entry));
+			}
+		}
+
+		List<Match> result = new ArrayList<Match>(count);
+		for (int j = 0; j < count; j++) {
+			int entry = (int) (best[j] & ENTRY_MASK);
+			result.add(new Match(stopNums[entry], descriptions[entry]));
+		}
+		return result;
+	}
+
+	/**
+	 * Find stops whose numbers start with digits.  Those with d more digits
+	 * are a range of numbers, so are found by binary search, fewest digits
+	 * first.
+	 * @return  new length of list of best keys
+	 */
+	private int searchNumbers(String digits, long[] best, int count, int limit, BitSet matched) {
+		if (digits.charAt(0) == '0' && digits.length() > 1)
+			return count;	// numbers are never written with leading zeros
+
+		long prefix = Long.parseLong(digits);
+		int maxLength = (prefix == 0 ? 1 : MAX_DIGITS + 1);
+		long scale = 1;
+		for (int length = digits.length(); length <= maxLength; length++, scale *= 10) {
+			long low = prefix * scale;
+			long high = (prefix + 1) * scale;
+			int rank = (length == digits.length() ? EXACT_NUMBER : NUMBER_PREFIX);
+
+			for (int entry = lowerBound(stopNums, low); entry < stopNums.length
+					&& stopNums[entry] < high; entry++) {
+				long key = key(rank, 0, 0, length, entry);
+				if (count == limit && key >= best[limit - 1])
+					return count;	// later entries and longer numbers rank lower
+				matched.set(entry);
+				count = insert(best, count, limit, key);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Produce sort key: lower is better
+	 */
+	private static long key(int rank, int exact, int position, int length, int entry) {
+		long notExact = (1 << EXACT_BITS) - 1 - Math.min(exact, (1 << EXACT_BITS) - 1);
+		return ((long) rank << RANK_SHIFT)
+				| (notExact << (ENTRY_BITS + LENGTH_BITS + POSITION_BITS))
+				| ((long) Math.min(position, (1 << POSITION_BITS) - 1) << (ENTRY_BITS + LENGTH_BITS))
+				| ((long) Math.min(length, (1 << LENGTH_BITS) - 1) << ENTRY_BITS)
+				| entry;
+	}
+
+	/**
+	 * Insert key into list of at most limit keys kept in increasing order
+	 * @return  new length of list
+	 */
+	private static int insert(long[] best, int count, int limit, long key) {
+		if (count == limit && key >= best[limit - 1])
+			return count;
+
+		int j = (count < limit ? count++ : limit - 1);
+		while (j > 0 && best[j - 1] > key) {
+			best[j] = best[j - 1];
+			j--;
+		}
+		best[j] = key;
+		return count;
+	}
+
+	private static int lowerBound(String[] sorted, String key) {
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sorted[mid].compareTo(key) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private static int lowerBound(int[] sorted, long key) {
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sorted[mid] < key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private static boolean isNumber(String word) {
+		for (int i = 0; i < word.length(); i++) {
+			if (word.charAt(i) < '0' || word.charAt(i) > '9')
+				return false;
+		}
+		return word.length() > 0 && word.length() <= MAX_DIGITS;
+	}
+
+	/**
+	 * Split text into upper case words of letters and digits
+	 */
+	static String[] split(String text) {
+		List<String> split = new ArrayList<String>();
+		StringBuilder word = new StringBuilder();
+		for (int i = 0; i <= text.length(); i++) {
+			char c = (i < text.length() ? text.charAt(i) : ' ');
+			if (Character.isLetterOrDigit(c))
+				word.append(Character.toUpperCase(c));
+			else if (word.length() > 0) {
+				split.add(word.toString());
+				word.setLength(0);
+			}
+		}
+		return split.toArray(new String[split.size()]);
+	}
+
+	/**
+	 * Join words with a space before and after each, so a word can be found
+	 * by searching for " WORD" (prefix) or " WORD " (whole word)
+	 */
+	private static String join(String[] split) {
+		StringBuilder joined = new StringBuilder(" ");
+		for (String next : split)
+			joined.append(next).append(' ');
+		return joined.toString();
+	}
+}
@@ -0,0 +1,147 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+/**
+ * Wait times and bus positions of a stop as of one refresh.  A snapshot
+ * never changes once created: a refresh builds new tables and publishes a
+ * new snapshot in place of the old, so a reader holding a snapshot always
+ * sees wait times and buses that are complete and consistent, without
+ * locking.
+ *
+ * <p>The version is incremented each time a stop publishes a snapshot with
+ * changed contents, so a reader that remembers the version it last drew
+ * can tell whether there is anything new to draw.
+ *
+ * <p>Wait times and buses each carry the time they were fetched, and
+ * whether they were restored from the last known data saved by an earlier
+ * run of the app rather than fetched since.
+ */
+public final class StopSnapshot {
+	static final StopSnapshot EMPTY = new StopSnapshot(0, sealed(new WaitTimeTable()), 0, false,
+			sealed(new BusFleetSnapshot()), 0, false);
+
+	private final long version;
+	private final WaitTimeTable waitTimes;
+	private final long waitTimesFetchTime;
+	private final boolean waitTimesRestored;
+	private final BusFleetSnapshot buses;
+	private final long busesFetchTime;
+	private final boolean busesRestored;
+
+	private StopSnapshot(long version, WaitTimeTable waitTimes, long waitTimesFetchTime,
+			boolean waitTimesRestored, BusFleetSnapshot buses, long busesFetchTime,
+			boolean busesRestored) {
+		this.version = version;
+		this.waitTimes = waitTimes;
+		this.waitTimesFetchTime = waitTimesFetchTime;
+		this.waitTimesRestored = waitTimesRestored;
+		this.buses = buses;
+		this.busesFetchTime = busesFetchTime;
+		this.busesRestored = busesRestored;
+	}
+
+	/**
+	 * Produce snapshot of last known data saved by an earlier run of the app
+	 * @param waitTimes           sealed table of wait times
+	 * @param waitTimesFetchTime  time wait times were fetched, or 0 if never
+	 * @param buses               sealed snapshot of buses
+	 * @param busesFetchTime      time buses were fetched, or 0 if never
+	 * @return  the snapshot, version 1
+	 */
+	static StopSnapshot restored(WaitTimeTable waitTimes, long waitTimesFetchTime,
+			BusFleetSnapshot buses, long busesFetchTime) {
+		return new StopSnapshot(1, waitTimes, waitTimesFetchTime, waitTimesFetchTime != 0,
+				buses, busesFetchTime, busesFetchTime != 0);
+	}
+
+	/**
+	 * Gets version of this snapshot
+	 * @return  version, 0 for a stop that has never been refreshed
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets wait times as of this snapshot
+	 * @return  sealed table of wait times
+	 */
+	public WaitTimeTable getWaitTimes() {
+		return waitTimes;
+	}
+
+	/**
+	 * Gets time at which wait times were fetched
+	 * @return  milliseconds since the epoch, or 0 if never fetched
+	 */
+	public long getWaitTimesFetchTime() {
+		return waitTimesFetchTime;
+	}
+
+	/**
+	 * Determine if wait times were restored from last known data and have not
+	 * been fetched since, so may be out of date
+	 * @return  true if wait times were restored
+	 */
+	public boolean isWaitTimesRestored() {
+		return waitTimesRestored;
+	}
+
+	/**
+	 * Gets bus positions as of this snapshot
+	 * @return  sealed snapshot of buses
+	 */
+	public BusFleetSnapshot getBuses() {
+		return buses;
+	}
+
+	/**
+	 * Gets time at which buses were fetched
+	 * @return  milliseconds since the epoch, or 0 if never fetched
+	 */
+	public long getBusesFetchTime() {
+		return busesFetchTime;
+	}
+
+	/**
+	 * Determine if buses were restored from last known data and have not been
+	 * fetched since, so may be out of date
+	 * @return  true if buses were restored
+	 */
+	public boolean isBusesRestored() {
+		return busesRestored;
+	}
+
+	/**
+	 * Produce snapshot having given wait times, fetched at given time.  The
+	 * version is incremented unless table is this snapshot's.
+	 * @param table      sealed table of wait times
+	 * @param fetchTime  time wait times were fetched
+	 * @return  the new snapshot
+	 */
+	StopSnapshot withWaitTimes(WaitTimeTable table, long fetchTime) {
+		return new StopSnapshot(table == waitTimes ? version : version + 1, table, fetchTime, false,
+				buses, busesFetchTime, busesRestored);
+	}
+
+	/**
+	 * Produce snapshot having given buses, fetched at given time.  The
+	 * version is incremented unless fleet is this snapshot's.
+	 * @param fleet      sealed snapshot of buses
+	 * @param fetchTime  time buses were fetched
+	 * @return  the new snapshot
+	 */
+	StopSnapshot withBuses(BusFleetSnapshot fleet, long fetchTime) {
+		return new StopSnapshot(fleet == buses ? version : version + 1, waitTimes, waitTimesFetchTime,
+				waitTimesRestored, fleet, fetchTime, false);
+	}
+
+	private static WaitTimeTable sealed(WaitTimeTable table) {
+		table.seal();
+		return table;
+	}
+
+	private static BusFleetSnapshot sealed(BusFleetSnapshot fleet) {
+		fleet.seal();
+		return fleet;
+	}
+}
@@ -0,0 +1,329 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import ca.ubc.cpsc210.nextbus.util.FixedLatLon;
+import ca.ubc.cpsc210.nextbus.util.GeoMath;
+import ca.ubc.cpsc210.nextbus.util.LatLon;
+
+/**
+ * Index of bus stops by location, for finding the stops nearest a point or
+ * within a distance of it.
+ *
+ * <p>Stops are bucketed into a uniform grid of roughly square cells sized
+ * so that each holds a few stops.  Stops are stored cell by cell in arrays,
+ * with their coordinates in microdegrees alongside, so a query reads only
+ * the cells around the point instead of every stop.  A nearest query
+ * searches rings of cells outward from the point and stops once no cell
+ * further out could hold a nearer stop.  Radius queries do not look across
+ * the 180th meridian.
+ *
+ * <p>An index never changes once built; build a new one when the set of
+ * stops changes.  Safe for use by several threads at once.
+ */
+public final class StopSpatialIndex {
+	/**
+	 * Number of stops per cell aimed for when sizing the grid
+	 */
+	private static final int STOPS_PER_CELL = 4;
+
+	/**
+	 * Cells are never smaller than this, in metres, however dense the stops
+	 */
+	private static final double MIN_CELL_SIZE = 100;
+
+	private static final int INDEX_BITS = 28;
+	private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+	private final BusStop[] stops;
+	private final int[] latitudes;
+	private final int[] longitudes;
+	private final int[] cellStart;
+	private final int minLat;
+	private final int minLon;
+	private final int cellLat;
+	private final int cellLon;
+	private final int rows;
+	private final int cols;
+
+	/**
+	 * Constructor
+	 * @param stops  the stops to index
+	 */
+	public StopSpatialIndex(Collection<BusStop> stops) {
+		int n = stops.size();
+		if (n > INDEX_MASK)
+			throw new IllegalArgumentException("Too many stops: " + n);
+
+		int[] lats = new int[n];
+		int[] lons = new int[n];
+		BusStop[] unsorted = stops.toArray(new BusStop[n]);
+		int minLatE6 = Integer.MAX_VALUE;
+		int maxLatE6 = Integer.MIN_VALUE;
+		int minLonE6 = Integer.MAX_VALUE;
+		int maxLonE6 = Integer.MIN_VALUE;
+
+		for (int i = 0; i < n; i++) {
+			FixedLatLon location = unsorted[i].getFixedLatLon();
+			lats[i] = location.getLatitudeE6();
+			lons[i] = location.getLongitudeE6();
+			minLatE6 = Math.min(minLatE6, lats[i]);
+			maxLatE6 = Math.max(maxLatE6, lats[i]);
+			minLonE6 = Math.min(minLonE6, lons[i]);
+			maxLonE6 = Math.max(maxLonE6, lons[i]);
+		}
+
+		if (n == 0) {
+			minLatE6 = maxLatE6 = minLonE6 = maxLonE6 = 0;
+		}
+
+		// size cells so that there are about STOPS_PER_CELL stops in each,
+		// growing them if stops are so spread out that the grid is mostly empty
+		double midLat = ((double) minLatE6 + maxLatE6) / 2 / FixedLatLon.SCALE;
+		double maxAbsLat = Math.max(Math.abs((double) minLatE6), Math.abs((double) maxLatE6))
+				/ FixedLatLon.SCALE;
+		double height = (double) (maxLatE6 - minLatE6) / FixedLatLon.SCALE * GeoMath.METRES_PER_DEGREE;
+		double width = (double) (maxLonE6 - minLonE6) / FixedLatLon.SCALE * GeoMath.METRES_PER_DEGREE
+				* Math.cos(Math.toRadians(midLat));
+		long maxCells = Math.max(16, 4L * n);
+		double size = Math.max(MIN_CELL_SIZE,
+				Math.sqrt(height * width / Math.max(1, n / STOPS_PER_CELL)));
+
+		int latStep;
+		int lonStep;
+		int numRows;
+		int numCols;
+		while (true) {
+			latStep = (int) Math.min(Integer.MAX_VALUE,
+					Math.ceil(size / GeoMath.METRES_PER_DEGREE * FixedLatLon.SCALE));
+			lonStep = (int) Math.min(Integer.MAX_VALUE,
+					Math.ceil(GeoMath.longitudeDegrees(size, maxAbsLat) * FixedLatLon.SCALE));
+			numRows = (int) (((long) maxLatE6 - minLatE6) / latStep + 1);
+			numCols = (int) (((long) maxLonE6 - minLonE6) / lonStep + 1);
+			if ((long) numRows * numCols <= maxCells)
+				break;
+			size *= 2;
+		}
+
+		this.minLat = minLatE6;
+		this.minLon = minLonE6;
+		this.cellLat = latStep;
+		this.cellLon = lonStep;
+		this.rows = numRows;
+		this.cols = numCols;
+
+		// counting sort of stops by cell
+		int[] cells = new int[n];
+		cellStart = new int[rows * cols + 1];
+		for (int i = 0; i < n; i++) {
+			cells[i] = rowOf(lats[i]) * cols + colOf(lons[i]);
+			cellStart[cells[i] + 1]++;
+		}
+		for (int c = 0; c < rows * cols; c++)
+			cellStart[c + 1] += cellStart[c];
+
+		int[] next = Arrays.copyOf(cellStart, rows * cols);
+		this.stops = new BusStop[n];
+		this.latitudes = new int[n];
+		this.longitudes = new int[n];
+		for (int i = 0; i < n; i++) {
+			int j = next[cells[i]]++;
+			this.stops[j] = unsorted[i];
+			this.latitudes[j] = lats[i];
+			this.longitudes[j] = lons[i];
+		}
+	}
+
+	/**
+	 * Gets number of stops in index
+	 * @return  number of stops
+	 */
+	public int size() {
+		return stops.length;
+	}
+
+	/**
+	 * Find the stops nearest a point
+	 * @param centre  the point
+	 * @param k       maximum number of stops to find
+	 * @return  (at most) k nearest stops, nearest first
+	 */
+	public List<BusStop> nearest(LatLon centre, int k) {
+		int limit = Math.max(0, Math.min(k, stops.length));
+		int[] found = new int[limit];
+		double[] distances = new double[limit];
+		int count = 0;
+
+		if (limit > 0) {
+			double lat = centre.getLatitude();
+			double lon = centre.getLongitude();
+			int row = rowOf(FixedLatLon.toE6(lat));
+			int col = colOf(FixedLatLon.toE6(lon));
+			int lastRing = Math.max(Math.max(row, rows - 1 - row), Math.max(col, cols - 1 - col));
+
+			for (int ring = 0; ring <= lastRing; ring++) {
+				for (int r = Math.max(0, row - ring); r <= Math.min(rows - 1, row + ring); r++) {
+					boolean edge = (r == row - ring || r == row + ring);
+					int step = (edge ? 1 : 2 * ring);
+					for (int c = col - ring; c <= col + ring; c += step) {
+						if (c < 0 || c >= cols)
+							continue;
+						int cell = r * cols + c;
+						for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++)
+							count = insertByDistance(found, distances, count, limit, i,
+									distanceTo(lat, lon, i));
+					}
+				}
+
+				if (count == limit
+						&& distances[limit - 1] <= distanceBeyond(lat, lon, row, col, ring))
+					break;
+			}
+		}
+
+		List<BusStop> result = new ArrayList<BusStop>(count);
+		for (int i = 0; i < count; i++)
+			result.add(stops[found[i]]);
+		return result;
+	}
+
+	/**
+	 * Find stops within a distance of a point
+	 * @param centre  the point
+	 * @param radius  distance in metres
+	 * @return  stops within radius, nearest first
+	 */
+	public List<BusStop> withinRadius(LatLon centre, double radius) {
+		double lat = centre.getLatitude();
+		double lon = centre.getLongitude();
+		double dLat = Math.min(180, radius / GeoMath.METRES_PER_DEGREE);
+		double dLon = GeoMath.longitudeDegrees(radius, Math.min(90, Math.abs(lat) + dLat));
+		long latE6 = FixedLatLon.toE6(lat);
+		long lonE6 = FixedLatLon.toE6(lon);
+		double dLatE6 = dLat * FixedLatLon.SCALE + 1;
+		double dLonE6 = dLon * FixedLatLon.SCALE + 1;
+
+		int firstRow = rowOf(latE6 - (long) dLatE6);
+		int lastRow = rowOf(latE6 + (long) dLatE6);
+		int firstCol = colOf(lonE6 - (long) dLonE6);
+		int lastCol = colOf(lonE6 + (long) dLonE6);
+
+		// keys order stops by distance in millimetres, then by position in index
+		long[] keys = new long[16];
+		int count = 0;
+		for (int r = firstRow; r <= lastRow; r++) {
+			for (int cell = r * cols + firstCol; cell <= r * cols + lastCol; cell++) {
+				for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+					// cheap bounding box test before computing distance
+					if (Math.abs(latitudes[i] - latE6) > dLatE6
+							|| Math.abs(longitudes[i] - lonE6) > dLonE6)
+						continue;
+
+					double d = distanceTo(lat, lon, i);
+					if (d <= radius) {
+						if (count == keys.length)
+							keys = Arrays.copyOf(keys, count * 2);
+						keys[count++] = ((long) (d * 1000) << INDEX_BITS) | i;
+					}
+				}
+			}
+		}
+
+		Arrays.sort(keys, 0, count);
+		List<BusStop> result = new ArrayList<BusStop>(count);
+		for (int i = 0; i < count; i++)
+			result.add(stops[(int) (keys[i] & INDEX_MASK)]);
+		return result;
+	}
+
+	/**
+	 * Produce a lower bound on the distance from a point to any stop outside
+	 * the cells within ring cells of the point's cell: the least of the
+	 * distances to the parallels and meridians bounding those cells, on the
+	 * sides where there are cells beyond them
+	 */
+	private double distanceBeyond(double lat, double lon, int row, int col, int ring) {
+		double nearest = Double.POSITIVE_INFINITY;
+
+		if (row - ring > 0) {
+			double south = degrees(minLat + (long) (row - ring) * cellLat);
+			nearest = Math.min(nearest, (lat - south) * GeoMath.METRES_PER_DEGREE);
+		}
+		if (row + ring < rows - 1) {
+			double north = degrees(minLat + (long) (row + ring + 1) * cellLat);
+			nearest = Math.min(nearest, (north - lat) * GeoMath.METRES_PER_DEGREE);
+		}
+
+		// stops beyond a meridian may be nearer the other way round the earth
+		double west = degrees(minLon);
+		double east = degrees(minLon + (long) cols * cellLon);
+		if (col - ring > 0) {
+			double bound = degrees(minLon + (long) (col - ring) * cellLon);
+			nearest = Math.min(nearest, distanceToMeridian(lat, Math.min(lon - bound, 360 - (lon - west))));
+		}
+		if (col + ring < cols - 1) {
+			double bound = degrees(minLon + (long) (col + ring + 1) * cellLon);
+			nearest = Math.min(nearest, distanceToMeridian(lat, Math.min(bound - lon, 360 - (east - lon))));
+		}
+
+		return Math.max(0, nearest);
+	}
+
+	/**
+	 * Produce distance from a point to the nearest point on a meridian
+	 * @param lat     latitude of point in degrees
+	 * @param dLon    degrees of longitude between point and meridian
+	 * @return  distance in metres
+	 */
+	private static double distanceToMeridian(double lat, double dLon) {
+		double angle = Math.toRadians(Math.max(0, Math.min(90, dLon)));
+		double sin = Math.sin(angle) * Math.cos(Math.toRadians(lat));
+		return GeoMath.EARTH_RADIUS * Math.asin(Math.min(1, sin));
+	}
+
+	private static double degrees(long e6) {
+		return (double) e6 / FixedLatLon.SCALE;
+	}
+
+	private double distanceTo(double lat, double lon, int i) {
+		return GeoMath.distance(lat, lon, (double) latitudes[i] / FixedLatLon.SCALE,
+				(double) longitudes[i] / FixedLatLon.SCALE);
+	}
+
+	/**
+	 * Produce row of grid holding a latitude, clamped to the grid
+	 */
+	private int rowOf(long latE6) {
+		return (int) Math.max(0, Math.min(rows - 1, (latE6 - minLat) / cellLat));
+	}
+
+	/**
+	 * Produce column of grid holding a longitude, clamped to the grid
+	 */
+	private int colOf(long lonE6) {
+		return (int) Math.max(0, Math.min(cols - 1, (lonE6 - minLon) / cellLon));
+	}
+
+	/**
+	 * Insert stop into list of at most limit stops kept in order of distance
+	 * @return  new length of list
+	 */
+	private static int insertByDistance(int[] found, double[] distances, int count, int limit,
+			int index, double distance) {
+		if (count == limit && distance >= distances[limit - 1])
+			return count;
+
+		int j = (count < limit ? count++ : limit - 1);
+		while (j > 0 && distances[j - 1] > distance) {
+			found[j] = found[j - 1];
+			distances[j] = distances[j - 1];
+			j--;
+		}
+		found[j] = index;
+		distances[j] = distance;
+		return count;
+	}
+}
@@ -0,0 +1,393 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Wait time estimates for a stop, held in parallel primitive arrays (route
+ * ordinal, minutes, cancelled status) rather than as one object per
+ * estimate.  Estimates are bulk-loaded with add and sorted once, the first
+ * time they are read after being changed.  Order is that of
+ * BusWaitTime.compareTo and, as in a set, estimates that compare equal are
+ * kept only once.
+ *
+ * <p>Arrays are kept when the table is cleared, so a table that is reloaded
+ * with the same number of estimates allocates nothing.  Tables published
+ * to a BusStop are sealed instead, and never reused.  Reads use a Cursor
+ * supplied by the caller, which may be reused.
+ *
+ * <p>Not thread-safe until sealed.  A sealed table is sorted and read-only,
+ * so once safely published it can be read by any number of threads.
+ */
+public class WaitTimeTable {
+	private static final int INITIAL_CAPACITY = 16;
+	private static final long NOT_CANCELLED_BIT = 1L << 31;
+	private static final long RANK_MASK = NOT_CANCELLED_BIT - 1;
+
+	private int[] routes;
+	private int[] minutes;
+	private boolean[] cancelled;
+	private int size;
+	private boolean sorted;
+	private boolean sealed;
+
+	// scratch space for sort
+	private long[] keys;
+	private int[] distinct;
+	private int[] byName;
+	private int[] rankOfDistinct;
+
+	public WaitTimeTable() {
+		routes = new int[INITIAL_CAPACITY];
+		minutes = new int[INITIAL_CAPACITY];
+		cancelled = new boolean[INITIAL_CAPACITY];
+		sorted = true;
+	}
+
+	/**
+	 * Add a wait time estimate
+	 * @param route        route of bus; routes not in BusRouteRegistry are interned
+	 * @param waitTime     estimated wait time in minutes
+	 * @param isCancelled  true if bus is cancelled
+	 * @throws NullPointerException  if route is null
+	 */
+	public void add(BusRoute route, int waitTime, boolean isCancelled) {
+		checkNotSealed();
+		int ordinal = route.getOrdinal();
+		if (ordinal == BusRoute.NOT_INTERNED)
+			ordinal = BusRouteRegistry.getInstance().intern(route.getName()).getOrdinal();
+
+		if (size == routes.length)
+			grow();
+
+		routes[size] = ordinal;
+		minutes[size] = waitTime;
+		cancelled[size] = isCancelled;
+		size++;
+		sorted = false;
+	}
+
+	/**
+	 * Remove all estimates, keeping storage for reuse
+	 */
+	public void clear() {
+		checkNotSealed();
+		size = 0;
+		sorted = true;
+	}
+
+	/**
+	 * Replace contents of this table with those of another
+	 * @param other  the table to copy
+	 */
+	public void copyFrom(WaitTimeTable other) {
+		other.sort();
+		clear();
+		while (routes.length < other.size)
+			grow();
+
+		System.arraycopy(other.routes, 0, routes, 0, other.size);
+		System.arraycopy(other.minutes, 0, minutes, 0, other.size);
+		System.arraycopy(other.cancelled, 0, cancelled, 0, other.size);
+		size = other.size;
+	}
+
+	/**
+	 * Sort table and make it read-only.  Sealing a sealed table has no effect.
+	 */
+	public void seal() {
+		sort();
+		sealed = true;
+	}
+
+	/**
+	 * Determine if table is read-only
+	 * @return  true if table has been sealed
+	 */
+	public boolean isSealed() {
+		return sealed;
+	}
+
+	/**
+	 * Determine if this table holds the same estimates as another
+	 * @param other  the other table
+	 * @return  true if both tables hold the same estimates in the same order
+	 */
+	public boolean contentEquals(WaitTimeTable other) {
+		if (other == this)
+			return true;
+
+		sort();
+		other.sort();
+		if (size != other.size)
+			return false;
+
+		for (int i = 0; i < size; i++) {
+			if (routes[i] != other.routes[i] || minutes[i] != other.minutes[i]
+					|| cancelled[i] != other.cancelled[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets number of distinct estimates
+	 * @return  number of estimates
+	 */
+	public int size() {
+		sort();
+		return size;
+	}
+
+	/**
+	 * Determine if there are no estimates
+	 * @return  true if table is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets route of estimate at index in sorted order
+	 * @param index  the index
+	 * @return  route of bus
+	 */
+	public BusRoute getRoute(int index) {
+		return BusRouteRegistry.getInstance().get(routes[checkIndex(index)]);
+	}
+
+	/**
+	 * Gets wait time of estimate at index in sorted order
+	 * @param index  the index
+	 * @return  wait time in minutes
+	 */
+	public int getMinutes(int index) {
+		return minutes[checkIndex(index)];
+	}
+
+	/**
+	 * Determine if bus of estimate at index in sorted order is cancelled
+	 * @param index  the index
+	 * @return  true if cancelled
+	 */
+	public boolean isCancelled(int index) {
+		return cancelled[checkIndex(index)];
+	}
+
+	/**
+	 * Gets ordinal of route of estimate at index in sorted order
+	 */
+	int getRouteOrdinal(int index) {
+		return routes[checkIndex(index)];
+	}
+
+	/**
+	 * Produce estimate at index in sorted order as an object
+	 * @param index  the index
+	 * @return  the wait time
+	 */
+	public BusWaitTime get(int index) {
+		return new BusWaitTime(getRoute(index), getMinutes(index), isCancelled(index));
+	}
+
+	/**
+	 * Position cursor before the first of at most n estimates, in sorted order
+	 * @param n       maximum number of estimates to visit
+	 * @param cursor  cursor to reuse
+	 * @return  the cursor
+	 */
+	public Cursor topK(int n, Cursor cursor) {
+		sort();
+		cursor.reset(this, Math.min(n, size), Cursor.ALL_ROUTES);
+		return cursor;
+	}
+
+	/**
+	 * Position cursor before the first estimate for a route, in sorted order
+	 * @param route   the route
+	 * @param cursor  cursor to reuse
+	 * @return  the cursor
+	 */
+	public Cursor forRoute(BusRoute route, Cursor cursor) {
+		sort();
+		int ordinal = route.getOrdinal();
+		if (ordinal == BusRoute.NOT_INTERNED)
+			ordinal = BusRouteRegistry.getInstance().intern(route.getName()).getOrdinal();
+
+		cursor.reset(this, size, ordinal);
+		return cursor;
+	}
+
+	/**
+	 * Produce estimates as a sorted set of objects
+	 * @return  new set holding all estimates
+	 */
+	public Set<BusWaitTime> toSet() {
+		Set<BusWaitTime> set = new TreeSet<BusWaitTime>();
+		for (int i = 0, n = size(); i < n; i++)
+			set.add(get(i));
+		return set;
+	}
+
+	private void checkNotSealed() {
+		if (sealed)
+			throw new IllegalStateException("Wait time table is read-only");
+	}
+
+	private int checkIndex(int index) {
+		sort();
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		return index;
+	}
+
+	/**
+	 * Sort estimates into BusWaitTime order and drop duplicates.  Each
+	 * estimate is packed into a long (minutes, then not-cancelled bit, then
+	 * rank of route name among routes in table) so that a primitive sort
+	 * gives the same order as BusWaitTime.compareTo.
+	 */
+	private void sort() {
+		if (sorted)
+			return;
+
+		if (keys == null || keys.length < routes.length) {
+			keys = new long[routes.length];
+			distinct = new int[routes.length];
+			byName = new int[routes.length];
+			rankOfDistinct = new int[routes.length];
+		}
+
+		int numRoutes = rankRoutes();
+
+		for (int i = 0; i < size; i++) {
+			int rank = rankOfDistinct[Arrays.binarySearch(distinct, 0, numRoutes, routes[i])];
+			keys[i] = ((long) minutes[i] << 32) | (cancelled[i] ? 0 : NOT_CANCELLED_BIT) | rank;
+		}
+
+		Arrays.sort(keys, 0, size);
+
+		int unique = 0;
+		for (int i = 0; i < size; i++) {
+			long key = keys[i];
+			if (unique > 0 && keys[unique - 1] == key)
+				continue;
+			keys[unique] = key;
+			routes[unique] = byName[(int) (key & RANK_MASK)];
+			minutes[unique] = (int) (key >> 32);
+			cancelled[unique] = (key & NOT_CANCELLED_BIT) == 0;
+			unique++;
+		}
+
+		size = unique;
+		sorted = true;
+	}
+
+	/**
+	 * Find distinct route ordinals in table (sorted by ordinal, in distinct)
+	 * and order them by route (in byName), recording rank by name of each
+	 * distinct ordinal in rankOfDistinct
+	 * @return  number of distinct routes
+	 */
+	private int rankRoutes() {
+		System.arraycopy(routes, 0, distinct, 0, size);
+		Arrays.sort(distinct, 0, size);
+
+		int numRoutes = 0;
+		for (int i = 0; i < size; i++) {
+			if (numRoutes == 0 || distinct[numRoutes - 1] != distinct[i])
+				distinct[numRoutes++] = distinct[i];
+		}
+
+		// few routes serve a stop, so insertion sort by name is fine
+		BusRouteRegistry registry = BusRouteRegistry.getInstance();
+		for (int i = 0; i < numRoutes; i++) {
+			int ordinal = distinct[i];
+			BusRoute route = registry.get(ordinal);
+			int j = i;
+			while (j > 0 && registry.get(byName[j - 1]).compareTo(route) > 0) {
+				byName[j] = byName[j - 1];
+				j--;
+			}
+			byName[j] = ordinal;
+		}
+
+		for (int rank = 0; rank < numRoutes; rank++)
+			rankOfDistinct[Arrays.binarySearch(distinct, 0, numRoutes, byName[rank])] = rank;
+
+		return numRoutes;
+	}
+
+	private void grow() {
+		int capacity = routes.length * 2;
+		routes = Arrays.copyOf(routes, capacity);
+		minutes = Arrays.copyOf(minutes, capacity);
+		cancelled = Arrays.copyOf(cancelled, capacity);
+	}
+
+	/**
+	 * Caller-owned position in a WaitTimeTable.  Visits estimates in sorted
+	 * order without allocating.  A cursor is invalidated by any change to
+	 * the table.
+	 */
+	public static class Cursor {
+		private static final int ALL_ROUTES = -2;
+
+		private WaitTimeTable table;
+		private int position;
+		private int limit;
+		private int route;
+
+		/**
+		 * Advance to next estimate
+		 * @return  true if there is one, false if all have been visited
+		 */
+		public boolean next() {
+			while (++position < limit) {
+				if (route == ALL_ROUTES || table.routes[position] == route)
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Gets route of current estimate
+		 * @return  route of bus
+		 */
+		public BusRoute getRoute() {
+			return BusRouteRegistry.getInstance().get(table.routes[position]);
+		}
+
+		/**
+		 * Gets wait time of current estimate
+		 * @return  wait time in minutes
+		 */
+		public int getMinutes() {
+			return table.minutes[position];
+		}
+
+		/**
+		 * Determine if bus of current estimate is cancelled
+		 * @return  true if cancelled
+		 */
+		public boolean isCancelled() {
+			return table.cancelled[position];
+		}
+
+		/**
+		 * Produce current estimate in format of BusWaitTime.toString
+		 */
+		@Override
+		public String toString() {
+			return BusWaitTime.format(getRoute(), getMinutes(), isCancelled());
+		}
+
+		private void reset(WaitTimeTable table, int limit, int route) {
+			this.table = table;
+			this.limit = limit;
+			this.route = route;
+			position = -1;
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package ca.ubc.cpsc210.nextbus.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.Context;
+import ca.ubc.cpsc210.exception.UnsupportedVersionException;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusRouteRegistry;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.util.FixedLatLon;
+
+/**
+ * Streams favourite stops to/from file in a compact binary format.  Every
+ * record is decoded when the file is read: FavouriteStops indexes stops by
+ * number and the journal rewrites the whole list on compaction, so each stop
+ * is needed straight away, and by two threads.
+ *
+ * <p>The file is laid out as follows, all integers big-endian:
+ * <pre>
+ *   header        magic, version, number of stops,
+ *                 offset of route references, offset of strings  (5 ints)
+ *   stops         one record per stop in order of list:
+ *                 stop number, latitude and longitude in microdegrees,
+ *                 offset of name, index of first route reference  (5 ints),
+ *                 length of name, number of routes  (2 unsigned shorts)
+ *   route refs    one per route of each stop:
+ *                 offset of name (int), length of name (unsigned short)
+ *   strings       names of stops and routes, UTF-8; each route name once
+ * </pre>
+ * String offsets are relative to the start of the strings.
+ */
+public class FavouriteStopsBinarySerializer {
+	static final int MAGIC = 0x4e424653;	// "NBFS"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 20;
+	static final int STOP_RECORD_SIZE = 24;
+	static final int ROUTE_REF_SIZE = 6;
+	static final int MAX_SHORT = 0xffff;
+
+	private Context context;
+	private String filename;
+
+	public FavouriteStopsBinarySerializer(Context c, String f) {
+		context = c;
+		filename = f;
+	}
+
+	/**
+	 * Determine if favourites have been written to file
+	 * @return true if file exists
+	 */
+	public boolean exists() {
+		return context.getFileStreamPath(filename).exists();
+	}
+
+	/**
+	 * Write list of favourite bus stops to file.  Stops are written to a
+	 * temporary file which then replaces the file, so the file holds either
+	 * the previous or the new list even if the app dies while writing.
+	 * @param favs  list of favourite bus stops
+	 * @throws IOException
+	 */
+	public void writeFavourites(List<BusStop> favs) throws IOException {
+		File file = context.getFileStreamPath(filename);
+		File temp = context.getFileStreamPath(filename + ".tmp");
+
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			writeFavourites(favs, out);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Unable to replace " + file);
+		}
+	}
+
+	/**
+	 * Write list of favourite bus stops in binary format to an output stream.
+	 * Stream is not closed.
+	 * @param favs  list of favourite bus stops
+	 * @param out   destination of stops
+	 * @throws IOException
+	 */
+	public static void writeFavourites(List<BusStop> favs, OutputStream out) throws IOException {
+		ByteArrayOutputStream records = new ByteArrayOutputStream(favs.size() * STOP_RECORD_SIZE);
+		ByteArrayOutputStream refs = new ByteArrayOutputStream();
+		ByteArrayOutputStream strings = new ByteArrayOutputStream();
+		DataOutputStream recordData = new DataOutputStream(records);
+		DataOutputStream refData = new DataOutputStream(refs);
+		Map<String, Integer> routeOffsets = new HashMap<String, Integer>();
+		int numRefs = 0;
+
+		for (BusStop next : favs) {
+			byte[] name = utf8(next.getLocationDesc() == null ? "" : next.getLocationDesc(), MAX_SHORT);
+			Set<BusRoute> routes = next.getRoutes();
+			if (routes.size() > MAX_SHORT)
+				throw new IOException("Too many routes at stop " + next.getStopNum());
+
+			recordData.writeInt(next.getStopNum());
+			recordData.writeInt(next.getFixedLatLon().getLatitudeE6());
+			recordData.writeInt(next.getFixedLatLon().getLongitudeE6());
+			recordData.writeInt(strings.size());
+			recordData.writeInt(numRefs);
+			recordData.writeShort(name.length);
+			recordData.writeShort(routes.size());
+			strings.write(name);
+
+			for (BusRoute route : routes) {
+				byte[] routeName = utf8(route.getName(), MAX_SHORT);
+				Integer offset = routeOffsets.get(route.getName());
+				if (offset == null) {
+					offset = strings.size();
+					routeOffsets.put(route.getName(), offset);
+					strings.write(routeName);
+				}
+				refData.writeInt(offset);
+				refData.writeShort(routeName.length);
+				numRefs++;
+			}
+		}
+
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(favs.size());
+		data.writeInt(HEADER_SIZE + records.size());
+		data.writeInt(HEADER_SIZE + records.size() + refs.size());
+		records.writeTo(data);
+		refs.writeTo(data);
+		strings.writeTo(data);
+		data.flush();
+	}
+
+	/**
+	 * Read list of favourite bus stops from file
+	 * @return list of favourite bus stops; empty if file does not exist
+	 * @throws UnsupportedVersionException  if file was written by a later
+	 *         version of app
+	 * @throws IOException  if file cannot be read or is not in binary format
+	 */
+	public List<BusStop> readFavourites() throws IOException {
+		File file = context.getFileStreamPath(filename);
+		DataInputStream in;
+		try {
+			in = new DataInputStream(context.openFileInput(filename));
+		} catch (FileNotFoundException e) {
+			// ignore: will get thrown first time application is run
+			return new ArrayList<BusStop>();
+		}
+
+		try {
+			byte[] data = new byte[(int) file.length()];
+			in.readFully(data);
+			return readFavourites(data);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read list of favourite bus stops in binary format
+	 * @param data  the stops, as written by writeFavourites
+	 * @return list of favourite bus stops
+	 * @throws UnsupportedVersionException  if data was written by a later
+	 *         version of app
+	 * @throws IOException  if data is not in binary format
+	 */
+	public static List<BusStop> readFavourites(byte[] data) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a favourite stops file");
+		if (buffer.getInt(4) != VERSION)
+			throw new UnsupportedVersionException("Unsupported favourite stops version "
+					+ buffer.getInt(4));
+
+		int size = buffer.getInt(8);
+		int refsStart = buffer.getInt(12);
+		int stringsStart = buffer.getInt(16);
+		if (size < 0 || size > (buffer.capacity() - HEADER_SIZE) / STOP_RECORD_SIZE
+				|| refsStart != HEADER_SIZE + size * STOP_RECORD_SIZE
+				|| refsStart > stringsStart || stringsStart > buffer.capacity())
+			throw new IOException("Favourite stops file is corrupt");
+
+		List<BusStop> stops = new ArrayList<BusStop>(size);
+		try {
+			for (int i = 0; i < size; i++)
+				stops.add(decode(buffer, i, refsStart, stringsStart));
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Favourite stops file is corrupt");
+		}
+		return stops;
+	}
+
+	private static BusStop decode(ByteBuffer buffer, int index, int refsStart, int stringsStart) {
+		int record = HEADER_SIZE + index * STOP_RECORD_SIZE;
+		int firstRef = buffer.getInt(record + 16);
+		int routeCount = buffer.getShort(record + 22) & MAX_SHORT;
+
+		Set<BusRoute> routes = new HashSet<BusRoute>();
+		for (int i = 0; i < routeCount; i++) {
+			int ref = refsStart + (firstRef + i) * ROUTE_REF_SIZE;
+			String name = readString(buffer, stringsStart + buffer.getInt(ref),
+					buffer.getShort(ref + 4) & MAX_SHORT);
+			routes.add(BusRouteRegistry.getInstance().intern(name));
+		}
+
+		return new BusStop(buffer.getInt(record),
+				readString(buffer, stringsStart + buffer.getInt(record + 12),
+						buffer.getShort(record + 20) & MAX_SHORT),
+				new FixedLatLon(buffer.getInt(record + 4), buffer.getInt(record + 8)), routes);
+	}
+
+	private static String readString(ByteBuffer buffer, int offset, int length) {
+		return new String(buffer.array(), offset, length, StopCatalogue.UTF_8);
+	}
+
+	private static byte[] utf8(String text, int maxLength) throws IOException {
+		byte[] bytes = text.getBytes(StopCatalogue.UTF_8);
+		if (bytes.length > maxLength)
+			throw new IOException("Name too long: " + text);
+		return bytes;
+	}
+}
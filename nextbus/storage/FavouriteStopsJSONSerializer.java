@@ -1,12 +1,13 @@
 package ca.ubc.cpsc210.nextbus.storage;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
@@ -35,27 +36,48 @@ public class FavouriteStopsJSONSerializer {
 	}
 	
 	/**
-	 * Write list of favourite bus stops to file
+	 * Write list of favourite bus stops to file.  Stops are written to a
+	 * temporary file which then replaces the file, so the file holds either
+	 * the previous or the new list even if the app dies while writing.
 	 * @param favs  list of favourite bus stops
 	 * @throws JSONException
 	 * @throws IOException
 	 */
 	public void writeFavourites(List<BusStop> favs) throws JSONException, IOException {
+		File file = context.getFileStreamPath(filename);
+		File temp = context.getFileStreamPath(filename + ".tmp");
+
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			Writer writer = new OutputStreamWriter(out);
+			writeFavourites(favs, writer);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Unable to replace " + file);
+		}
+	}
+	
+	/**
+	 * Write list of favourite bus stops as JSON to a writer.  Writer is not closed.
+	 * @param favs    list of favourite bus stops
+	 * @param writer  destination of JSON
+	 * @throws JSONException
+	 * @throws IOException
+	 */
+	public static void writeFavourites(List<BusStop> favs, Writer writer) throws JSONException, IOException {
 		JSONArray favsAsJSON = new JSONArray();
 
 		for(BusStop next : favs) {
 			favsAsJSON.put(next.toJSON());
 		}
 		
-		Writer writer = null;
-		try {
-			OutputStream out = context.openFileOutput(filename, Context.MODE_PRIVATE);
-			writer = new OutputStreamWriter(out);
-			writer.write(favsAsJSON.toString());
-		} finally {
-			if(writer != null)
-				writer.close();
-		}
+		writer.write(favsAsJSON.toString());
+		writer.flush();
 	}
 	
 	/**
@@ -65,26 +87,42 @@ public class FavouriteStopsJSONSerializer {
 	 * @throws JSONException
 	 */
 	public ArrayList<BusStop> readFavourites() throws JSONException, IOException {
-		ArrayList<BusStop> favs = new ArrayList<BusStop>();
-		BufferedReader reader = null;
+		Reader reader = null;
 		
 		try {
 			InputStream in = context.openFileInput(filename);
-			reader = new BufferedReader(new InputStreamReader(in));
-			StringBuilder jsonString = new StringBuilder();
-			String line = null;
-			while((line = reader.readLine()) != null) {
-				jsonString.append(line);
-			}
-			
-			JSONArray array = (JSONArray) new JSONTokener(jsonString.toString()).nextValue();
-			
-			for(int i = 0; i < array.length(); i++) {
-				favs.add(new BusStop(array.getJSONObject(i)));
-			}
+			reader = new InputStreamReader(in);
+			return readFavourites(reader);
 		} catch (FileNotFoundException e) {
 			// ignore: will get thrown first time application is run
-		} 
+			return new ArrayList<BusStop>();
+		} finally {
+			if(reader != null)
+				reader.close();
+		}
+	}
+	
+	/**
+	 * Read list of favourite bus stops as JSON from a reader.  Reader is not closed.
+	 * @param reader  source of JSON
+	 * @return list of favourite bus stops
+	 * @throws IOException
+	 * @throws JSONException
+	 */
+	public static ArrayList<BusStop> readFavourites(Reader reader) throws JSONException, IOException {
+		ArrayList<BusStop> favs = new ArrayList<BusStop>();
+		StringBuilder jsonString = new StringBuilder();
+		char[] buffer = new char[4096];
+		int n;
+		while((n = reader.read(buffer)) != -1) {
+			jsonString.append(buffer, 0, n);
+		}
+		
+		JSONArray array = (JSONArray) new JSONTokener(jsonString.toString()).nextValue();
+		
+		for(int i = 0; i < array.length(); i++) {
+			favs.add(new BusStop(array.getJSONObject(i)));
+		}
 		
 		return favs;
 	}
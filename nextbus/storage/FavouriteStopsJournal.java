@@ -0,0 +1,518 @@
+package ca.ubc.cpsc210.nextbus.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+import ca.ubc.cpsc210.exception.UnsupportedVersionException;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusRouteRegistry;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.util.FixedLatLon;
+
+/**
+ * Stores favourite stops as a snapshot, written by
+ * FavouriteStopsBinarySerializer, and a log of the changes made since:
+ * each stop added, removed or moved is appended to the log as a small
+ * record, so the cost of saving a change does not depend on the number of
+ * favourites.  Once the log grows larger than the snapshot, it is folded
+ * into a new snapshot and emptied.
+ *
+ * <p>Records are appended, and the log compacted, on a background thread.
+ * Records queued while a batch is being written are written together, with
+ * a single sync.  Each record carries a checksum, so a record cut short when
+ * the app died is detected, and recovery stops there.  The log names the
+ * snapshot it follows (by length and checksum), so a log left behind when
+ * the app died after writing a new snapshot, but before emptying the log,
+ * is not replayed a second time.
+ *
+ * <p>The log is laid out as follows, all integers big-endian:
+ * <pre>
+ *   header    magic, version (2 ints), length of snapshot, or -1 if there
+ *             is none (long), checksum of snapshot (int)
+ *   records   length of body, CRC-32 of body (2 ints), then body:
+ *             type (byte), stop number (int), and for
+ *               ADD    latitude and longitude in microdegrees (2 ints),
+ *                      name, number of routes (unsigned short), route names
+ *               MOVE   new position (int)
+ *             strings in modified UTF-8
+ * </pre>
+ */
+public class FavouriteStopsJournal {
+	/**
+	 * Log is not compacted until it is at least this long, in bytes
+	 */
+	public static final int MIN_COMPACT_LENGTH = 16 * 1024;
+
+	static final int MAGIC = 0x4e42464a;	// "NBFJ"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 20;
+	static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+	private static final String LOG_TAG = "FavouriteStopsJournal";
+
+	private static final byte ADD = 1;
+	private static final byte REMOVE = 2;
+	private static final byte MOVE = 3;
+	private static final byte CLEAR = 4;
+
+	private FavouriteStopsBinarySerializer serializer;
+	private File snapshotFile;
+	private File logFile;
+	private ExecutorService writer;
+	private Queue<Change> queued;
+	private AtomicBoolean drainScheduled;
+
+	// used only by writer thread once recovered: favourites as of end of log
+	private LinkedHashMap<Integer, BusStop> logged;
+	private FileOutputStream log;
+	private long logLength;
+	private long snapshotLength;
+	private boolean compactionNeeded;
+	private boolean snapshotUnreadable;
+	private boolean readOnly;
+
+	/**
+	 * A change to favourites
+	 */
+	private static class Change {
+		final byte type;
+		final int stopNum;
+		final BusStop stop;
+		final int position;
+
+		Change(byte type, int stopNum, BusStop stop, int position) {
+			this.type = type;
+			this.stopNum = stopNum;
+			this.stop = stop;
+			this.position = position;
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param serializer    serializer used to read and write snapshots
+	 * @param snapshotFile  file to which serializer writes
+	 * @param logFile       file holding log of changes
+	 */
+	public FavouriteStopsJournal(FavouriteStopsBinarySerializer serializer, File snapshotFile,
+			File logFile) {
+		this.serializer = serializer;
+		this.snapshotFile = snapshotFile;
+		this.logFile = logFile;
+		queued = new ConcurrentLinkedQueue<Change>();
+		drainScheduled = new AtomicBoolean();
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "favourites-journal");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Read favourites from snapshot and replay log over them, dropping any
+	 * record cut short and anything after it.  If the snapshot cannot be
+	 * read, favourites are empty, and once they change the snapshot and log
+	 * are renamed aside (with suffix ".bad") and a new snapshot written.
+	 * Must be called once, before any change is recorded.
+	 * @return  favourite stops, in order
+	 * @throws UnsupportedVersionException  if snapshot was written by a later
+	 *         version of app; it is left as it is, and no change is saved
+	 */
+	public List<BusStop> recover() throws UnsupportedVersionException {
+		logged = new LinkedHashMap<Integer, BusStop>();
+		try {
+			for (BusStop next : serializer.readFavourites())
+				apply(new Change(ADD, next.getStopNum(), next, 0));
+		} catch (UnsupportedVersionException e) {
+			Log.e(LOG_TAG, "Favourites saved by later version of app; changes will not be saved: "
+					+ e.getMessage());
+			logged.clear();
+			readOnly = true;
+			throw e;
+		} catch (IOException e) {
+			// log follows a snapshot we do not have, so cannot be replayed
+			Log.e(LOG_TAG, "Error reading favourites: " + e.getMessage());
+			logged.clear();
+			snapshotUnreadable = true;
+			compactionNeeded = true;
+			return new ArrayList<BusStop>();
+		}
+
+		try {
+			snapshotLength = (snapshotFile.exists() ? snapshotFile.length() : -1);
+			int snapshotCrc = checksum(snapshotFile);
+			long validLength = replay(snapshotLength, snapshotCrc);
+			if (validLength < 0)
+				startLog(snapshotLength, snapshotCrc);
+			else
+				openLog(validLength);
+		} catch (IOException e) {
+			Log.e(LOG_TAG, "Error opening log of favourites: " + e.getMessage());
+			compactionNeeded = true;
+		}
+
+		return new ArrayList<BusStop>(logged.values());
+	}
+
+	/**
+	 * Record that a stop has been added to end of favourites
+	 * @param stop  the stop
+	 */
+	public void added(BusStop stop) {
+		record(new Change(ADD, stop.getStopNum(), stop, 0));
+	}
+
+	/**
+	 * Record that a stop has been removed from favourites
+	 * @param stop  the stop
+	 */
+	public void removed(BusStop stop) {
+		record(new Change(REMOVE, stop.getStopNum(), null, 0));
+	}
+
+	/**
+	 * Record that a stop has been moved
+	 * @param stop      the stop
+	 * @param position  its new position in favourites
+	 */
+	public void moved(BusStop stop, int position) {
+		record(new Change(MOVE, stop.getStopNum(), null, position));
+	}
+
+	/**
+	 * Record that all stops have been removed from favourites
+	 */
+	public void cleared() {
+		record(new Change(CLEAR, 0, null, 0));
+	}
+
+	/**
+	 * Write any changes not yet written.  Does not wait for them to be
+	 * written.
+	 */
+	public void flush() {
+		if (!queued.isEmpty())
+			scheduleDrain();
+	}
+
+	private void record(Change change) {
+		queued.add(change);
+		scheduleDrain();
+	}
+
+	private void scheduleDrain() {
+		if (!drainScheduled.compareAndSet(false, true))
+			return;	// changes queued from now on are picked up by scheduled drain
+
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				drainScheduled.set(false);
+				drain();
+			}
+		});
+	}
+
+	/**
+	 * Append queued changes to log, then compact it if it has grown larger
+	 * than snapshot.  Runs on writer thread.
+	 */
+	private void drain() {
+		if (readOnly) {
+			queued.clear();
+			return;
+		}
+
+		ByteArrayOutputStream batch = new ByteArrayOutputStream();
+		Change next;
+		while ((next = queued.poll()) != null) {
+			apply(next);
+			try {
+				encode(next, batch);
+			} catch (IOException e) {
+				// log would be missing a change: snapshot must be rewritten instead
+				Log.e(LOG_TAG, "Error encoding change to favourites: " + e.getMessage());
+				compactionNeeded = true;
+			}
+		}
+
+		// no log to append to if it could not be opened: rewrite snapshot instead
+		if (log == null)
+			compactionNeeded = true;
+
+		if (batch.size() > 0 && !compactionNeeded) {
+			try {
+				batch.writeTo(log);
+				log.getFD().sync();
+				logLength += batch.size();
+			} catch (IOException e) {
+				Log.e(LOG_TAG, "Error appending to log of favourites: " + e.getMessage());
+				compactionNeeded = true;
+			}
+		}
+
+		if (compactionNeeded || logLength > Math.max(MIN_COMPACT_LENGTH, snapshotLength))
+			compact();
+	}
+
+	/**
+	 * Write favourites as of end of log to a new snapshot, then start a new,
+	 * empty log that follows it.  Runs on writer thread.
+	 */
+	private void compact() {
+		try {
+			if (snapshotUnreadable) {
+				moveAside(snapshotFile);
+				moveAside(logFile);
+				snapshotUnreadable = false;
+			}
+			serializer.writeFavourites(new ArrayList<BusStop>(logged.values()));
+			snapshotLength = snapshotFile.length();
+			startLog(snapshotLength, checksum(snapshotFile));
+			compactionNeeded = false;
+			Log.i(LOG_TAG, "Favourites log compacted");
+		} catch (IOException e) {
+			Log.e(LOG_TAG, "Error compacting log of favourites: " + e.getMessage());
+			compactionNeeded = true;
+		}
+	}
+
+	/**
+	 * Rename file that could not be read, so that it is not replaced.  A file
+	 * moved aside earlier is replaced.
+	 * @throws IOException  if file exists and cannot be renamed
+	 */
+	private static void moveAside(File file) throws IOException {
+		if (!file.exists())
+			return;
+
+		File bad = new File(file.getPath() + ".bad");
+		bad.delete();
+		if (!file.renameTo(bad))
+			throw new IOException("Unable to rename " + file + " to " + bad);
+		Log.w(LOG_TAG, "Unreadable file moved to " + bad);
+	}
+
+	/**
+	 * Replay log over favourites read from snapshot
+	 * @return  length of log up to end of last whole record, or -1 if there
+	 *          is no log or it does not follow snapshot
+	 */
+	private long replay(long snapshotLength, int snapshotCrc) throws IOException {
+		if (!logFile.exists())
+			return -1;
+
+		DataInputStream in = new DataInputStream(new FileInputStream(logFile));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION
+					|| in.readLong() != snapshotLength || in.readInt() != snapshotCrc)
+				return -1;
+
+			long length = HEADER_SIZE;
+			CRC32 crc = new CRC32();
+			while (true) {
+				int size;
+				int expected;
+				byte[] body;
+				try {
+					size = in.readInt();
+					expected = in.readInt();
+					if (size <= 0 || size > MAX_RECORD_SIZE)
+						return length;
+					body = new byte[size];
+					in.readFully(body);
+				} catch (EOFException e) {
+					return length;	// end of log, or record cut short
+				}
+
+				crc.reset();
+				crc.update(body, 0, size);
+				if ((int) crc.getValue() != expected)
+					return length;
+
+				apply(decode(body));
+				length += 8 + size;
+			}
+		} catch (EOFException e) {
+			return -1;	// header cut short
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Replace log with an empty one that follows snapshot
+	 */
+	private void startLog(long snapshotLength, int snapshotCrc) throws IOException {
+		if (log != null)
+			log.close();
+		log = null;
+
+		File temp = new File(logFile.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			DataOutputStream header = new DataOutputStream(out);
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeLong(snapshotLength);
+			header.writeInt(snapshotCrc);
+			header.flush();
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(logFile)) {
+			temp.delete();
+			throw new IOException("Unable to replace " + logFile);
+		}
+		openLog(HEADER_SIZE);
+	}
+
+	/**
+	 * Open log for appending, dropping anything after given length
+	 */
+	private void openLog(long length) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+		try {
+			if (file.length() > length)
+				file.setLength(length);
+		} finally {
+			file.close();
+		}
+
+		log = new FileOutputStream(logFile, true);
+		logLength = length;
+	}
+
+	/**
+	 * Apply change to favourites as of end of log
+	 */
+	private void apply(Change change) {
+		switch (change.type) {
+		case ADD:
+			if (!logged.containsKey(change.stopNum))
+				logged.put(change.stopNum, change.stop);
+			break;
+		case REMOVE:
+			logged.remove(change.stopNum);
+			break;
+		case MOVE:
+			BusStop moving = logged.remove(change.stopNum);
+			if (moving == null)
+				break;
+			List<BusStop> order = new ArrayList<BusStop>(logged.values());
+			order.add(Math.max(0, Math.min(change.position, order.size())), moving);
+			logged.clear();
+			for (BusStop next : order)
+				logged.put(next.getStopNum(), next);
+			break;
+		case CLEAR:
+			logged.clear();
+			break;
+		}
+	}
+
+	private static void encode(Change change, ByteArrayOutputStream batch) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(body);
+		out.writeByte(change.type);
+		out.writeInt(change.stopNum);
+
+		if (change.type == ADD) {
+			BusStop stop = change.stop;
+			Set<BusRoute> routes = stop.getRoutes();
+			if (routes.size() > FavouriteStopsBinarySerializer.MAX_SHORT)
+				throw new IOException("Too many routes at stop " + stop.getStopNum());
+
+			out.writeInt(stop.getFixedLatLon().getLatitudeE6());
+			out.writeInt(stop.getFixedLatLon().getLongitudeE6());
+			out.writeUTF(stop.getLocationDesc() == null ? "" : stop.getLocationDesc());
+			out.writeShort(routes.size());
+			for (BusRoute next : routes)
+				out.writeUTF(next.getName());
+		} else if (change.type == MOVE)
+			out.writeInt(change.position);
+		out.flush();
+
+		CRC32 crc = new CRC32();
+		crc.update(body.toByteArray(), 0, body.size());
+		DataOutputStream record = new DataOutputStream(batch);
+		record.writeInt(body.size());
+		record.writeInt((int) crc.getValue());
+		body.writeTo(record);
+		record.flush();
+	}
+
+	private static Change decode(byte[] body) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+		byte type = in.readByte();
+		int stopNum = in.readInt();
+
+		switch (type) {
+		case ADD:
+			int latE6 = in.readInt();
+			int lonE6 = in.readInt();
+			String name = in.readUTF();
+			int numRoutes = in.readShort() & FavouriteStopsBinarySerializer.MAX_SHORT;
+			Set<BusRoute> routes = new HashSet<BusRoute>();
+			for (int i = 0; i < numRoutes; i++)
+				routes.add(BusRouteRegistry.getInstance().intern(in.readUTF()));
+			return new Change(ADD, stopNum,
+					new BusStop(stopNum, name, new FixedLatLon(latE6, lonE6), routes), 0);
+		case REMOVE:
+		case CLEAR:
+			return new Change(type, stopNum, null, 0);
+		case MOVE:
+			return new Change(MOVE, stopNum, null, in.readInt());
+		default:
+			throw new IOException("Unknown change to favourites: " + type);
+		}
+	}
+
+	/**
+	 * Compute CRC-32 of file
+	 * @return  checksum, or 0 if file does not exist
+	 */
+	private static int checksum(File file) throws IOException {
+		if (!file.exists())
+			return 0;
+
+		CRC32 crc = new CRC32();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				crc.update(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+		return (int) crc.getValue();
+	}
+}
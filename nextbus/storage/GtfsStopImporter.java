@@ -0,0 +1,417 @@
+package ca.ubc.cpsc210.nextbus.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ca.ubc.cpsc210.nextbus.util.FixedLatLon;
+
+/**
+ * Builds a StopCatalogue file from a GTFS feed.  Stops are read from
+ * stops.txt, and the routes serving each stop are found by following
+ * stop_times.txt to trips.txt to routes.txt.  The stop number is the stop
+ * code that appears on the sign at the stop; stations, entrances and stops
+ * with no numeric code are left out.  Route names that are all digits are
+ * padded to three digits, as in RTTI responses (e.g. "099").
+ *
+ * <p>Files must be read in the order stops, routes, trips, stop times;
+ * routes, trips and stop times may be omitted, in which case stops have no
+ * routes.  May be run from the command line:
+ * <pre>
+ *   java ca.ubc.cpsc210.nextbus.storage.GtfsStopImporter &lt;gtfs directory&gt; &lt;catalogue file&gt;
+ * </pre>
+ */
+public class GtfsStopImporter {
+	private Map<String, Stop> stopsById;
+	private Map<String, Integer> routesById;
+	private List<String> routeNames;
+	private Map<String, Integer> routeOfTrip;
+	private int skipped;
+
+	/**
+	 * A stop read from stops.txt
+	 */
+	private static class Stop {
+		final int stopNum;
+		final String name;
+		final int latE6;
+		final int lonE6;
+		final BitSet routes = new BitSet();
+
+		Stop(int stopNum, String name, int latE6, int lonE6) {
+			this.stopNum = stopNum;
+			this.name = name;
+			this.latE6 = latE6;
+			this.lonE6 = lonE6;
+		}
+	}
+
+	public GtfsStopImporter() {
+		stopsById = new LinkedHashMap<String, Stop>();
+		routesById = new HashMap<String, Integer>();
+		routeNames = new ArrayList<String>();
+		routeOfTrip = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Build a stop catalogue from the files of a GTFS feed in a directory
+	 * @param gtfsDir    directory holding stops.txt and, optionally,
+	 *                   routes.txt, trips.txt and stop_times.txt
+	 * @param catalogue  file to which catalogue is written
+	 * @return  number of stops in catalogue
+	 * @throws IOException  if a file cannot be read or written, or is malformed
+	 */
+	public static int importFeed(File gtfsDir, File catalogue) throws IOException {
+		GtfsStopImporter importer = new GtfsStopImporter();
+		importer.readStops(open(new File(gtfsDir, "stops.txt")));
+
+		File routes = new File(gtfsDir, "routes.txt");
+		File trips = new File(gtfsDir, "trips.txt");
+		File stopTimes = new File(gtfsDir, "stop_times.txt");
+		if (routes.exists() && trips.exists() && stopTimes.exists()) {
+			importer.readRoutes(open(routes));
+			importer.readTrips(open(trips));
+			importer.readStopTimes(open(stopTimes));
+		}
+
+		return importer.write(catalogue);
+	}
+
+	/**
+	 * Read stops.txt.  Reader is closed.
+	 * @param reader  source of stops.txt
+	 * @throws IOException  if a required column is missing
+	 */
+	public void readStops(Reader reader) throws IOException {
+		CsvReader csv = new CsvReader(reader);
+		try {
+			int id = csv.column("stop_id");
+			int code = csv.column("stop_code");
+			int name = csv.column("stop_name");
+			int lat = csv.column("stop_lat");
+			int lon = csv.column("stop_lon");
+			int type = csv.optionalColumn("location_type");
+
+			String[] row;
+			while ((row = csv.next()) != null) {
+				String locationType = (type < 0 ? "" : csv.field(row, type));
+				try {
+					if (!locationType.equals("") && !locationType.equals("0"))
+						throw new NumberFormatException("Not a stop");
+
+					Stop stop = new Stop(Integer.parseInt(csv.field(row, code).trim()),
+							csv.field(row, name).trim(),
+							FixedLatLon.parseE6(csv.field(row, lat).trim()),
+							FixedLatLon.parseE6(csv.field(row, lon).trim()));
+					stopsById.put(csv.field(row, id), stop);
+				} catch (NumberFormatException e) {
+					skipped++;
+				}
+			}
+		} finally {
+			csv.close();
+		}
+	}
+
+	/**
+	 * Read routes.txt.  Reader is closed.
+	 * @param reader  source of routes.txt
+	 * @throws IOException  if a required column is missing
+	 */
+	public void readRoutes(Reader reader) throws IOException {
+		CsvReader csv = new CsvReader(reader);
+		try {
+			int id = csv.column("route_id");
+			int shortName = csv.optionalColumn("route_short_name");
+
+			String[] row;
+			while ((row = csv.next()) != null) {
+				String name = (shortName < 0 ? "" : csv.field(row, shortName).trim());
+				if (name.equals(""))
+					name = csv.field(row, id).trim();
+				routesById.put(csv.field(row, id), indexOfRoute(normalise(name)));
+			}
+		} finally {
+			csv.close();
+		}
+	}
+
+	/**
+	 * Read trips.txt.  Reader is closed.
+	 * @param reader  source of trips.txt
+	 * @throws IOException  if a required column is missing
+	 */
+	public void readTrips(Reader reader) throws IOException {
+		CsvReader csv = new CsvReader(reader);
+		try {
+			int trip = csv.column("trip_id");
+			int route = csv.column("route_id");
+
+			String[] row;
+			while ((row = csv.next()) != null) {
+				Integer index = routesById.get(csv.field(row, route));
+				if (index != null)
+					routeOfTrip.put(csv.field(row, trip), index);
+			}
+		} finally {
+			csv.close();
+		}
+	}
+
+	/**
+	 * Read stop_times.txt.  Reader is closed.
+	 * @param reader  source of stop_times.txt
+	 * @throws IOException  if a required column is missing
+	 */
+	public void readStopTimes(Reader reader) throws IOException {
+		CsvReader csv = new CsvReader(reader);
+		try {
+			int trip = csv.column("trip_id");
+			int stop = csv.column("stop_id");
+
+			String[] row;
+			while ((row = csv.next()) != null) {
+				Integer route = routeOfTrip.get(csv.field(row, trip));
+				Stop served = stopsById.get(csv.field(row, stop));
+				if (route != null && served != null)
+					served.routes.set(route);
+			}
+		} finally {
+			csv.close();
+		}
+	}
+
+	/**
+	 * Gets number of rows of stops.txt left out of catalogue
+	 * @return  number of stations, entrances and stops with no numeric code
+	 */
+	public int getSkippedCount() {
+		return skipped;
+	}
+
+	/**
+	 * Write catalogue of stops read so far.  Where several stops have the
+	 * same stop number, the first in stops.txt is kept, served by the
+	 * routes of all.
+	 * @param file  file to which catalogue is written
+	 * @return  number of stops in catalogue
+	 * @throws IOException  if file cannot be written
+	 */
+	public int write(File file) throws IOException {
+		if (routeNames.size() > StopCatalogue.MAX_SHORT + 1)
+			throw new IOException("Too many routes: " + routeNames.size());
+
+		TreeMap<Integer, Stop> byNumber = new TreeMap<Integer, Stop>();
+		for (Stop next : stopsById.values()) {
+			Stop first = byNumber.get(next.stopNum);
+			if (first == null)
+				byNumber.put(next.stopNum, next);
+			else
+				first.routes.or(next.routes);
+		}
+
+		ByteArrayOutputStream strings = new ByteArrayOutputStream();
+		int numStops = byNumber.size();
+		int numRefs = 0;
+		for (Stop next : byNumber.values())
+			numRefs += next.routes.cardinality();
+
+		int routeRefsStart = StopCatalogue.HEADER_SIZE + numStops * StopCatalogue.STOP_RECORD_SIZE
+				+ routeNames.size() * StopCatalogue.ROUTE_RECORD_SIZE;
+		int stringsStart = routeRefsStart + 2 * numRefs;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(StopCatalogue.MAGIC);
+			out.writeInt(StopCatalogue.VERSION);
+			out.writeInt(numStops);
+			out.writeInt(routeNames.size());
+			out.writeInt(routeRefsStart);
+			out.writeInt(stringsStart);
+
+			int firstRef = 0;
+			for (Stop next : byNumber.values()) {
+				byte[] name = truncate(next.name.getBytes(StopCatalogue.UTF_8));
+				int routeCount = next.routes.cardinality();
+				out.writeInt(next.stopNum);
+				out.writeInt(next.latE6);
+				out.writeInt(next.lonE6);
+				out.writeInt(strings.size());
+				out.writeInt(firstRef);
+				out.writeShort(name.length);
+				out.writeShort(routeCount);
+				strings.write(name, 0, name.length);
+				firstRef += routeCount;
+			}
+
+			for (String next : routeNames) {
+				byte[] name = next.getBytes(StopCatalogue.UTF_8);
+				out.writeInt(strings.size());
+				out.writeInt(name.length);
+				strings.write(name, 0, name.length);
+			}
+
+			for (Stop next : byNumber.values()) {
+				for (int r = next.routes.nextSetBit(0); r >= 0; r = next.routes.nextSetBit(r + 1))
+					out.writeShort(r);
+			}
+
+			strings.writeTo(out);
+		} finally {
+			out.close();
+		}
+
+		return numStops;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: GtfsStopImporter <gtfs directory> <catalogue file>");
+			System.exit(1);
+		}
+
+		int numStops = importFeed(new File(args[0]), new File(args[1]));
+		System.out.println("Wrote " + numStops + " stops to " + args[1]);
+	}
+
+	private int indexOfRoute(String name) {
+		int index = routeNames.indexOf(name);
+		if (index < 0) {
+			index = routeNames.size();
+			routeNames.add(name);
+		}
+		return index;
+	}
+
+	/**
+	 * Pad route numbers to three digits, as RTTI does
+	 */
+	private static String normalise(String routeName) {
+		for (int i = 0; i < routeName.length(); i++) {
+			if (!Character.isDigit(routeName.charAt(i)))
+				return routeName;
+		}
+
+		StringBuilder padded = new StringBuilder(routeName);
+		while (padded.length() < 3)
+			padded.insert(0, '0');
+		return padded.toString();
+	}
+
+	/**
+	 * Shorten name to fit length field, without splitting a character
+	 */
+	private static byte[] truncate(byte[] name) {
+		if (name.length <= StopCatalogue.MAX_SHORT)
+			return name;
+
+		int length = StopCatalogue.MAX_SHORT;
+		while ((name[length] & 0xc0) == 0x80)
+			length--;
+		byte[] shorter = new byte[length];
+		System.arraycopy(name, 0, shorter, 0, length);
+		return shorter;
+	}
+
+	private static Reader open(File file) throws IOException {
+		return new InputStreamReader(new FileInputStream(file), StopCatalogue.UTF_8);
+	}
+
+	/**
+	 * Reads rows of a comma-separated file having a header row.  Fields may
+	 * be quoted, with quotes inside them doubled.
+	 */
+	private static class CsvReader {
+		private BufferedReader reader;
+		private Map<String, Integer> columns;
+		private List<String> fields;
+		private StringBuilder field;
+
+		CsvReader(Reader reader) throws IOException {
+			this.reader = new BufferedReader(reader);
+			fields = new ArrayList<String>();
+			field = new StringBuilder();
+			columns = new HashMap<String, Integer>();
+
+			String[] header = next();
+			if (header == null)
+				throw new IOException("File is empty");
+			for (int i = 0; i < header.length; i++) {
+				// a byte order mark may precede first column name
+				String name = (i == 0 && header[i].startsWith("\uFEFF") ? header[i].substring(1) : header[i]);
+				columns.put(name.trim(), i);
+			}
+		}
+
+		int column(String name) throws IOException {
+			Integer index = columns.get(name);
+			if (index == null)
+				throw new IOException("Missing column " + name);
+			return index;
+		}
+
+		int optionalColumn(String name) {
+			Integer index = columns.get(name);
+			return (index == null ? -1 : index);
+		}
+
+		String field(String[] row, int column) {
+			return (column < row.length ? row[column] : "");
+		}
+
+		/**
+		 * Read next row
+		 * @return  fields of row, or null at end of file
+		 */
+		String[] next() throws IOException {
+			String line;
+			do {
+				line = reader.readLine();
+				if (line == null)
+					return null;
+			} while (line.length() == 0);
+
+			fields.clear();
+			field.setLength(0);
+			boolean quoted = false;
+			for (int i = 0; i < line.length(); i++) {
+				char c = line.charAt(i);
+				if (quoted) {
+					if (c != '"')
+						field.append(c);
+					else if (i + 1 < line.length() && line.charAt(i + 1) == '"')
+						field.append(line.charAt(++i));
+					else
+						quoted = false;
+				} else if (c == '"')
+					quoted = true;
+				else if (c == ',') {
+					fields.add(field.toString());
+					field.setLength(0);
+				} else
+					field.append(c);
+			}
+			fields.add(field.toString());
+
+			return fields.toArray(new String[fields.size()]);
+		}
+
+		void close() throws IOException {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package ca.ubc.cpsc210.nextbus.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+import ca.ubc.cpsc210.nextbus.model.BusFleetSnapshot;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusRouteRegistry;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.StalenessPolicy;
+import ca.ubc.cpsc210.nextbus.model.StopSnapshot;
+import ca.ubc.cpsc210.nextbus.model.WaitTimeTable;
+
+/**
+ * Most recent wait times and bus positions of each stop, kept on disk so
+ * that they can be shown as soon as the app starts, before they are fetched
+ * again.  Each stop is saved to its own small file, stamped with the times
+ * its wait times and buses were fetched.
+ *
+ * <p>Stops are saved on a background thread.  A stop saved several times
+ * before it is written is written once, with its latest data.  A file that
+ * cannot be read (e.g. one cut short when the app died) is ignored: this is
+ * a cache, so losing it costs only a slower start.
+ *
+ * <p>The file of a stop holds, all integers big-endian: magic, version,
+ * stop number (3 ints); time wait times were fetched (long) and, if not 0,
+ * number of wait times (int) and for each, route name (modified UTF-8),
+ * minutes (int) and cancelled (boolean); time buses were fetched (long)
+ * and, if not 0, number of buses (int) and for each, route name, vehicle
+ * number, latitude and longitude in microdegrees, destination and time
+ * recorded.  Names, destination and time are each preceded by a boolean
+ * that is false if they are null.
+ */
+public class LastKnownDataCache {
+	/**
+	 * Data fetched longer ago than this is not restored
+	 */
+	public static final long MAX_AGE = TimeUnit.HOURS.toMillis(6);
+
+	static final int MAGIC = 0x4e424c4b;	// "NBLK"
+	static final int VERSION = 1;
+
+	private static final String LOG_TAG = "LastKnownDataCache";
+
+	// restored buses are all flagged: none of their positions is current
+	private static final StalenessPolicy RESTORED_POSITIONS =
+			new StalenessPolicy(0, StalenessPolicy.Action.FLAG);
+
+	private File directory;
+	private ExecutorService writer;
+	private ConcurrentMap<Integer, BusStop> pending;
+
+	/**
+	 * Constructor
+	 * @param directory  directory in which to keep files; created if needed
+	 */
+	public LastKnownDataCache(File directory) {
+		this.directory = directory;
+		pending = new ConcurrentHashMap<Integer, BusStop>();
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "last-known-data-writer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Save current wait times and buses of a stop.  Does not wait for them to
+	 * be written.
+	 * @param stop  the stop
+	 */
+	public void save(final BusStop stop) {
+		if (pending.put(stop.getStopNum(), stop) != null)
+			return;	// write already queued will see latest data
+
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				pending.remove(stop.getStopNum());
+				try {
+					write(stop.getStopNum(), stop.getSnapshot());
+				} catch (IOException e) {
+					Log.e(LOG_TAG, "Error saving data of stop " + stop.getStopNum() + ": "
+							+ e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Show last known wait times and buses of a stop until they are fetched.
+	 * Reads from disk, so should not be called on UI thread.
+	 * @param stop  the stop; has no effect if its data has been fetched
+	 * @return  true if data was restored
+	 */
+	public boolean restore(BusStop stop) {
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileOf(stop.getStopNum()))));
+		} catch (FileNotFoundException e) {
+			return false;
+		}
+
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != stop.getStopNum())
+				return false;
+
+			long now = System.currentTimeMillis();
+			WaitTimeTable table = new WaitTimeTable();
+			long waitTimesFetchTime = in.readLong();
+			if (waitTimesFetchTime != 0)
+				readWaitTimes(in, table);
+
+			BusFleetSnapshot fleet = new BusFleetSnapshot();
+			long busesFetchTime = in.readLong();
+			if (busesFetchTime != 0) {
+				readBuses(in, fleet, busesFetchTime);
+				fleet.applyStaleness(RESTORED_POSITIONS, now);
+			}
+
+			if (now - waitTimesFetchTime > MAX_AGE) {
+				table.clear();
+				waitTimesFetchTime = 0;
+			}
+			if (now - busesFetchTime > MAX_AGE) {
+				fleet.clear();
+				busesFetchTime = 0;
+			}
+			if (waitTimesFetchTime == 0 && busesFetchTime == 0)
+				return false;
+
+			return stop.restore(table, waitTimesFetchTime, fleet, busesFetchTime);
+		} catch (IOException e) {
+			Log.e(LOG_TAG, "Ignoring saved data of stop " + stop.getStopNum() + ": " + e.getMessage());
+			return false;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// ignore: nothing was written
+			}
+		}
+	}
+
+	/**
+	 * Write snapshot of stop to its file, replacing any earlier one
+	 */
+	private void write(int stopNum, StopSnapshot snapshot) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create " + directory);
+
+		File file = fileOf(stopNum);
+		File temp = new File(directory, file.getName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(stopNum);
+
+			out.writeLong(snapshot.getWaitTimesFetchTime());
+			if (snapshot.getWaitTimesFetchTime() != 0)
+				writeWaitTimes(out, snapshot.getWaitTimes());
+
+			out.writeLong(snapshot.getBusesFetchTime());
+			if (snapshot.getBusesFetchTime() != 0)
+				writeBuses(out, snapshot.getBuses());
+		} finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Unable to replace " + file);
+		}
+	}
+
+	private static void writeWaitTimes(DataOutputStream out, WaitTimeTable table) throws IOException {
+		out.writeInt(table.size());
+		for (int i = 0; i < table.size(); i++) {
+			BusRoute route = table.getRoute(i);
+			writeString(out, route == null ? null : route.getName());
+			out.writeInt(table.getMinutes(i));
+			out.writeBoolean(table.isCancelled(i));
+		}
+	}
+
+	private static void readWaitTimes(DataInputStream in, WaitTimeTable table) throws IOException {
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			BusRoute route = readRoute(in);
+			table.add(route, in.readInt(), in.readBoolean());
+		}
+	}
+
+	private static void writeBuses(DataOutputStream out, BusFleetSnapshot fleet) throws IOException {
+		out.writeInt(fleet.size());
+		for (int i = 0; i < fleet.size(); i++) {
+			BusRoute route = fleet.getRoute(i);
+			writeString(out, route == null ? null : route.getName());
+			out.writeInt(fleet.getVehicleNo(i));
+			out.writeInt(fleet.getLatitudeE6(i));
+			out.writeInt(fleet.getLongitudeE6(i));
+			writeString(out, fleet.getDestination(i));
+			writeString(out, fleet.getTime(i));
+		}
+	}
+
+	private static void readBuses(DataInputStream in, BusFleetSnapshot fleet, long fetchTime)
+			throws IOException {
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			BusRoute route = readRoute(in);
+			int vehicleNo = in.readInt();
+			int latE6 = in.readInt();
+			int lonE6 = in.readInt();
+			String dest = readString(in);
+			String time = readString(in);
+
+			// recorded time is resolved against time of fetch, as it was then
+			fleet.addE6(route, vehicleNo, latE6, lonE6, dest, time, fetchTime);
+		}
+	}
+
+	private static BusRoute readRoute(DataInputStream in) throws IOException {
+		String name = readString(in);
+		return (name == null ? null : BusRouteRegistry.getInstance().intern(name));
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null)
+			out.writeUTF(s);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return (in.readBoolean() ? in.readUTF() : null);
+	}
+
+	private File fileOf(int stopNum) {
+		return new File(directory, Integer.toString(stopNum));
+	}
+}
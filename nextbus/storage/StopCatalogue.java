@@ -0,0 +1,195 @@
+package ca.ubc.cpsc210.nextbus.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusRouteRegistry;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.util.FixedLatLon;
+
+/**
+ * Read-only table of bus stops (number, description, location and routes)
+ * held in a binary file written by GtfsStopImporter.  The file is memory
+ * mapped rather than read, so opening it is cheap however many stops it
+ * holds, and a BusStop is only created when a stop is looked up.
+ *
+ * <p>The file is laid out as follows, all integers big-endian:
+ * <pre>
+ *   header        magic, version, number of stops, number of routes,
+ *                 offset of route references, offset of strings  (6 ints)
+ *   stops         one record per stop in increasing order of stop number:
+ *                 stop number, latitude and longitude in microdegrees,
+ *                 offset of name, index of first route reference  (5 ints),
+ *                 length of name, number of routes  (2 unsigned shorts)
+ *   routes        one record per route: offset of name, length of name  (2 ints)
+ *   route refs    index of each route of each stop  (unsigned shorts)
+ *   strings       names of stops and routes, UTF-8
+ * </pre>
+ * String offsets are relative to the start of the strings.
+ *
+ * <p>Safe for use by several threads at once.
+ */
+public class StopCatalogue {
+	static final int MAGIC = 0x4e425343;	// "NBSC"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 24;
+	static final int STOP_RECORD_SIZE = 24;
+	static final int ROUTE_RECORD_SIZE = 8;
+	static final int MAX_SHORT = 0xffff;
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer buffer;
+	private final int numStops;
+	private final int numRoutes;
+	private final int routesStart;
+	private final int routeRefsStart;
+	private final int stringsStart;
+	private final AtomicReferenceArray<BusRoute> routes;
+
+	private StopCatalogue(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a stop catalogue");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException("Unsupported stop catalogue version " + buffer.getInt(4));
+
+		numStops = buffer.getInt(8);
+		numRoutes = buffer.getInt(12);
+		routeRefsStart = buffer.getInt(16);
+		stringsStart = buffer.getInt(20);
+		if (numStops < 0 || numStops > (buffer.capacity() - HEADER_SIZE) / STOP_RECORD_SIZE)
+			throw new IOException("Stop catalogue is corrupt");
+		routesStart = HEADER_SIZE + numStops * STOP_RECORD_SIZE;
+
+		if (numRoutes < 0 || numRoutes > MAX_SHORT + 1
+				|| (long) routesStart + (long) numRoutes * ROUTE_RECORD_SIZE > routeRefsStart
+				|| routeRefsStart > stringsStart || stringsStart > buffer.capacity())
+			throw new IOException("Stop catalogue is corrupt");
+
+		routes = new AtomicReferenceArray<BusRoute>(numRoutes);
+	}
+
+	/**
+	 * Open a stop catalogue
+	 * @param file  file written by GtfsStopImporter
+	 * @return  the catalogue
+	 * @throws IOException  if file cannot be read or is not a stop catalogue
+	 */
+	public static StopCatalogue open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// mapping remains valid once channel is closed
+			return new StopCatalogue(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Gets number of stops in catalogue
+	 * @return  number of stops
+	 */
+	public int size() {
+		return numStops;
+	}
+
+	/**
+	 * Determine if catalogue has a stop
+	 * @param stopNum  the stop number
+	 * @return  true if catalogue has stop
+	 */
+	public boolean contains(int stopNum) {
+		return find(stopNum) >= 0;
+	}
+
+	/**
+	 * Gets a stop from catalogue.  Each call produces a new BusStop, which has
+	 * no wait times or buses.
+	 * @param stopNum  the stop number
+	 * @return  the stop, or null if catalogue has no such stop
+	 */
+	public BusStop getBusStop(int stopNum) {
+		int index = find(stopNum);
+		if (index < 0)
+			return null;
+		return getBusStopAt(index);
+	}
+
+	/**
+	 * Gets a stop by its position in catalogue, for iterating over all stops
+	 * in order of stop number.  Each call produces a new BusStop.
+	 * @param index  position of stop, from 0 to size() - 1
+	 * @return  the stop
+	 * @throws IndexOutOfBoundsException  if there is no such position
+	 */
+	public BusStop getBusStopAt(int index) {
+		if (index < 0 || index >= numStops)
+			throw new IndexOutOfBoundsException("No stop at " + index);
+
+		int record = HEADER_SIZE + index * STOP_RECORD_SIZE;
+		int latE6 = buffer.getInt(record + 4);
+		int lonE6 = buffer.getInt(record + 8);
+		int nameOffset = buffer.getInt(record + 12);
+		int firstRef = buffer.getInt(record + 16);
+		int nameLength = buffer.getShort(record + 20) & MAX_SHORT;
+		int routeCount = buffer.getShort(record + 22) & MAX_SHORT;
+
+		Set<BusRoute> stopRoutes = new HashSet<BusRoute>();
+		for (int i = 0; i < routeCount; i++)
+			stopRoutes.add(getRoute(buffer.getShort(routeRefsStart + 2 * (firstRef + i)) & MAX_SHORT));
+
+		return new BusStop(buffer.getInt(record), readString(nameOffset, nameLength),
+				new FixedLatLon(latE6, lonE6), stopRoutes);
+	}
+
+	/**
+	 * Binary search for a stop
+	 * @return  position of stop, or -1 if there is no such stop
+	 */
+	private int find(int stopNum) {
+		int low = 0;
+		int high = numStops - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midNum = buffer.getInt(HEADER_SIZE + mid * STOP_RECORD_SIZE);
+			if (midNum < stopNum)
+				low = mid + 1;
+			else if (midNum > stopNum)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets a route, interning it the first time it is needed
+	 */
+	private BusRoute getRoute(int index) {
+		BusRoute route = routes.get(index);
+		if (route == null) {
+			int record = routesStart + index * ROUTE_RECORD_SIZE;
+			String name = readString(buffer.getInt(record), buffer.getInt(record + 4));
+			route = BusRouteRegistry.getInstance().intern(name);
+			routes.set(index, route);
+		}
+		return route;
+	}
+
+	private String readString(int offset, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer view = buffer.duplicate();	// own position, so threads do not interfere
+		view.position(stringsStart + offset);
+		view.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+}
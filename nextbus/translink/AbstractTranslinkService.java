@@ -1,5 +1,6 @@
 package ca.ubc.cpsc210.nextbus.translink;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -9,20 +10,86 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
-import ca.ubc.cpsc210.nextbus.model.Bus;
+import ca.ubc.cpsc210.nextbus.model.BusFleetSnapshot;
 import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusRouteRegistry;
 import ca.ubc.cpsc210.nextbus.model.BusStop;
-import ca.ubc.cpsc210.nextbus.model.BusWaitTime;
+import ca.ubc.cpsc210.nextbus.model.StalenessPolicy;
+import ca.ubc.cpsc210.nextbus.model.WaitTimeTable;
+import ca.ubc.cpsc210.nextbus.util.FixedLatLon;
+import ca.ubc.cpsc210.nextbus.util.JSONPullParser;
+import ca.ubc.cpsc210.nextbus.util.JSONPullParser.Token;
 
 public abstract class AbstractTranslinkService implements ITranslinkService {
 
+	/**
+	 * How responses from Translink are parsed
+	 */
+	public enum ParseMode {
+		/**
+		 * Single pass over the response with a pull parser; model objects are
+		 * built directly from tokens
+		 */
+		STREAMING,
+
+		/**
+		 * Response is parsed into a JSONObject/JSONArray tree first
+		 */
+		TREE
+	}
+
+	private static final String[] ERROR_FIELDS = { "Code", "Message" };
+	private static final String[] ROUTE_SCHEDULE_FIELDS = { "RouteNo", "Schedules" };
+	private static final String[] SCHEDULE_FIELDS = { "ExpectedCountdown", "CancelledStop", "CancelledTrip" };
+	private static final String[] BUS_FIELDS = { "RouteNo", "Latitude", "Longitude", "Destination", "RecordedTime", "VehicleNo" };
+	private static final String[] STOP_FIELDS = { "StopNo", "Name", "Latitude", "Longitude", "Routes", "Code", "Message" };
+
+	private volatile ParseMode parseMode;
+	private volatile StalenessPolicy stalenessPolicy;
+
 	public AbstractTranslinkService() {
 		super();
+		parseMode = ParseMode.STREAMING;
+		stalenessPolicy = StalenessPolicy.NONE;
+	}
+
+	/**
+	 * Gets mode used to parse responses
+	 * @return  parse mode
+	 */
+	public ParseMode getParseMode() {
+		return parseMode;
+	}
+
+	/**
+	 * Sets mode used to parse responses
+	 * @param parseMode  the parse mode
+	 */
+	public void setParseMode(ParseMode parseMode) {
+		this.parseMode = parseMode;
+	}
+
+	@Override
+	public StalenessPolicy getStalenessPolicy() {
+		return stalenessPolicy;
+	}
+
+	@Override
+	public void setStalenessPolicy(StalenessPolicy policy) {
+		if (policy == null)
+			throw new NullPointerException("policy");
+		stalenessPolicy = policy;
+	}
+
+	@Override
+	public BatchResult addWaitTimeEstimatesToStops(Collection<BusStop> stops) {
+		return BatchRequests.addWaitTimeEstimates(this, stops);
 	}
 
 	/**
-	 * Parses estimated wait times from string received from Translink service and adds them to 
-	 * associated bus stop.  Returns without adding estimated wait times if
+	 * Parses estimated wait times from string received from Translink service and replaces
+	 * wait times of associated bus stop with them.  Wait times are parsed into a new table,
+	 * which is published to the stop only once complete.  Clears wait times if
 	 * Translink returns a JSON object that represents an error.
 	 * @param input  response from Translink service
 	 * @param stop   bus stop associated with bus locations
@@ -30,6 +97,16 @@ public abstract class AbstractTranslinkService implements ITranslinkService {
 	 */
 	protected void parseWaitTimesFromJSON(String input, BusStop stop)
 			throws JSONException {
+		WaitTimeTable table = new WaitTimeTable();
+		if (parseMode == ParseMode.STREAMING)
+			streamWaitTimesFromJSON(input, stop, table);
+		else
+			parseWaitTimesFromTree(input, stop, table);
+		stop.setWaitTimes(table);
+	}
+
+	private void parseWaitTimesFromTree(String input, BusStop stop, WaitTimeTable table)
+			throws JSONException {
 
 		// did we get a JSONObject containing an error message as a response?
 		try {
@@ -48,7 +125,7 @@ public abstract class AbstractTranslinkService implements ITranslinkService {
 		for (int index = 0; index < numRoutes; index++) {
 			JSONObject routeSched = response.getJSONObject(index);
 			String routeName = routeSched.getString("RouteNo");
-			BusRoute busRoute = stop.getRouteNamed(routeName);
+			BusRoute busRoute = routeNamed(stop, routeName);
 			JSONArray schedules = routeSched.getJSONArray("Schedules");
 
 			for (int i = 0; i < schedules.length(); i++) {
@@ -57,23 +134,36 @@ public abstract class AbstractTranslinkService implements ITranslinkService {
 				boolean cancelledStop = shed.getBoolean("CancelledStop");
 				boolean cancelledTrip = shed.getBoolean("CancelledTrip");
 				boolean isCancelled = cancelledStop || cancelledTrip;
-				BusWaitTime next = new BusWaitTime(busRoute, countdown,
-						isCancelled);
-				stop.addWaitTime(next);
+				table.add(busRoute, countdown, isCancelled);
 			}
 		}
 	}
 
 	/**
-	 * Parses buses from string received from Translink service and adds them to 
-	 * associated bus stop.  Returns without adding buses to bus stop if
-	 * Translink returns a JSON object that represents an error. 
+	 * Parses buses from string received from Translink service and replaces buses of
+	 * associated bus stop with them.  Buses are parsed into a new snapshot, which is
+	 * published to the stop only once complete.  Recorded times are resolved to
+	 * milliseconds since the epoch relative to the time of parsing, and stale
+	 * positions are dropped or flagged according to the staleness policy.  Clears
+	 * buses if Translink returns a JSON object that represents an error.
 	 * @param input  response from Translink service
 	 * @param stop   bus stop associated with bus locations
 	 * @throws JSONException when input is not of the expected form
 	 */
 	protected void parseBusesFromJSON(String input, BusStop stop)
 			throws JSONException {
+		BusFleetSnapshot fleet = new BusFleetSnapshot();
+		long now = System.currentTimeMillis();
+		if (parseMode == ParseMode.STREAMING)
+			streamBusesFromJSON(input, stop, fleet, now);
+		else
+			parseBusesFromTree(input, stop, fleet, now);
+		fleet.applyStaleness(stalenessPolicy, now);
+		stop.setBuses(fleet);
+	}
+
+	private void parseBusesFromTree(String input, BusStop stop, BusFleetSnapshot fleet,
+			long now) throws JSONException {
 
 		// did we get a JSONObject containing an error message as a response?
 		try {
@@ -92,12 +182,13 @@ public abstract class AbstractTranslinkService implements ITranslinkService {
 		for (int index = 0; index < numRoutes; index++) {
 			JSONObject bus = response.getJSONObject(index);
 			String routeName = bus.getString("RouteNo");
-			BusRoute route = stop.getRouteNamed(routeName);
+			BusRoute route = routeNamed(stop, routeName);
+
+			int vehicleNo = parseVehicleNo(bus.optString("VehicleNo", null));
 
-			Bus b = new Bus(route, bus.getDouble("Latitude"),
+			fleet.add(route, vehicleNo, bus.getDouble("Latitude"),
 					bus.getDouble("Longitude"), bus.getString("Destination"),
-					bus.getString("RecordedTime"));
-			stop.addBus(b);
+					bus.getString("RecordedTime"), now);
 		}
 	}
 
@@ -109,6 +200,13 @@ public abstract class AbstractTranslinkService implements ITranslinkService {
 	 * @throws JSONException when input is not of the expected form
 	 */
 	protected BusStop parseBusStopFromJSON(String input) throws JSONException {
+		if (parseMode == ParseMode.STREAMING)
+			return streamBusStopFromJSON(input);
+		else
+			return parseBusStopFromTree(input);
+	}
+
+	private BusStop parseBusStopFromTree(String input) throws JSONException {
 		JSONObject obj = (JSONObject) new JSONTokener(input).nextValue();
 
 		// did we get a JSONObject containing an error code & message as a response?
@@ -131,6 +229,296 @@ public abstract class AbstractTranslinkService implements ITranslinkService {
 		return busStop;
 	}
 
+	/**
+	 * Single-pass equivalent of parseWaitTimesFromTree
+	 */
+	private void streamWaitTimesFromJSON(String input, BusStop stop, WaitTimeTable table)
+			throws JSONException {
+		JSONPullParser parser = new JSONPullParser(input);
+
+		if (parser.peek() == Token.BEGIN_OBJECT) {
+			skipErrorObject(parser);
+			return;
+		}
+
+		int[] countdowns = new int[8];
+		boolean[] cancelled = new boolean[8];
+
+		parser.beginArray();
+		while (parser.hasNext()) {
+			String routeName = null;
+			int numSchedules = 0;
+			boolean hasSchedules = false;
+
+			parser.beginObject();
+			while (parser.hasNext()) {
+				switch (parser.nextName(ROUTE_SCHEDULE_FIELDS)) {
+				case 0:
+					routeName = parser.nextString();
+					break;
+				case 1:
+					hasSchedules = true;
+					parser.beginArray();
+					while (parser.hasNext()) {
+						if (numSchedules == countdowns.length) {
+							countdowns = grow(countdowns);
+							cancelled = grow(cancelled);
+						}
+						readSchedule(parser, countdowns, cancelled, numSchedules++);
+					}
+					parser.endArray();
+					break;
+				default:
+					parser.skipValue();
+				}
+			}
+			parser.endObject();
+
+			if (routeName == null)
+				throw new JSONException("No value for RouteNo");
+			if (!hasSchedules)
+				throw new JSONException("No value for Schedules");
+
+			BusRoute busRoute = routeNamed(stop, routeName);
+			for (int i = 0; i < numSchedules; i++)
+				table.add(busRoute, countdowns[i], cancelled[i]);
+		}
+		parser.endArray();
+	}
+
+	/**
+	 * Read one schedule object into slot index of countdowns/cancelled
+	 */
+	private void readSchedule(JSONPullParser parser, int[] countdowns,
+			boolean[] cancelled, int index) throws JSONException {
+		int seen = 0;
+		boolean isCancelled = false;
+
+		parser.beginObject();
+		while (parser.hasNext()) {
+			int field = parser.nextName(SCHEDULE_FIELDS);
+			switch (field) {
+			case 0:
+				countdowns[index] = parser.nextInt();
+				break;
+			case 1:
+			case 2:
+				isCancelled |= parser.nextBoolean();
+				break;
+			default:
+				parser.skipValue();
+			}
+			if (field >= 0)
+				seen |= 1 << field;
+		}
+		parser.endObject();
+
+		checkSeen(seen, SCHEDULE_FIELDS);
+		cancelled[index] = isCancelled;
+	}
+
+	/**
+	 * Single-pass equivalent of parseBusesFromTree
+	 */
+	private void streamBusesFromJSON(String input, BusStop stop, BusFleetSnapshot fleet,
+			long now) throws JSONException {
+		JSONPullParser parser = new JSONPullParser(input);
+
+		if (parser.peek() == Token.BEGIN_OBJECT) {
+			skipErrorObject(parser);
+			return;
+		}
+
+		parser.beginArray();
+		while (parser.hasNext()) {
+			String routeName = null;
+			String dest = null;
+			String time = null;
+			int vehicleNo = BusFleetSnapshot.NO_VEHICLE;
+			int latE6 = 0;
+			int lonE6 = 0;
+			int seen = 0;
+
+			parser.beginObject();
+			while (parser.hasNext()) {
+				int field = parser.nextName(BUS_FIELDS);
+				switch (field) {
+				case 0:
+					routeName = parser.nextString();
+					break;
+				case 1:
+					latE6 = nextE6(parser);
+					break;
+				case 2:
+					lonE6 = nextE6(parser);
+					break;
+				case 3:
+					dest = parser.nextString();
+					break;
+				case 4:
+					time = parser.nextString();
+					break;
+				case 5:
+					vehicleNo = parseVehicleNo(parser.nextString());
+					break;
+				default:
+					parser.skipValue();
+				}
+				if (field >= 0)
+					seen |= 1 << field;
+			}
+			parser.endObject();
+
+			// vehicle number is optional
+			checkSeen(seen, BUS_FIELDS, 5);
+			fleet.addE6(routeNamed(stop, routeName), vehicleNo, latE6, lonE6, dest, time, now);
+		}
+		parser.endArray();
+	}
+
+	/**
+	 * Single-pass equivalent of parseBusStopFromTree
+	 */
+	private BusStop streamBusStopFromJSON(String input) throws JSONException {
+		JSONPullParser parser = new JSONPullParser(input);
+		int stopNum = 0;
+		String name = null;
+		String routes = null;
+		int latE6 = 0;
+		int lonE6 = 0;
+		int seen = 0;
+
+		parser.beginObject();
+		while (parser.hasNext()) {
+			int field = parser.nextName(STOP_FIELDS);
+			switch (field) {
+			case 0:
+				stopNum = parser.nextInt();
+				break;
+			case 1:
+				name = parser.nextString();
+				break;
+			case 2:
+				latE6 = nextE6(parser);
+				break;
+			case 3:
+				lonE6 = nextE6(parser);
+				break;
+			case 4:
+				routes = parser.nextString();
+				break;
+			default:
+				// Code, Message and fields we do not use
+				parser.skipValue();
+			}
+			if (field >= 0)
+				seen |= 1 << field;
+		}
+		parser.endObject();
+
+		// did we get a JSONObject containing an error code & message as a response?
+		if ((seen & 0x60) == 0x60)
+			return null;
+
+		checkSeen(seen & 0x1f, STOP_FIELDS, 5);
+		return new BusStop(stopNum, name, new FixedLatLon(latE6, lonE6),
+				buildRoutesFromString(routes));
+	}
+
+	/**
+	 * Consume an object received in place of an array.  Translink responds
+	 * with an object only to report an error, which must have a code and message.
+	 * @throws JSONException  if object does not represent an error
+	 */
+	private void skipErrorObject(JSONPullParser parser) throws JSONException {
+		int seen = 0;
+
+		parser.beginObject();
+		while (parser.hasNext()) {
+			int field = parser.nextName(ERROR_FIELDS);
+			parser.skipValue();
+			if (field >= 0)
+				seen |= 1 << field;
+		}
+		parser.endObject();
+
+		if (seen != 3)
+			throw new JSONException("Expected an array or an error object");
+	}
+
+	private static void checkSeen(int seen, String[] fields) throws JSONException {
+		checkSeen(seen, fields, fields.length);
+	}
+
+	/**
+	 * Throw exception naming first of required fields that was not seen
+	 * @param seen    bit i is set if fields[i] was seen
+	 * @param fields  field names
+	 * @param count   number of fields (from start of fields) that are required
+	 */
+	private static void checkSeen(int seen, String[] fields, int count) throws JSONException {
+		for (int i = 0; i < count; i++) {
+			if ((seen & (1 << i)) == 0)
+				throw new JSONException("No value for " + fields[i]);
+		}
+	}
+
+	/**
+	 * Consume a coordinate in decimal degrees as microdegrees, without
+	 * parsing it as a double
+	 */
+	private static int nextE6(JSONPullParser parser) throws JSONException {
+		String text = parser.nextString();
+		try {
+			return FixedLatLon.parseE6(text);
+		} catch (NumberFormatException e) {
+			throw new JSONException("Not a number: " + text);
+		}
+	}
+
+	/**
+	 * Parse vehicle number, e.g. "7123"
+	 * @param text  vehicle number as text, or null
+	 * @return  vehicle number, or BusFleetSnapshot.NO_VEHICLE if text is null or not a number
+	 */
+	private static int parseVehicleNo(String text) {
+		if (text == null)
+			return BusFleetSnapshot.NO_VEHICLE;
+
+		try {
+			int vehicleNo = Integer.parseInt(text.trim());
+			return (vehicleNo < 0 ? BusFleetSnapshot.NO_VEHICLE : vehicleNo);
+		} catch (NumberFormatException e) {
+			return BusFleetSnapshot.NO_VEHICLE;
+		}
+	}
+
+	private static int[] grow(int[] array) {
+		int[] larger = new int[array.length * 2];
+		System.arraycopy(array, 0, larger, 0, array.length);
+		return larger;
+	}
+
+	private static boolean[] grow(boolean[] array) {
+		boolean[] larger = new boolean[array.length * 2];
+		System.arraycopy(array, 0, larger, 0, array.length);
+		return larger;
+	}
+
+	/**
+	 * Gets route serving stop having given name.  A route missing from the
+	 * stop's routes, e.g. one added since the stop catalogue was built, is
+	 * interned rather than left null.
+	 * 
+	 * @param stop       the stop
+	 * @param routeName  name of route
+	 * @return  the route with that name
+	 */
+	private static BusRoute routeNamed(BusStop stop, String routeName) {
+		BusRoute route = stop.getRouteNamed(routeName);
+		return (route == null ? BusRouteRegistry.getInstance().intern(routeName) : route);
+	}
+
 	/**
 	 * Parses set of bus routes from comma-delimited string of route names.
 	 * 
@@ -141,10 +529,11 @@ public abstract class AbstractTranslinkService implements ITranslinkService {
 	private Set<BusRoute> buildRoutesFromString(String routesAsString) {
 		Set<BusRoute> routes = new HashSet<BusRoute>();
 		StringTokenizer tokenizer = new StringTokenizer(routesAsString, ",");
+		BusRouteRegistry registry = BusRouteRegistry.getInstance();
 
 		while (tokenizer.hasMoreTokens()) {
 			String next = tokenizer.nextToken();
-			BusRoute route = new BusRoute(next.trim());
+			BusRoute route = registry.intern(next.trim());
 			routes.add(route);
 		}
 
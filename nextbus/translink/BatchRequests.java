@@ -0,0 +1,112 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+
+/**
+ * Fans per-stop requests for a batch of stops out over a bounded pool of
+ * worker threads shared by all Translink services.
+ */
+final class BatchRequests {
+	/**
+	 * Maximum number of requests in flight for a batch; matches the
+	 * default number of connections the transport allows per host
+	 */
+	private static final int MAX_PARALLEL_REQUESTS = PooledHttpTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+	private static ExecutorService workers;
+
+	private BatchRequests() {
+	}
+
+	/**
+	 * Add current wait time estimates to each of a collection of stops by
+	 * calling service.addWaitTimeEstimatesToStop for each one in parallel.
+	 * Blocks until every request has completed.
+	 *
+	 * @param service  the service used to update each stop
+	 * @param stops    the stops to update (duplicates are updated once)
+	 * @return  per-stop successes and failures
+	 */
+	static BatchResult addWaitTimeEstimates(final ITranslinkService service,
+			Collection<BusStop> stops) {
+		BatchResult result = new BatchResult();
+		List<BusStop> toUpdate = new ArrayList<BusStop>(new LinkedHashSet<BusStop>(stops));
+
+		if (toUpdate.size() == 1) {
+			BusStop stop = toUpdate.get(0);
+			try {
+				service.addWaitTimeEstimatesToStop(stop);
+				result.addSuccess(stop);
+			} catch (TranslinkException e) {
+				result.addFailure(stop, e);
+			}
+			return result;
+		}
+
+		List<Future<Void>> pending = new ArrayList<Future<Void>>(toUpdate.size());
+		for (final BusStop next : toUpdate) {
+			pending.add(workers().submit(new Callable<Void>() {
+				@Override
+				public Void call() throws TranslinkException {
+					service.addWaitTimeEstimatesToStop(next);
+					return null;
+				}
+			}));
+		}
+
+		for (int index = 0; index < toUpdate.size(); index++) {
+			BusStop stop = toUpdate.get(index);
+			try {
+				pending.get(index).get();
+				result.addSuccess(stop);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof TranslinkException)
+					result.addFailure(stop, (TranslinkException) cause);
+				else
+					result.addFailure(stop, new TranslinkException(
+							"Failed to get data from Translink service"));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (int i = index; i < toUpdate.size(); i++) {
+					pending.get(i).cancel(true);
+					result.addFailure(toUpdate.get(i),
+							new TranslinkException("Request interrupted"));
+				}
+				break;
+			}
+		}
+
+		return result;
+	}
+
+	private static synchronized ExecutorService workers() {
+		if (workers == null) {
+			workers = Executors.newFixedThreadPool(MAX_PARALLEL_REQUESTS, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "translink-batch-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+
+		return workers;
+	}
+}
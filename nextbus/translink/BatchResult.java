@@ -0,0 +1,79 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+
+/**
+ * Outcome of a batch request made for several bus stops: the stops that
+ * were updated successfully and, for each stop that was not, the exception
+ * that occurred.
+ */
+public class BatchResult {
+	private List<BusStop> succeeded;
+	private Map<BusStop, TranslinkException> failures;
+
+	/**
+	 * Constructor
+	 * 		Creates empty result
+	 */
+	public BatchResult() {
+		succeeded = new ArrayList<BusStop>();
+		failures = new LinkedHashMap<BusStop, TranslinkException>();
+	}
+
+	/**
+	 * Record that request for a stop succeeded
+	 * @param stop  the bus stop
+	 */
+	void addSuccess(BusStop stop) {
+		succeeded.add(stop);
+	}
+
+	/**
+	 * Record that request for a stop failed
+	 * @param stop  the bus stop
+	 * @param e     exception that caused the failure
+	 */
+	void addFailure(BusStop stop, TranslinkException e) {
+		failures.put(stop, e);
+	}
+
+	/**
+	 * Gets stops that were updated successfully, in the order requested
+	 * @return  stops updated successfully
+	 */
+	public List<BusStop> getSucceeded() {
+		return Collections.unmodifiableList(succeeded);
+	}
+
+	/**
+	 * Gets stops that could not be updated, each mapped to the exception that occurred
+	 * @return  failed stops and their exceptions
+	 */
+	public Map<BusStop, TranslinkException> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * Gets exception that occurred for a particular stop
+	 * @param stop  the bus stop
+	 * @return  exception for stop, or null if stop was updated successfully or not requested
+	 */
+	public TranslinkException getFailure(BusStop stop) {
+		return failures.get(stop);
+	}
+
+	/**
+	 * Determine if every stop in batch was updated successfully
+	 * @return  true if there were no failures, false otherwise
+	 */
+	public boolean isComplete() {
+		return failures.isEmpty();
+	}
+}
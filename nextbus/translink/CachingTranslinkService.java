@@ -0,0 +1,297 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.StalenessPolicy;
+
+/**
+ * Decorator that caches bus stop information (stop number, description,
+ * location and routes) obtained from another Translink service.
+ *
+ * <p>A cached stop is served from memory until its time-to-live expires.
+ * After that, if the decorated service supports conditional requests and
+ * the server supplied an ETag or Last-Modified date, the entry is revalidated
+ * and kept when the server reports it unchanged; otherwise it is fetched
+ * again.  The least recently used entries are evicted once the cache holds
+ * maxEntries stops.
+ *
+ * <p>Wait time estimates and bus locations change continually and are always
+ * obtained from the decorated service.
+ *
+ * Design Pattern: Decorator
+ */
+public class CachingTranslinkService implements ITranslinkService {
+	/**
+	 * Default time for which stop information is served without revalidation
+	 */
+	public static final long DEFAULT_STOP_TTL = TimeUnit.HOURS.toMillis(24);
+
+	/**
+	 * Default maximum number of stops held in cache
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 256;
+
+	private ITranslinkService delegate;
+	private volatile long stopTimeToLive;
+	private Map<String, CacheEntry> stops;
+	private AtomicLong hits;
+	private AtomicLong misses;
+	private AtomicLong revalidations;
+	private AtomicLong evictions;
+	private AtomicLong changes;
+
+	/**
+	 * Constructor
+	 * @param delegate        the service whose stop information is cached
+	 * @param stopTimeToLive  time in milliseconds for which stop information is served without revalidation
+	 * @param maxEntries      maximum number of stops held in cache
+	 */
+	@SuppressWarnings("serial")
+	public CachingTranslinkService(ITranslinkService delegate, long stopTimeToLive,
+			final int maxEntries) {
+		this.delegate = delegate;
+		this.stopTimeToLive = stopTimeToLive;
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		revalidations = new AtomicLong();
+		evictions = new AtomicLong();
+		changes = new AtomicLong();
+
+		// access-ordered so that the eldest entry is the least recently used
+		stops = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				if (size() > maxEntries) {
+					evictions.incrementAndGet();
+					changes.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Constructor
+	 * 		Uses default time-to-live and cache size
+	 * @param delegate  the service whose stop information is cached
+	 */
+	public CachingTranslinkService(ITranslinkService delegate) {
+		this(delegate, DEFAULT_STOP_TTL, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Sets time for which stop information is served without revalidation
+	 * @param millis  time-to-live in milliseconds; 0 revalidates on every request
+	 */
+	public void setStopTimeToLive(long millis) {
+		stopTimeToLive = millis;
+	}
+
+	@Override
+	public BusStop getBusStop(String stopNum) throws TranslinkException {
+		String key = stopNum.trim();
+		CacheEntry entry;
+
+		synchronized (stops) {
+			entry = stops.get(key);
+		}
+
+		long now = System.currentTimeMillis();
+		if (entry != null && now < entry.expires) {
+			hits.incrementAndGet();
+			return entry.copyOfStop();
+		}
+
+		misses.incrementAndGet();
+
+		CacheEntry fresh;
+		if (entry != null && entry.hasValidators()
+				&& delegate instanceof IConditionalTranslinkService) {
+			ConditionalBusStop result = ((IConditionalTranslinkService) delegate)
+					.getBusStopIfModified(key, entry.etag, entry.lastModified);
+
+			if (result.isNotModified()) {
+				revalidations.incrementAndGet();
+				fresh = new CacheEntry(entry.stop, entry.etag, entry.lastModified, now + stopTimeToLive);
+			} else {
+				fresh = newEntry(result.getStop(), result.getETag(), result.getLastModified(), now);
+			}
+		} else if (delegate instanceof IConditionalTranslinkService) {
+			ConditionalBusStop result = ((IConditionalTranslinkService) delegate)
+					.getBusStopIfModified(key, null, null);
+			fresh = newEntry(result.getStop(), result.getETag(), result.getLastModified(), now);
+		} else {
+			fresh = newEntry(delegate.getBusStop(key), null, null, now);
+		}
+
+		if (fresh == null) {
+			// Translink reported an error for this stop number: do not cache
+			synchronized (stops) {
+				if (stops.remove(key) != null)
+					changes.incrementAndGet();
+			}
+			return null;
+		}
+
+		synchronized (stops) {
+			CacheEntry previous = stops.put(key, fresh);
+			if (previous == null || previous.stop != fresh.stop)
+				changes.incrementAndGet();
+		}
+		return fresh.copyOfStop();
+	}
+
+	@Override
+	public void addWaitTimeEstimatesToStop(BusStop stop) throws TranslinkException {
+		delegate.addWaitTimeEstimatesToStop(stop);
+	}
+
+	@Override
+	public BatchResult addWaitTimeEstimatesToStops(Collection<BusStop> stops) {
+		return delegate.addWaitTimeEstimatesToStops(stops);
+	}
+
+	@Override
+	public void addBusLocationsForStop(BusStop stop) throws TranslinkException {
+		delegate.addBusLocationsForStop(stop);
+	}
+
+	@Override
+	public StalenessPolicy getStalenessPolicy() {
+		return delegate.getStalenessPolicy();
+	}
+
+	@Override
+	public void setStalenessPolicy(StalenessPolicy policy) {
+		delegate.setStalenessPolicy(policy);
+	}
+
+	/**
+	 * Remove all stops from cache
+	 */
+	public void clear() {
+		synchronized (stops) {
+			stops.clear();
+			changes.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Gets copies of all stops currently cached, whether or not their
+	 * time-to-live has expired
+	 * @return  cached stops
+	 */
+	public List<BusStop> getCachedStops() {
+		synchronized (stops) {
+			List<BusStop> cached = new ArrayList<BusStop>(stops.size());
+			for (CacheEntry next : stops.values())
+				cached.add(next.copyOfStop());
+			return cached;
+		}
+	}
+
+	/**
+	 * Gets number of times a stop has been added to, replaced in or removed
+	 * from cache, so that anything derived from the cached stops can tell
+	 * when it is out of date
+	 * @return  change count
+	 */
+	public long getChangeCount() {
+		return changes.get();
+	}
+
+	/**
+	 * Gets number of stops currently cached
+	 * @return  number of cached stops
+	 */
+	public int size() {
+		synchronized (stops) {
+			return stops.size();
+		}
+	}
+
+	/**
+	 * Gets number of requests for stop information served from cache
+	 * @return  number of cache hits
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets number of requests for stop information that were passed to the
+	 * decorated service (including revalidations)
+	 * @return  number of cache misses
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets number of cache misses where the server reported that the
+	 * cached stop had not been modified
+	 * @return  number of successful revalidations
+	 */
+	public long getRevalidatedCount() {
+		return revalidations.get();
+	}
+
+	/**
+	 * Gets number of stops evicted because cache was full
+	 * @return  number of evictions
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	private CacheEntry newEntry(BusStop stop, String etag, String lastModified, long now) {
+		if (stop == null)
+			return null;
+		return new CacheEntry(stop, etag, lastModified, now + stopTimeToLive);
+	}
+
+	/**
+	 * Cached stop information and the validators needed to revalidate it
+	 */
+	private static class CacheEntry {
+		private final BusStop stop;
+		private final String etag;
+		private final String lastModified;
+		private final long expires;
+
+		CacheEntry(BusStop stop, String etag, String lastModified, long expires) {
+			this.stop = stop;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.expires = expires;
+		}
+
+		boolean hasValidators() {
+			return etag != null || lastModified != null;
+		}
+
+		/**
+		 * Callers get their own stop, since wait times and buses are added to it
+		 */
+		BusStop copyOfStop() {
+			Set<BusRoute> routes = new HashSet<BusRoute>();
+			for (BusRoute next : stop.getRoutes())
+				routes.add(next);
+
+			return new BusStop(stop.getStopNum(), stop.getLocationDesc(), stop.getFixedLatLon(),
+					routes);
+		}
+	}
+}
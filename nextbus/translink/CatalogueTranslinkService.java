@@ -0,0 +1,98 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.StalenessPolicy;
+import ca.ubc.cpsc210.nextbus.storage.StopCatalogue;
+
+/**
+ * Decorator that answers requests for bus stop information from an offline
+ * stop catalogue, passing a request to the decorated service only when the
+ * catalogue does not have the stop.
+ *
+ * <p>Wait time estimates and bus locations are always obtained from the
+ * decorated service.
+ *
+ * Design Pattern: Decorator
+ */
+public class CatalogueTranslinkService implements ITranslinkService {
+	private ITranslinkService delegate;
+	private StopCatalogue catalogue;
+	private AtomicLong hits;
+	private AtomicLong misses;
+
+	/**
+	 * Constructor
+	 * @param delegate   the service to which requests the catalogue cannot answer are passed
+	 * @param catalogue  the stop catalogue
+	 */
+	public CatalogueTranslinkService(ITranslinkService delegate, StopCatalogue catalogue) {
+		this.delegate = delegate;
+		this.catalogue = catalogue;
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+	}
+
+	@Override
+	public BusStop getBusStop(String stopNum) throws TranslinkException {
+		BusStop stop = null;
+		try {
+			stop = catalogue.getBusStop(Integer.parseInt(stopNum.trim()));
+		} catch (NumberFormatException e) {
+			// not a stop number; let the service report it
+		}
+
+		if (stop != null) {
+			hits.incrementAndGet();
+			return stop;
+		}
+
+		misses.incrementAndGet();
+		return delegate.getBusStop(stopNum);
+	}
+
+	@Override
+	public void addWaitTimeEstimatesToStop(BusStop stop) throws TranslinkException {
+		delegate.addWaitTimeEstimatesToStop(stop);
+	}
+
+	@Override
+	public BatchResult addWaitTimeEstimatesToStops(Collection<BusStop> stops) {
+		return delegate.addWaitTimeEstimatesToStops(stops);
+	}
+
+	@Override
+	public void addBusLocationsForStop(BusStop stop) throws TranslinkException {
+		delegate.addBusLocationsForStop(stop);
+	}
+
+	@Override
+	public StalenessPolicy getStalenessPolicy() {
+		return delegate.getStalenessPolicy();
+	}
+
+	@Override
+	public void setStalenessPolicy(StalenessPolicy policy) {
+		delegate.setStalenessPolicy(policy);
+	}
+
+	/**
+	 * Gets number of requests for stop information answered from catalogue
+	 * @return  number of catalogue hits
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets number of requests for stop information passed to the decorated
+	 * service
+	 * @return  number of catalogue misses
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+}
@@ -0,0 +1,94 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+/**
+ * Circuit breaker guarding requests to a service endpoint.
+ *
+ * <p>While CLOSED, requests are allowed and consecutive failures are counted.
+ * Once failureThreshold consecutive failures have occurred the breaker OPENs
+ * and requests are refused, so that callers fail fast instead of waiting for
+ * requests that are almost certain to time out.  After openDuration the
+ * breaker is HALF_OPEN: a single trial request is allowed, and the breaker
+ * closes if it succeeds or opens again if it fails.
+ */
+public class CircuitBreaker {
+
+	/**
+	 * States of a circuit breaker
+	 */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private int failureThreshold;
+	private long openDuration;
+	private State state;
+	private int consecutiveFailures;
+	private long openedAt;
+	private boolean trialInFlight;
+
+	/**
+	 * Constructor
+	 * @param failureThreshold  number of consecutive failures that opens the breaker
+	 * @param openDuration      time in milliseconds for which breaker stays open
+	 */
+	public CircuitBreaker(int failureThreshold, long openDuration) {
+		this.failureThreshold = failureThreshold;
+		this.openDuration = openDuration;
+		state = State.CLOSED;
+	}
+
+	/**
+	 * Determine if a request may be made now.  When the breaker is half-open
+	 * only one caller is allowed through until it records its outcome.
+	 * @return  true if request may be made, false if caller should fail fast
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (System.currentTimeMillis() - openedAt < openDuration)
+				return false;
+			state = State.HALF_OPEN;
+			trialInFlight = true;
+			return true;
+		default:
+			if (trialInFlight)
+				return false;
+			trialInFlight = true;
+			return true;
+		}
+	}
+
+	/**
+	 * Record that an allowed request succeeded
+	 */
+	public synchronized void recordSuccess() {
+		state = State.CLOSED;
+		consecutiveFailures = 0;
+		trialInFlight = false;
+	}
+
+	/**
+	 * Record that an allowed request failed
+	 */
+	public synchronized void recordFailure() {
+		consecutiveFailures++;
+		trialInFlight = false;
+
+		if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Gets current state of breaker
+	 * @return  current state
+	 */
+	public synchronized State getState() {
+		if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration)
+			return State.HALF_OPEN;
+		return state;
+	}
+}
@@ -0,0 +1,157 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.StalenessPolicy;
+
+/**
+ * Decorator that coalesces concurrent requests for the same endpoint and
+ * stop number into a single request to the decorated service.  Callers that
+ * ask while a request is in flight wait for it and all receive its result:
+ * each caller of getBusStop gets its own BusStop, wait times and buses are
+ * published to each caller's stop if callers passed different BusStop
+ * objects, and a TranslinkException is thrown to every caller.
+ *
+ * Design Pattern: Decorator
+ */
+public class CoalescingTranslinkService implements ITranslinkService {
+	private ITranslinkService delegate;
+	private Map<Endpoint, SingleFlight<Integer, BusStop>> flights;
+
+	/**
+	 * Constructor
+	 * @param delegate  the service to which requests are passed
+	 */
+	public CoalescingTranslinkService(ITranslinkService delegate) {
+		this.delegate = delegate;
+		flights = new EnumMap<Endpoint, SingleFlight<Integer, BusStop>>(Endpoint.class);
+		for (Endpoint next : Endpoint.values())
+			flights.put(next, new SingleFlight<Integer, BusStop>());
+	}
+
+	@Override
+	public BusStop getBusStop(final String stopNum) throws TranslinkException {
+		int key;
+		try {
+			key = Integer.parseInt(stopNum.trim());
+		} catch (NumberFormatException e) {
+			// not something we can coalesce on; let the service report it
+			return delegate.getBusStop(stopNum);
+		}
+
+		final boolean[] ran = new boolean[1];
+		BusStop stop = execute(Endpoint.STOP, key, new Callable<BusStop>() {
+			@Override
+			public BusStop call() throws TranslinkException {
+				ran[0] = true;
+				return delegate.getBusStop(stopNum);
+			}
+		});
+
+		// callers that shared the request get their own stop, since wait
+		// times and buses are added to it
+		return (ran[0] || stop == null ? stop : copyOf(stop));
+	}
+
+	@Override
+	public void addWaitTimeEstimatesToStop(final BusStop stop) throws TranslinkException {
+		BusStop updated = execute(Endpoint.ESTIMATES, stop.getStopNum(), new Callable<BusStop>() {
+			@Override
+			public BusStop call() throws TranslinkException {
+				delegate.addWaitTimeEstimatesToStop(stop);
+				return stop;
+			}
+		});
+
+		if (updated != stop)
+			stop.setWaitTimes(updated.getWaitTimeTable());
+	}
+
+	@Override
+	public BatchResult addWaitTimeEstimatesToStops(Collection<BusStop> stops) {
+		return BatchRequests.addWaitTimeEstimates(this, stops);
+	}
+
+	@Override
+	public void addBusLocationsForStop(final BusStop stop) throws TranslinkException {
+		BusStop updated = execute(Endpoint.BUSES, stop.getStopNum(), new Callable<BusStop>() {
+			@Override
+			public BusStop call() throws TranslinkException {
+				delegate.addBusLocationsForStop(stop);
+				return stop;
+			}
+		});
+
+		if (updated != stop)
+			stop.setBuses(updated.getBusFleet());
+	}
+
+	@Override
+	public StalenessPolicy getStalenessPolicy() {
+		return delegate.getStalenessPolicy();
+	}
+
+	@Override
+	public void setStalenessPolicy(StalenessPolicy policy) {
+		delegate.setStalenessPolicy(policy);
+	}
+
+	/**
+	 * Gets number of requests for an endpoint passed to the decorated service
+	 * @param endpoint  the endpoint
+	 * @return  number of upstream requests
+	 */
+	public long getUpstreamCount(Endpoint endpoint) {
+		return flights.get(endpoint).getExecutedCount();
+	}
+
+	/**
+	 * Gets number of requests for an endpoint that were served by sharing a
+	 * request already in flight
+	 * @param endpoint  the endpoint
+	 * @return  number of upstream requests saved
+	 */
+	public long getCoalescedCount(Endpoint endpoint) {
+		return flights.get(endpoint).getSharedCount();
+	}
+
+	/**
+	 * Gets total number of upstream requests saved across all endpoints
+	 * @return  number of upstream requests saved
+	 */
+	public long getCoalescedCount() {
+		long total = 0;
+		for (Endpoint next : Endpoint.values())
+			total += getCoalescedCount(next);
+		return total;
+	}
+
+	private static BusStop copyOf(BusStop stop) {
+		Set<BusRoute> routes = new HashSet<BusRoute>();
+		for (BusRoute next : stop.getRoutes())
+			routes.add(next);
+
+		return new BusStop(stop.getStopNum(), stop.getLocationDesc(), stop.getFixedLatLon(), routes);
+	}
+
+	private BusStop execute(Endpoint endpoint, int stopNum, Callable<BusStop> call)
+			throws TranslinkException {
+		try {
+			return flights.get(endpoint).execute(stopNum, call);
+		} catch (TranslinkException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new TranslinkException(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+
+/**
+ * Result of a conditional request for bus stop information: either the
+ * stop has not been modified since the validators supplied with the request
+ * were issued, or the current stop along with new validators.
+ */
+public class ConditionalBusStop {
+	private BusStop stop;
+	private String etag;
+	private String lastModified;
+	private boolean notModified;
+
+	private ConditionalBusStop(BusStop stop, String etag, String lastModified,
+			boolean notModified) {
+		this.stop = stop;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.notModified = notModified;
+	}
+
+	/**
+	 * Produce result indicating that stop has not changed
+	 * @return  not-modified result
+	 */
+	public static ConditionalBusStop notModified() {
+		return new ConditionalBusStop(null, null, null, true);
+	}
+
+	/**
+	 * Produce result holding current stop information
+	 * @param stop          the bus stop (null if Translink reported an error)
+	 * @param etag          entity tag sent by server, or null
+	 * @param lastModified  last modified date sent by server, or null
+	 * @return  modified result
+	 */
+	public static ConditionalBusStop modified(BusStop stop, String etag, String lastModified) {
+		return new ConditionalBusStop(stop, etag, lastModified, false);
+	}
+
+	/**
+	 * Determine if stop is unchanged since validators were issued
+	 * @return  true if unchanged, false otherwise
+	 */
+	public boolean isNotModified() {
+		return notModified;
+	}
+
+	/**
+	 * Gets bus stop
+	 * @return  bus stop, or null if not modified or Translink reported an error
+	 */
+	public BusStop getStop() {
+		return stop;
+	}
+
+	/**
+	 * Gets entity tag to send with next request for this stop
+	 * @return  entity tag or null if server did not send one
+	 */
+	public String getETag() {
+		return etag;
+	}
+
+	/**
+	 * Gets last modified date to send with next request for this stop
+	 * @return  last modified date or null if server did not send one
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+}
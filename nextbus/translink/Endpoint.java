@@ -0,0 +1,21 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+/**
+ * Translink RTTI API endpoints used by this app
+ */
+public enum Endpoint {
+	/**
+	 * stops/{stopNo}: stop description, location and routes
+	 */
+	STOP,
+
+	/**
+	 * stops/{stopNo}/estimates: wait time estimates for stop
+	 */
+	ESTIMATES,
+
+	/**
+	 * buses?stopNo={stopNo}: locations of buses serving stop
+	 */
+	BUSES
+}
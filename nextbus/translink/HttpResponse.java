@@ -0,0 +1,77 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Response to an HTTP request made through an IHttpTransport:
+ * status code, selected response headers, fully-read body and timings.
+ */
+public class HttpResponse {
+	private int statusCode;
+	private String body;
+	private Map<String, String> headers;
+	private RequestTimings timings;
+
+	/**
+	 * Constructor
+	 *
+	 * @param statusCode  HTTP status code
+	 * @param body        response body (empty string if there was none)
+	 * @param headers     response headers, keyed by lower-case header name
+	 */
+	public HttpResponse(int statusCode, String body, Map<String, String> headers) {
+		this(statusCode, body, headers, RequestTimings.UNKNOWN);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param statusCode  HTTP status code
+	 * @param body        response body (empty string if there was none)
+	 * @param headers     response headers, keyed by lower-case header name
+	 * @param timings     timings of the exchange measured by the transport
+	 */
+	public HttpResponse(int statusCode, String body, Map<String, String> headers,
+			RequestTimings timings) {
+		this.statusCode = statusCode;
+		this.timings = timings;
+		this.body = body;
+		this.headers = (headers == null ? Collections.<String, String>emptyMap()
+				: new HashMap<String, String>(headers));
+	}
+
+	/**
+	 * Gets HTTP status code
+	 * @return status code
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * Gets response body
+	 * @return response body
+	 */
+	public String getBody() {
+		return body;
+	}
+
+	/**
+	 * Gets value of a response header
+	 * @param name  header name (case insensitive)
+	 * @return value of header or null if not present
+	 */
+	public String getHeader(String name) {
+		return headers.get(name.toLowerCase());
+	}
+
+	/**
+	 * Gets timings of the exchange that produced this response
+	 * @return timings, or RequestTimings.UNKNOWN if transport did not measure them
+	 */
+	public RequestTimings getTimings() {
+		return timings;
+	}
+}
@@ -0,0 +1,23 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+
+/**
+ * Translink service that can revalidate previously obtained bus stop
+ * information using HTTP conditional requests.
+ */
+public interface IConditionalTranslinkService extends ITranslinkService {
+
+    /**
+     * Gets description and location information for a bus stop unless it is
+     * unchanged since the given validators were issued.  Sends If-None-Match
+     * and If-Modified-Since for whichever validators are not null.
+     * @param stopNum       the bus stop number
+     * @param etag          entity tag from previous response, or null
+     * @param lastModified  last modified date from previous response, or null
+     * @return  not-modified result, or current stop information with new validators
+     * @throws TranslinkException when an exception occurs obtaining or parsing data from Translink service
+     */
+    public abstract ConditionalBusStop getBusStopIfModified(String stopNum,
+            String etag, String lastModified) throws TranslinkException;
+}
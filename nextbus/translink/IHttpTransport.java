@@ -0,0 +1,23 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Transport used by TranslinkService to issue HTTP requests.  Implementations
+ * decide how connections are opened, reused and limited.
+ */
+public interface IHttpTransport {
+
+	/**
+	 * Issue an HTTP GET request and read the complete response body.
+	 *
+	 * @param url             the absolute URL to request
+	 * @param requestHeaders  additional request headers (may be null)
+	 * @return  the response, including status code and body (body of an
+	 * error response is returned rather than thrown)
+	 * @throws IOException  when the request cannot be completed
+	 */
+	public abstract HttpResponse get(String url, Map<String, String> requestHeaders)
+			throws IOException;
+}
@@ -0,0 +1,120 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.io.IOException;
+
+import ca.ubc.cpsc210.nextbus.util.Histogram;
+
+/**
+ * Records where time goes in requests to Translink, separately for each
+ * endpoint: connecting, waiting for the server, reading the body, and
+ * parsing it, plus response sizes and how each request ended.
+ */
+public interface ITranslinkMetrics {
+
+	/**
+	 * Quantities recorded per endpoint.  Times are in microseconds, sizes in bytes.
+	 */
+	public enum Metric {
+		CONNECT_TIME, FIRST_BYTE_TIME, BODY_READ_TIME, BYTES_RECEIVED, PARSE_TIME
+	}
+
+	/**
+	 * How a request ended
+	 */
+	public enum Outcome {
+		/**
+		 * Data received and parsed (including not-modified responses)
+		 */
+		SUCCESS,
+
+		/**
+		 * Translink responded with an error object instead of data
+		 */
+		ERROR_OBJECT,
+
+		/**
+		 * Connecting or reading timed out
+		 */
+		TIMEOUT,
+
+		/**
+		 * Device had no data connection; no request was made
+		 */
+		NO_CONNECTIVITY,
+
+		/**
+		 * Any other failure: server error, circuit open, unparseable response
+		 */
+		FAILURE
+	}
+
+	/**
+	 * Receives every value as it is recorded.  Methods are called on the
+	 * thread that made the request and must return quickly.
+	 */
+	public static interface Listener {
+		public void onSample(Endpoint endpoint, Metric metric, long value);
+		public void onOutcome(Endpoint endpoint, Outcome outcome);
+	}
+
+	/**
+	 * Record timings of an HTTP exchange
+	 * @param endpoint  endpoint requested
+	 * @param timings   timings measured by transport; unmeasured values are ignored
+	 */
+	public void recordTransfer(Endpoint endpoint, RequestTimings timings);
+
+	/**
+	 * Record time taken to parse a response
+	 * @param endpoint     endpoint requested
+	 * @param parseMicros  parse time in microseconds
+	 */
+	public void recordParse(Endpoint endpoint, long parseMicros);
+
+	/**
+	 * Record how a request ended
+	 * @param endpoint  endpoint requested
+	 * @param outcome   the outcome
+	 */
+	public void recordOutcome(Endpoint endpoint, Outcome outcome);
+
+	/**
+	 * Gets histogram of a metric for an endpoint
+	 * @param endpoint  the endpoint
+	 * @param metric    the metric
+	 * @return  histogram of values recorded
+	 */
+	public Histogram getHistogram(Endpoint endpoint, Metric metric);
+
+	/**
+	 * Gets number of requests to an endpoint that ended with an outcome
+	 * @param endpoint  the endpoint
+	 * @param outcome   the outcome
+	 * @return  number of requests
+	 */
+	public long getOutcomeCount(Endpoint endpoint, Outcome outcome);
+
+	/**
+	 * Add listener to be notified of values as they are recorded
+	 * @param listener  the listener
+	 */
+	public void subscribe(Listener listener);
+
+	/**
+	 * Remove listener
+	 * @param listener  the listener
+	 */
+	public void unsubscribe(Listener listener);
+
+	/**
+	 * Write summary of all metrics (counts and percentiles) in readable form
+	 * @param out  destination of summary
+	 * @throws IOException  when out cannot be written
+	 */
+	public void dump(Appendable out) throws IOException;
+
+	/**
+	 * Discard everything recorded so far
+	 */
+	public void reset();
+}
@@ -1,12 +1,16 @@
 package ca.ubc.cpsc210.nextbus.translink;
 
+import java.util.Collection;
+
 import ca.ubc.cpsc210.exception.TranslinkException;
 import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.StalenessPolicy;
 
 public interface ITranslinkService {
 
     /**
-     * Add current wait time estimates for a bus to particular bus stop
+     * Add current wait time estimates for a bus to particular bus stop.  If they
+     * cannot be obtained, the stop's wait times are left as they were.
      * @param stop  the bus stop to which wait time estimates must be added
      * @return wait time estimates
      * @throws TranslinkException when an exception occurs obtaining or parsing data from Translink service
@@ -14,9 +18,19 @@ public interface ITranslinkService {
     public abstract void addWaitTimeEstimatesToStop(BusStop stop)
             throws TranslinkException;
 
+    /**
+     * Add current wait time estimates to each of a collection of bus stops.
+     * Requests for different stops are made in parallel; a failure for one
+     * stop does not prevent the others from being updated.
+     * @param stops  the bus stops to which wait time estimates must be added
+     * @return stops that were updated and, for each stop that was not, the exception that occurred
+     */
+    public abstract BatchResult addWaitTimeEstimatesToStops(Collection<BusStop> stops);
+
     /**
      * Add bus location information for buses currently serving a particular stop
-     * (replaces current list of bus locations for stop).
+     * (replaces current list of bus locations for stop).  If they cannot be
+     * obtained, the stop's buses are left as they were.
      * @param stop  the bus stop to which bus location information is to be added
      * @return location information for buses serving stop number stopNum
      * @throws TranslinkException when an exception occurs obtaining or parsing data from Translink service
@@ -32,6 +46,19 @@ public interface ITranslinkService {
      */
     public abstract BusStop getBusStop(String stopNum)
             throws TranslinkException;
+
+    /**
+     * Gets rule applied to bus positions older than a threshold
+     * @return staleness policy; StalenessPolicy.NONE if all positions are kept
+     */
+    public abstract StalenessPolicy getStalenessPolicy();
+
+    /**
+     * Sets rule applied to bus positions older than a threshold when bus
+     * location information is added to a stop
+     * @param policy  the staleness policy; StalenessPolicy.NONE keeps all positions
+     */
+    public abstract void setStalenessPolicy(StalenessPolicy policy);
     
 
 }
\ No newline at end of file
@@ -0,0 +1,128 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ca.ubc.cpsc210.nextbus.util.Histogram;
+
+/**
+ * Metrics held in memory for the life of the process.  Recording is
+ * lock-free and allocation-free, so it is cheap enough to leave on.
+ */
+public class InMemoryTranslinkMetrics implements ITranslinkMetrics {
+	private Map<Endpoint, Map<Metric, Histogram>> histograms;
+	private Map<Endpoint, Map<Outcome, AtomicLong>> outcomes;
+	private List<Listener> listeners;
+
+	public InMemoryTranslinkMetrics() {
+		histograms = new EnumMap<Endpoint, Map<Metric, Histogram>>(Endpoint.class);
+		outcomes = new EnumMap<Endpoint, Map<Outcome, AtomicLong>>(Endpoint.class);
+		listeners = new CopyOnWriteArrayList<Listener>();
+
+		for (Endpoint endpoint : Endpoint.values()) {
+			Map<Metric, Histogram> byMetric = new EnumMap<Metric, Histogram>(Metric.class);
+			for (Metric metric : Metric.values())
+				byMetric.put(metric, new Histogram());
+			histograms.put(endpoint, byMetric);
+
+			Map<Outcome, AtomicLong> byOutcome = new EnumMap<Outcome, AtomicLong>(Outcome.class);
+			for (Outcome outcome : Outcome.values())
+				byOutcome.put(outcome, new AtomicLong());
+			outcomes.put(endpoint, byOutcome);
+		}
+	}
+
+	@Override
+	public void recordTransfer(Endpoint endpoint, RequestTimings timings) {
+		record(endpoint, Metric.CONNECT_TIME, timings.getConnectMicros());
+		record(endpoint, Metric.FIRST_BYTE_TIME, timings.getFirstByteMicros());
+		record(endpoint, Metric.BODY_READ_TIME, timings.getBodyReadMicros());
+		record(endpoint, Metric.BYTES_RECEIVED, timings.getBytesReceived());
+	}
+
+	@Override
+	public void recordParse(Endpoint endpoint, long parseMicros) {
+		record(endpoint, Metric.PARSE_TIME, parseMicros);
+	}
+
+	@Override
+	public void recordOutcome(Endpoint endpoint, Outcome outcome) {
+		outcomes.get(endpoint).get(outcome).incrementAndGet();
+		for (Listener next : listeners)
+			next.onOutcome(endpoint, outcome);
+	}
+
+	@Override
+	public Histogram getHistogram(Endpoint endpoint, Metric metric) {
+		return histograms.get(endpoint).get(metric);
+	}
+
+	@Override
+	public long getOutcomeCount(Endpoint endpoint, Outcome outcome) {
+		return outcomes.get(endpoint).get(outcome).get();
+	}
+
+	@Override
+	public void subscribe(Listener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void unsubscribe(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void dump(Appendable out) throws IOException {
+		for (Endpoint endpoint : Endpoint.values()) {
+			out.append(endpoint.toString()).append('\n');
+
+			for (Metric metric : Metric.values())
+				out.append("  ").append(metric.toString()).append(": ")
+					.append(getHistogram(endpoint, metric).toString()).append('\n');
+
+			out.append("  OUTCOMES:");
+			for (Outcome outcome : Outcome.values())
+				out.append(' ').append(outcome.toString()).append('=')
+					.append(Long.toString(getOutcomeCount(endpoint, outcome)));
+			out.append('\n');
+		}
+	}
+
+	@Override
+	public void reset() {
+		for (Endpoint endpoint : Endpoint.values()) {
+			for (Histogram next : histograms.get(endpoint).values())
+				next.reset();
+			for (AtomicLong next : outcomes.get(endpoint).values())
+				next.set(0);
+		}
+	}
+
+	/**
+	 * Produce summary of all metrics
+	 */
+	@Override
+	public String toString() {
+		StringBuilder summary = new StringBuilder();
+		try {
+			dump(summary);
+		} catch (IOException e) {
+			// StringBuilder does not throw
+		}
+		return summary.toString();
+	}
+
+	private void record(Endpoint endpoint, Metric metric, long value) {
+		if (value < 0)
+			return;
+
+		histograms.get(endpoint).get(metric).record(value);
+		for (Listener next : listeners)
+			next.onSample(endpoint, metric, value);
+	}
+}
@@ -0,0 +1,65 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.Collection;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.StalenessPolicy;
+import ca.ubc.cpsc210.nextbus.storage.LastKnownDataCache;
+
+/**
+ * Decorator that saves the wait times and bus locations of a stop to the
+ * last known data cache each time they are fetched, so that they can be
+ * shown straight away next time the app starts.
+ *
+ * Design Pattern: Decorator
+ */
+public class LastKnownDataTranslinkService implements ITranslinkService {
+	private ITranslinkService delegate;
+	private LastKnownDataCache cache;
+
+	/**
+	 * Constructor
+	 * @param delegate  the service that fetches data
+	 * @param cache     cache to which fetched data is saved
+	 */
+	public LastKnownDataTranslinkService(ITranslinkService delegate, LastKnownDataCache cache) {
+		this.delegate = delegate;
+		this.cache = cache;
+	}
+
+	@Override
+	public BusStop getBusStop(String stopNum) throws TranslinkException {
+		return delegate.getBusStop(stopNum);
+	}
+
+	@Override
+	public void addWaitTimeEstimatesToStop(BusStop stop) throws TranslinkException {
+		delegate.addWaitTimeEstimatesToStop(stop);
+		cache.save(stop);
+	}
+
+	@Override
+	public BatchResult addWaitTimeEstimatesToStops(Collection<BusStop> stops) {
+		BatchResult result = delegate.addWaitTimeEstimatesToStops(stops);
+		for (BusStop next : result.getSucceeded())
+			cache.save(next);
+		return result;
+	}
+
+	@Override
+	public void addBusLocationsForStop(BusStop stop) throws TranslinkException {
+		delegate.addBusLocationsForStop(stop);
+		cache.save(stop);
+	}
+
+	@Override
+	public StalenessPolicy getStalenessPolicy() {
+		return delegate.getStalenessPolicy();
+	}
+
+	@Override
+	public void setStalenessPolicy(StalenessPolicy policy) {
+		delegate.setStalenessPolicy(policy);
+	}
+}
@@ -0,0 +1,101 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.app.Activity;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.FavouriteStops;
+import ca.ubc.cpsc210.nextbus.model.StopSpatialIndex;
+import ca.ubc.cpsc210.nextbus.util.LatLon;
+
+/**
+ * Finds stops near a location among those the app knows about: the
+ * favourite stops and the stops held in the Translink service's stop cache.
+ * Where a stop is in both, the favourite is returned.
+ *
+ * <p>The stops are indexed by location, and the index is rebuilt only when
+ * a stop has been added to or removed from either source since it was
+ * built.  Favourite stops and the stop cache are both safe for use by
+ * several threads, so queries may be made on any thread, including while
+ * favourites are being changed on another.
+ *
+ * Design Pattern: Singleton
+ */
+public class NearbyStops {
+	private static NearbyStops instance;
+
+	private FavouriteStops favourites;
+	private CachingTranslinkService stopCache;
+	private StopSpatialIndex index;
+	private int favouritesIndexed;
+	private long cacheIndexed;
+
+	/**
+	 * Constructor
+	 * @param favourites  the favourite stops
+	 * @param stopCache   cache of stops obtained from Translink
+	 */
+	NearbyStops(FavouriteStops favourites, CachingTranslinkService stopCache) {
+		this.favourites = favourites;
+		this.stopCache = stopCache;
+	}
+
+	/**
+	 * Gets single instance of this class
+	 * @param activity  an activity of this app
+	 * @return instance (the only one) of NearbyStops
+	 */
+	public static synchronized NearbyStops getInstance(Activity activity) {
+		if (instance == null) {
+			instance = new NearbyStops(FavouriteStops.getInstance(activity),
+					TranslinkServiceFactory.getStopCache(activity));
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Find the known stops nearest a location
+	 * @param location  the location
+	 * @param k         maximum number of stops to find
+	 * @return  (at most) k nearest stops, nearest first
+	 */
+	public List<BusStop> nearest(LatLon location, int k) {
+		return currentIndex().nearest(location, k);
+	}
+
+	/**
+	 * Find known stops within a distance of a location
+	 * @param location  the location
+	 * @param radius    distance in metres
+	 * @return  stops within radius, nearest first
+	 */
+	public List<BusStop> withinRadius(LatLon location, double radius) {
+		return currentIndex().withinRadius(location, radius);
+	}
+
+	/**
+	 * Produce index of known stops, rebuilding it if either source has
+	 * changed since it was last built
+	 */
+	private synchronized StopSpatialIndex currentIndex() {
+		int favouritesNow = favourites.getModificationCount();
+		long cacheNow = stopCache.getChangeCount();
+
+		if (index == null || favouritesNow != favouritesIndexed || cacheNow != cacheIndexed) {
+			Map<Integer, BusStop> known = new LinkedHashMap<Integer, BusStop>();
+			for (BusStop next : stopCache.getCachedStops())
+				known.put(next.getStopNum(), next);
+			for (BusStop next : favourites.getFavourites())
+				known.put(next.getStopNum(), next);
+
+			index = new StopSpatialIndex(known.values());
+			favouritesIndexed = favouritesNow;
+			cacheIndexed = cacheNow;
+		}
+
+		return index;
+	}
+}
@@ -0,0 +1,234 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP transport that keeps connections alive between requests.
+ *
+ * <p>HttpURLConnection returns a connection to the platform's keep-alive pool
+ * only when the response body has been read to the end and the stream closed;
+ * calling disconnect() closes the socket instead.  This transport therefore
+ * always drains and closes the body and never disconnects.  It also asks for
+ * gzip-compressed responses, reads bodies into a per-thread buffer that is
+ * reused from one request to the next, and limits the number of concurrent
+ * connections made to each host.  The size of the platform's keep-alive
+ * pool is a JVM-wide setting, so it is left to TranslinkServiceFactory to
+ * set once when the app starts.
+ */
+public class PooledHttpTransport implements IHttpTransport {
+	/**
+	 * Default limit on concurrent connections to a single host
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+
+	/**
+	 * Buffers larger than this are not kept between requests
+	 */
+	private static final int MAX_RETAINED_BUFFER = 256 * 1024;
+	private static final int INITIAL_BUFFER = 8 * 1024;
+
+	private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[INITIAL_BUFFER];
+		}
+	};
+
+	private int connectTimeout;
+	private int readTimeout;
+	private int maxConnectionsPerHost;
+	private ConcurrentMap<String, Semaphore> hostPermits;
+
+	/**
+	 * Constructor
+	 *
+	 * @param connectTimeout         connect timeout in milliseconds
+	 * @param readTimeout            read timeout in milliseconds
+	 * @param maxConnectionsPerHost  maximum number of concurrent connections to any one host
+	 */
+	public PooledHttpTransport(int connectTimeout, int readTimeout, int maxConnectionsPerHost) {
+		if (maxConnectionsPerHost < 1)
+			throw new IllegalArgumentException("maxConnectionsPerHost must be at least 1");
+
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		hostPermits = new ConcurrentHashMap<String, Semaphore>();
+	}
+
+	/**
+	 * Gets maximum number of concurrent connections to a single host
+	 * @return  connection limit per host
+	 */
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	@Override
+	public HttpResponse get(String url, Map<String, String> requestHeaders)
+			throws IOException {
+		URL target = new URL(url);
+		Semaphore permits = permitsFor(target.getHost());
+
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for connection to " + target.getHost());
+		}
+
+		try {
+			return execute(target, requestHeaders);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Perform request on a (possibly pooled) connection
+	 */
+	private HttpResponse execute(URL target, Map<String, String> requestHeaders)
+			throws IOException {
+		HttpURLConnection client = (HttpURLConnection) target.openConnection();
+		client.setConnectTimeout(connectTimeout);
+		client.setReadTimeout(readTimeout);
+		client.setRequestProperty("Accept", "application/json");
+		client.setRequestProperty("Accept-Encoding", "gzip");
+		client.setRequestProperty("Connection", "keep-alive");
+		if (requestHeaders != null) {
+			for (Map.Entry<String, String> next : requestHeaders.entrySet())
+				client.setRequestProperty(next.getKey(), next.getValue());
+		}
+
+		InputStream in = null;
+		try {
+			long start = System.nanoTime();
+			client.connect();
+			long connected = System.nanoTime();
+			int status = client.getResponseCode();
+			long firstByte = System.nanoTime();
+			in = (status >= HttpURLConnection.HTTP_BAD_REQUEST ? client.getErrorStream()
+					: client.getInputStream());
+
+			String body = "";
+			CountingInputStream counter = null;
+			if (in != null) {
+				in = counter = new CountingInputStream(in);
+				if ("gzip".equalsIgnoreCase(client.getContentEncoding()))
+					in = new GZIPInputStream(in);
+				body = readFully(in);
+			}
+			long done = System.nanoTime();
+
+			RequestTimings timings = new RequestTimings(
+					(connected - start) / 1000, (firstByte - connected) / 1000, (done - firstByte) / 1000,
+					counter == null ? 0 : counter.count);
+			return new HttpResponse(status, body, headersOf(client), timings);
+		} catch (IOException e) {
+			// drain error stream so the connection can still be reused
+			drainQuietly(client.getErrorStream());
+			throw e;
+		} finally {
+			if (in != null)
+				in.close();
+		}
+	}
+
+	/**
+	 * Read stream to end into the calling thread's buffer and decode as UTF-8
+	 */
+	private String readFully(InputStream in) throws IOException {
+		byte[] buffer = buffers.get();
+		int length = 0;
+		int read;
+
+		while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+			length += read;
+			if (length == buffer.length) {
+				byte[] larger = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, larger, 0, length);
+				buffer = larger;
+			}
+		}
+
+		buffers.set(buffer.length <= MAX_RETAINED_BUFFER ? buffer : new byte[INITIAL_BUFFER]);
+		return new String(buffer, 0, length, "UTF-8");
+	}
+
+	private void drainQuietly(InputStream in) {
+		if (in == null)
+			return;
+
+		try {
+			byte[] buffer = buffers.get();
+			while (in.read(buffer) != -1)
+				;
+			in.close();
+		} catch (IOException e) {
+			// ignore: connection will not be reused
+		}
+	}
+
+	private Map<String, String> headersOf(HttpURLConnection client) {
+		Map<String, String> headers = new HashMap<String, String>();
+
+		for (Map.Entry<String, List<String>> next : client.getHeaderFields().entrySet()) {
+			if (next.getKey() != null && !next.getValue().isEmpty())
+				headers.put(next.getKey().toLowerCase(), next.getValue().get(0));
+		}
+
+		return headers;
+	}
+
+	private Semaphore permitsFor(String host) {
+		Semaphore permits = hostPermits.get(host);
+
+		if (permits == null) {
+			Semaphore created = new Semaphore(maxConnectionsPerHost, true);
+			permits = hostPermits.putIfAbsent(host, created);
+			if (permits == null)
+				permits = created;
+		}
+
+		return permits;
+	}
+
+	/**
+	 * Counts bytes read from the connection, i.e. before decompression
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1)
+				count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int n = super.read(buffer, offset, length);
+			if (n > 0)
+				count += n;
+			return n;
+		}
+	}
+}
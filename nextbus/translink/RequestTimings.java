@@ -0,0 +1,70 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+/**
+ * Timings of a single HTTP exchange, as measured by the transport.  Times
+ * are in microseconds; a value of -1 means it was not measured.
+ */
+public class RequestTimings {
+	/**
+	 * Timings of a response whose transport did not measure anything
+	 */
+	public static final RequestTimings UNKNOWN = new RequestTimings(-1, -1, -1, -1);
+
+	private final long connectMicros;
+	private final long firstByteMicros;
+	private final long bodyReadMicros;
+	private final long bytesReceived;
+
+	/**
+	 * Constructor
+	 * @param connectMicros    time to open (or reuse) a connection
+	 * @param firstByteMicros  time from connected until response status was received
+	 * @param bodyReadMicros   time to read and decode response body
+	 * @param bytesReceived    size of response body as received, before decompression
+	 */
+	public RequestTimings(long connectMicros, long firstByteMicros, long bodyReadMicros,
+			long bytesReceived) {
+		this.connectMicros = connectMicros;
+		this.firstByteMicros = firstByteMicros;
+		this.bodyReadMicros = bodyReadMicros;
+		this.bytesReceived = bytesReceived;
+	}
+
+	/**
+	 * Gets time to open (or reuse) a connection
+	 * @return  time to open (or reuse) a connection, in microseconds, or -1 if not measured
+	 */
+	public long getConnectMicros() {
+		return connectMicros;
+	}
+
+	/**
+	 * Gets time from connected until response status was received
+	 * @return  time from connected until response status was received, in microseconds, or -1 if not measured
+	 */
+	public long getFirstByteMicros() {
+		return firstByteMicros;
+	}
+
+	/**
+	 * Gets time to read and decode response body
+	 * @return  time to read and decode response body, in microseconds, or -1 if not measured
+	 */
+	public long getBodyReadMicros() {
+		return bodyReadMicros;
+	}
+
+	/**
+	 * Gets size of response body before decompression
+	 * @return  size of response body before decompression, in bytes, or -1 if not measured
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	@Override
+	public String toString() {
+		return "connect=" + connectMicros + "us firstByte=" + firstByteMicros + "us body="
+				+ bodyReadMicros + "us bytes=" + bytesReceived;
+	}
+}
@@ -0,0 +1,60 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.Random;
+
+/**
+ * Bounded retry policy with exponential backoff and "full jitter": the
+ * delay before retry n is chosen uniformly at random between zero and
+ * min(maxDelay, baseDelay * 2^(n-1)), which spreads out retries from many
+ * clients instead of having them arrive together.  Only suitable for
+ * idempotent requests.
+ */
+public class RetryPolicy {
+	private int maxAttempts;
+	private long baseDelay;
+	private long maxDelay;
+	private Random random;
+
+	/**
+	 * Constructor
+	 * @param maxAttempts  total number of attempts, including the first
+	 * @param baseDelay    delay bound in milliseconds before first retry
+	 * @param maxDelay     upper bound in milliseconds on any delay
+	 */
+	public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+		if (maxAttempts < 1)
+			throw new IllegalArgumentException("maxAttempts must be at least 1");
+
+		this.maxAttempts = maxAttempts;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		random = new Random();
+	}
+
+	/**
+	 * Gets total number of attempts allowed
+	 * @return  maximum number of attempts
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * Determine if another attempt may be made
+	 * @param attemptsMade  number of attempts made so far
+	 * @return  true if another attempt is allowed
+	 */
+	public boolean canRetry(int attemptsMade) {
+		return attemptsMade < maxAttempts;
+	}
+
+	/**
+	 * Produce delay to wait before next attempt
+	 * @param attemptsMade  number of attempts made so far (at least 1)
+	 * @return  delay in milliseconds
+	 */
+	public long delayBeforeRetry(int attemptsMade) {
+		long bound = Math.min(maxDelay, baseDelay << Math.min(attemptsMade - 1, 20));
+		return (long) (random.nextDouble() * bound);
+	}
+}
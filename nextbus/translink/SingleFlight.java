@@ -0,0 +1,106 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls made with the same key: the first caller runs
+ * the call and every caller that arrives while it is in flight waits for and
+ * shares its result (or exception).  Once the call completes, the next call
+ * with that key runs again.
+ *
+ * @param <K>  type of key identifying a call
+ * @param <V>  type of result
+ */
+public class SingleFlight<K, V> {
+	private final Map<K, Flight<V>> inFlight;
+	private final AtomicLong executed;
+	private final AtomicLong shared;
+
+	public SingleFlight() {
+		inFlight = new HashMap<K, Flight<V>>();
+		executed = new AtomicLong();
+		shared = new AtomicLong();
+	}
+
+	/**
+	 * Run call unless a call with the same key is already in flight, in which
+	 * case wait for that call to complete and produce its result.
+	 *
+	 * @param key   identifies the call
+	 * @param call  the call to run
+	 * @return  result of the call
+	 * @throws Exception  exception thrown by the call
+	 */
+	public V execute(K key, Callable<V> call) throws Exception {
+		Flight<V> flight;
+		boolean leader = false;
+
+		synchronized (inFlight) {
+			flight = inFlight.get(key);
+			if (flight == null) {
+				flight = new Flight<V>();
+				inFlight.put(key, flight);
+				leader = true;
+			}
+		}
+
+		if (!leader) {
+			shared.incrementAndGet();
+			return flight.await();
+		}
+
+		executed.incrementAndGet();
+		try {
+			flight.result = call.call();
+		} catch (Exception e) {
+			flight.exception = e;
+		} catch (Error e) {
+			flight.exception = new RuntimeException(e);
+			throw e;
+		} finally {
+			synchronized (inFlight) {
+				inFlight.remove(key);
+			}
+			flight.done.countDown();
+		}
+
+		return flight.await();
+	}
+
+	/**
+	 * Gets number of calls that were actually run
+	 * @return  number of calls run
+	 */
+	public long getExecutedCount() {
+		return executed.get();
+	}
+
+	/**
+	 * Gets number of calls that shared the result of a call already in
+	 * flight instead of being run
+	 * @return  number of calls saved
+	 */
+	public long getSharedCount() {
+		return shared.get();
+	}
+
+	/**
+	 * A call in flight
+	 */
+	private static class Flight<V> {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile V result;
+		private volatile Exception exception;
+
+		V await() throws Exception {
+			done.await();
+			if (exception != null)
+				throw exception;
+			return result;
+		}
+	}
+}
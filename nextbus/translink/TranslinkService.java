@@ -1,15 +1,12 @@
 package ca.ubc.cpsc210.nextbus.translink;
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import android.app.Activity;
 import android.content.Context;
@@ -21,17 +18,43 @@ import ca.ubc.cpsc210.exception.TranslinkException;
 import ca.ubc.cpsc210.nextbus.model.Bus;
 import ca.ubc.cpsc210.nextbus.model.BusStop;
 import ca.ubc.cpsc210.nextbus.model.BusWaitTime;
+import ca.ubc.cpsc210.nextbus.translink.ITranslinkMetrics.Outcome;
 
 /**
  * Wrapper around a service which gets real time bus information from Translink.
  */
-public class TranslinkService extends AbstractTranslinkService {
+public class TranslinkService extends AbstractTranslinkService implements
+		IConditionalTranslinkService {
 	/**
 	 * Set timeouts on connection and data acquisition from Translink
 	 */
 	private static int CONNECT_TIMEOUT = 3000;
 	private static int READ_TIMEOUT = 3000;
+
+	/**
+	 * Transport shared by all instances, so that kept-alive connections and
+	 * per-host connection limits apply across the whole app
+	 */
+	private static final IHttpTransport DEFAULT_TRANSPORT = new PooledHttpTransport(
+			CONNECT_TIMEOUT, READ_TIMEOUT, PooledHttpTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST);
 	
+	/**
+	 * Base URL of Translink RTTI API
+	 */
+	public static final String DEFAULT_BASE_URL = "http://api.translink.ca/RTTIAPI/V1/";
+
+	/**
+	 * Consecutive failures of an endpoint after which its circuit opens, and
+	 * time for which it stays open before a trial request is allowed
+	 */
+	private static final int BREAKER_FAILURE_THRESHOLD = 3;
+	private static final long BREAKER_OPEN_DURATION = 30000;
+
+	/**
+	 * Number of distinct queries for which the last successful response is kept
+	 */
+	private static final int MAX_LAST_KNOWN_RESPONSES = 64;
+
 	/**
 	 * Translink API key - must be included with any request for data from Translink service
 	 */
@@ -43,12 +66,113 @@ public class TranslinkService extends AbstractTranslinkService {
 	private final static String LOG_TAG = "TranslinkService";
 
 	/**
-	 * Associated Android activity
+	 * Application context of associated Android activity
+	 */
+	private Context context;
+
+	/**
+	 * Transport used to issue requests to Translink
+	 */
+	private IHttpTransport transport;
+
+	/**
+	 * Base URL of API, ending in '/'
+	 */
+	private volatile String baseUrl;
+
+	/**
+	 * Retry policy for failed requests (all requests are idempotent GETs)
+	 */
+	private RetryPolicy retryPolicy;
+
+	/**
+	 * Circuit breaker for each endpoint
+	 */
+	private Map<Endpoint, CircuitBreaker> breakers;
+
+	/**
+	 * Last successful response to each query, served while circuit is open
+	 */
+	private Map<String, HttpResponse> lastKnown;
+
+	/**
+	 * Timings, sizes and outcomes of requests
 	 */
-	private Activity activity;
+	private volatile ITranslinkMetrics metrics;
 
 	public TranslinkService(Activity activity) {
-		this.activity = activity;
+		this(activity, DEFAULT_TRANSPORT);
+	}
+
+	public TranslinkService(Activity activity, IHttpTransport transport) {
+		this(activity, transport, DEFAULT_BASE_URL);
+	}
+
+	/**
+	 * Constructor
+	 * @param activity   associated Android activity
+	 * @param transport  transport used to issue requests
+	 * @param baseUrl    base URL of API, e.g. that of a local stand-in server
+	 */
+	@SuppressWarnings("serial")
+	public TranslinkService(Activity activity, IHttpTransport transport, String baseUrl) {
+		this.context = activity.getApplicationContext();
+		this.transport = transport;
+		setBaseUrl(baseUrl);
+		retryPolicy = new RetryPolicy(2, 250, 1000);
+		metrics = new InMemoryTranslinkMetrics();
+
+		breakers = new EnumMap<Endpoint, CircuitBreaker>(Endpoint.class);
+		for (Endpoint next : Endpoint.values())
+			breakers.put(next, new CircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_DURATION));
+
+		lastKnown = new LinkedHashMap<String, HttpResponse>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, HttpResponse> eldest) {
+				return size() > MAX_LAST_KNOWN_RESPONSES;
+			}
+		};
+	}
+
+	/**
+	 * Sets base URL of API
+	 * @param baseUrl  base URL, e.g. "http://10.0.2.2:8080/RTTIAPI/V1/"
+	 */
+	public void setBaseUrl(String baseUrl) {
+		this.baseUrl = (baseUrl.endsWith("/") ? baseUrl : baseUrl + "/");
+	}
+
+	/**
+	 * Sets retry policy for failed requests
+	 * @param retryPolicy  the retry policy
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Gets metrics recorded for requests made by this service
+	 * @return  the metrics
+	 */
+	public ITranslinkMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets where metrics for requests made by this service are recorded
+	 * @param metrics  the metrics
+	 */
+	public void setMetrics(ITranslinkMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Gets state of circuit breaker for an endpoint
+	 * @param endpoint  the endpoint
+	 * @return  state of endpoint's circuit breaker
+	 */
+	public CircuitBreaker.State getCircuitState(Endpoint endpoint) {
+		return breakers.get(endpoint).getState();
 	}
 	
 	/* (non-Javadoc)
@@ -56,15 +180,41 @@ public class TranslinkService extends AbstractTranslinkService {
      */
 	@Override
     public BusStop getBusStop(String stopNum) throws TranslinkException {
-		StringBuilder uriBuilder = new StringBuilder(
-				"//api.translink.ca/RTTIAPI/V1/");
+		return getBusStopIfModified(stopNum, null, null).getStop();
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.ubc.cpsc210.nextbus.translink.IConditionalTranslinkService#getBusStopIfModified(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public ConditionalBusStop getBusStopIfModified(String stopNum, String etag,
+			String lastModified) throws TranslinkException {
+		StringBuilder uriBuilder = new StringBuilder(baseUrl);
 		uriBuilder.append("stops/" + stopNum + "?");
 		uriBuilder.append("apikey=" + APIKEY);
 
+		Map<String, String> validators = new HashMap<String, String>();
+		if (etag != null)
+			validators.put("If-None-Match", etag);
+		if (lastModified != null)
+			validators.put("If-Modified-Since", lastModified);
+
 		try {
-			String responseBody = makeJSONQuery(uriBuilder);
-			return parseBusStopFromJSON(responseBody);
+			HttpResponse response = makeQuery(Endpoint.STOP, uriBuilder, validators);
+			if (response.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				metrics.recordOutcome(Endpoint.STOP, Outcome.SUCCESS);
+				return ConditionalBusStop.notModified();
+			}
+
+			long start = System.nanoTime();
+			BusStop stop = parseBusStopFromJSON(response.getBody());
+			recordParsed(Endpoint.STOP, start, stop == null);
+
+			return ConditionalBusStop.modified(stop,
+					response.getHeader("ETag"), response.getHeader("Last-Modified"));
 		} catch (Exception e) {
+			recordUnparsed(Endpoint.STOP, e);
+
 			// Log it, since we will lose some exception details in the
 			// conversion to TranslinkException.
 			Log.e(LOG_TAG, e.getMessage());
@@ -80,22 +230,25 @@ public class TranslinkService extends AbstractTranslinkService {
      * @see ca.ubc.cpsc210.nextbus.translink.ITranslinkService#addWaitTimeEstimatesToStop(ca.ubc.cpsc210.nextbus.model.BusStop)
      */
 	
-//	Clears list of wait times for specified stop and adds current wait time estimates for stop
+//	Replaces wait times for specified stop with current wait time estimates for stop.
+//	Wait times are left as they were if they cannot be obtained.
 //	Parameters:
 //	stopNum - the bus stop to which wait time estimates must be added
 //	Throws:
 //	ca.ubc.cpsc210.exception.TranslinkException - when an exception occurs obtaining or parsing data from Translink service
 	@Override
     public void addWaitTimeEstimatesToStop(BusStop stop) throws TranslinkException {
-		stop.clearWaitTimes();
-		StringBuilder uriBuilder = new StringBuilder(
-				"//api.translink.ca/RTTIAPI/V1/");
+		StringBuilder uriBuilder = new StringBuilder(baseUrl);
 		uriBuilder.append("stops/" + stop.getStopNum() + "/estimates?");
 		uriBuilder.append("apikey=" + APIKEY);
 		try {
-			String responseBody = makeJSONQuery(uriBuilder);
-			 parseWaitTimesFromJSON(responseBody,stop);
+			String responseBody = makeJSONQuery(Endpoint.ESTIMATES, uriBuilder);
+			long start = System.nanoTime();
+			parseWaitTimesFromJSON(responseBody,stop);
+			recordParsed(Endpoint.ESTIMATES, start, isErrorObject(responseBody));
 		} catch (Exception e) {
+			recordUnparsed(Endpoint.ESTIMATES, e);
+
 			// Log it, since we will lose some exception details in the
 			// conversion to TranslinkException.
 			Log.e(LOG_TAG, e.getMessage());
@@ -122,22 +275,25 @@ public class TranslinkService extends AbstractTranslinkService {
      */
 	
 //
-//Clears buses for specified stop and adds current bus information for buses serving the stop (replaces current list of buses for stop).
+//Replaces buses for specified stop with current bus information for buses serving the stop.
+//Buses are left as they were if they cannot be obtained.
 //Parameters:
 //stop - the bus stop to which buses are to be added
 	@Override
     public void addBusLocationsForStop(BusStop stop)
 			throws TranslinkException {
-		stop.clearBuses();
-		StringBuilder uriBuilder = new StringBuilder(
-				"//api.translink.ca/RTTIAPI/V1/");
+		StringBuilder uriBuilder = new StringBuilder(baseUrl);
 		uriBuilder.append("buses?stopNo=" + stop.getStopNum()+"&");
 		uriBuilder.append("apikey=" + APIKEY);
 
 		try {
-			String responseBody = makeJSONQuery(uriBuilder);
+			String responseBody = makeJSONQuery(Endpoint.BUSES, uriBuilder);
+			long start = System.nanoTime();
 			parseBusesFromJSON(responseBody, stop);
+			recordParsed(Endpoint.BUSES, start, isErrorObject(responseBody));
 		} catch (Exception e) {
+			recordUnparsed(Endpoint.BUSES, e);
+
 			// Log it, since we will lose some exception details in the
 			// conversion to TranslinkException.
 			Log.e(LOG_TAG, e.getMessage());
@@ -155,43 +311,141 @@ public class TranslinkService extends AbstractTranslinkService {
 	/**
 	 * Execute a given query 
 	 * 
-	 * @param urlBuilder The query with everything but http:
+	 * @param endpoint   The endpoint being queried
+	 * @param urlBuilder The query URL
 	 * @return The JSON returned from the query 
 	 * @throws TranslinkException  
 	 * 				when an error occurs trying to connect or get data
 	 * 				from Translink service
 	 */
-	private String makeJSONQuery(StringBuilder urlBuilder) throws TranslinkException {
-		HttpURLConnection client = null;
-		
+	private String makeJSONQuery(Endpoint endpoint, StringBuilder urlBuilder)
+			throws TranslinkException {
+		return makeQuery(endpoint, urlBuilder, null).getBody();
+	}
+
+	/**
+	 * Execute a given query with additional request headers.  Failed attempts
+	 * are retried according to the retry policy.  While the circuit breaker for
+	 * the endpoint is open no request is made: the last successful response to
+	 * the same query is returned if there is one, otherwise the query fails
+	 * immediately.  Failures are recorded in the metrics before being thrown.
+	 * 
+	 * @param endpoint   The endpoint being queried
+	 * @param urlBuilder The query URL
+	 * @param headers    additional request headers (may be null)
+	 * @return The response to the query
+	 * @throws TranslinkException  
+	 * 				when an error occurs trying to connect or get data
+	 * 				from Translink service
+	 */
+	private HttpResponse makeQuery(Endpoint endpoint, StringBuilder urlBuilder,
+			Map<String, String> headers) throws TranslinkException {
+		String url = urlBuilder.toString();
+		CircuitBreaker breaker = breakers.get(endpoint);
+
 		try {
 			checkConnection();
-			
-			URL url = new URL("http:" + urlBuilder.toString());
-			client = (HttpURLConnection) url.openConnection();
-			client.setRequestProperty("accept", "application/json");
-			client.setConnectTimeout(CONNECT_TIMEOUT);
-			client.setReadTimeout(READ_TIMEOUT);
-			client.connect();
-			BufferedReader br;
-			InputStream err = client.getErrorStream();
-			if( err != null )
-				br = new BufferedReader(new InputStreamReader(err));
-			else {
-				InputStream in = client.getInputStream();
-				br = new BufferedReader(new InputStreamReader(in));
-			}
-			String returnString = br.readLine();
-			return returnString;
-		} catch (SocketTimeoutException e) {
-			throw new TranslinkException("Unable to connect to Translink at this time");
 		} catch (ConnectionException e) {
+			metrics.recordOutcome(endpoint, Outcome.NO_CONNECTIVITY);
 			throw new TranslinkException("Data not available: check network connection");
-		} catch (Exception e) {
-			throw new TranslinkException("Failed to get data from Translink service");
-		} finally {
-			if(client != null)
-				client.disconnect();
+		}
+
+		if (!breaker.allowRequest()) {
+			HttpResponse lastKnown = lastKnownResponse(url);
+			if (lastKnown != null) {
+				Log.w(LOG_TAG, "Serving last known data for " + endpoint + ": circuit open");
+				return lastKnown;
+			}
+			metrics.recordOutcome(endpoint, Outcome.FAILURE);
+			throw new TranslinkException("Translink service unavailable: try again later");
+		}
+
+		int attempts = 0;
+		while (true) {
+			try {
+				attempts++;
+				HttpResponse response = transport.get(url, headers);
+				metrics.recordTransfer(endpoint, response.getTimings());
+				if (response.getStatusCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR)
+					throw new IOException("Translink responded with status " + response.getStatusCode());
+
+				breaker.recordSuccess();
+				if (response.getStatusCode() == HttpURLConnection.HTTP_OK)
+					rememberResponse(url, response);
+				return response;
+			} catch (IOException e) {
+				if (!retryPolicy.canRetry(attempts) || !pauseBeforeRetry(attempts)) {
+					breaker.recordFailure();
+					if (e instanceof SocketTimeoutException) {
+						metrics.recordOutcome(endpoint, Outcome.TIMEOUT);
+						throw new TranslinkException("Unable to connect to Translink at this time");
+					}
+					metrics.recordOutcome(endpoint, Outcome.FAILURE);
+					throw new TranslinkException("Failed to get data from Translink service");
+				}
+			} catch (RuntimeException e) {
+				breaker.recordFailure();
+				metrics.recordOutcome(endpoint, Outcome.FAILURE);
+				throw new TranslinkException("Failed to get data from Translink service");
+			}
+		}
+	}
+
+	/**
+	 * Record parse time and outcome of a response that was parsed
+	 * @param endpoint     endpoint queried
+	 * @param parseStart   value of System.nanoTime() when parse started
+	 * @param errorObject  true if response was a Translink error object
+	 */
+	private void recordParsed(Endpoint endpoint, long parseStart, boolean errorObject) {
+		metrics.recordParse(endpoint, (System.nanoTime() - parseStart) / 1000);
+		metrics.recordOutcome(endpoint, errorObject ? Outcome.ERROR_OBJECT : Outcome.SUCCESS);
+	}
+
+	/**
+	 * Record failure to get data, unless makeQuery has already recorded it
+	 */
+	private void recordUnparsed(Endpoint endpoint, Exception e) {
+		if (!(e instanceof TranslinkException))
+			metrics.recordOutcome(endpoint, Outcome.FAILURE);
+	}
+
+	/**
+	 * Determine if a response that should be a JSON array is a Translink
+	 * error object instead
+	 */
+	private static boolean isErrorObject(String body) {
+		for (int i = 0; i < body.length(); i++) {
+			char c = body.charAt(i);
+			if (!Character.isWhitespace(c))
+				return c == '{';
+		}
+		return false;
+	}
+
+	/**
+	 * Sleep for the retry policy's backoff delay
+	 * @return false if interrupted, true otherwise
+	 */
+	private boolean pauseBeforeRetry(int attemptsMade) {
+		try {
+			Thread.sleep(retryPolicy.delayBeforeRetry(attemptsMade));
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private HttpResponse lastKnownResponse(String url) {
+		synchronized (lastKnown) {
+			return lastKnown.get(url);
+		}
+	}
+
+	private void rememberResponse(String url, HttpResponse response) {
+		synchronized (lastKnown) {
+			lastKnown.put(url, response);
 		}
 	}
 	
@@ -200,7 +454,7 @@ public class TranslinkService extends AbstractTranslinkService {
 	 * @throws ConnectionException when data services are not available
 	 */
 	private void checkConnection() throws ConnectionException {
-		ConnectivityManager cm = (ConnectivityManager) activity
+		ConnectivityManager cm = (ConnectivityManager) context
 				.getSystemService(Context.CONNECTIVITY_SERVICE);
 		NetworkInfo netInfo = cm.getActiveNetworkInfo();
 		if (netInfo == null || !netInfo.isConnected()) {
@@ -0,0 +1,128 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import android.app.Activity;
+import android.util.Log;
+import ca.ubc.cpsc210.nextbus.model.StalenessPolicy;
+import ca.ubc.cpsc210.nextbus.storage.LastKnownDataCache;
+import ca.ubc.cpsc210.nextbus.storage.StopCatalogue;
+
+/**
+ * Provides the Translink service shared by all activities and fragments, so
+ * that caches and connection limits apply to the app as a whole.
+ * 
+ * Design Pattern: Singleton
+ */
+public class TranslinkServiceFactory {
+	private static final String LOG_TAG = "TranslinkServiceFactory";
+
+	/**
+	 * Name of stop catalogue file, written by GtfsStopImporter and placed in
+	 * the app's files directory.  Without it, all stop information comes
+	 * from Translink.
+	 */
+	public static final String CATALOGUE_FILENAME = "stops.bin";
+
+	/**
+	 * Name of directory, in the app's cache directory, holding last known
+	 * wait times and bus locations of stops
+	 */
+	public static final String LAST_KNOWN_DATA_DIRECTORY = "lastknown";
+
+	/**
+	 * Bus positions older than this are flagged as stale on the map
+	 */
+	public static final long STALE_POSITION_AGE = TimeUnit.MINUTES.toMillis(5);
+
+	private static ITranslinkService instance;
+	private static CachingTranslinkService stopCache;
+	private static StopCatalogue catalogue;
+	private static LastKnownDataCache lastKnownData;
+
+	private TranslinkServiceFactory() {
+	}
+
+	/**
+	 * Gets single instance of Translink service
+	 * @param activity  an activity of this app
+	 * @return instance (the only one) of the Translink service
+	 */
+	public static synchronized ITranslinkService getInstance(Activity activity) {
+		if (instance == null) {
+			configureKeepAlive();
+			stopCache = new CachingTranslinkService(new TranslinkService(activity));
+			lastKnownData = new LastKnownDataCache(
+					new File(activity.getCacheDir(), LAST_KNOWN_DATA_DIRECTORY));
+			instance = new CoalescingTranslinkService(new LastKnownDataTranslinkService(
+					withCatalogue(activity, stopCache), lastKnownData));
+			instance.setStalenessPolicy(
+					new StalenessPolicy(STALE_POSITION_AGE, StalenessPolicy.Action.FLAG));
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Gets cache of stop information used by the Translink service
+	 * @param activity  an activity of this app
+	 * @return the stop cache
+	 */
+	static synchronized CachingTranslinkService getStopCache(Activity activity) {
+		getInstance(activity);
+		return stopCache;
+	}
+
+	/**
+	 * Gets offline stop catalogue used by the Translink service
+	 * @param activity  an activity of this app
+	 * @return the stop catalogue, or null if there is none
+	 */
+	public static synchronized StopCatalogue getStopCatalogue(Activity activity) {
+		getInstance(activity);
+		return catalogue;
+	}
+
+	/**
+	 * Gets cache to which the Translink service saves wait times and bus
+	 * locations as they are fetched
+	 * @param activity  an activity of this app
+	 * @return the last known data cache
+	 */
+	public static synchronized LastKnownDataCache getLastKnownDataCache(Activity activity) {
+		getInstance(activity);
+		return lastKnownData;
+	}
+
+	/**
+	 * Size the platform keep-alive pool so that it can hold an idle connection
+	 * for every request PooledHttpTransport allows in flight.  These
+	 * properties apply to every HttpURLConnection in the JVM and are read
+	 * when the first connection is made, so they are set here, once, before
+	 * the app makes any request.
+	 */
+	private static void configureKeepAlive() {
+		System.setProperty("http.keepAlive", "true");
+		System.setProperty("http.maxConnections",
+				Integer.toString(PooledHttpTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST));
+	}
+
+	/**
+	 * Decorate service with stop catalogue, if there is one
+	 */
+	private static ITranslinkService withCatalogue(Activity activity, ITranslinkService service) {
+		File file = new File(activity.getFilesDir(), CATALOGUE_FILENAME);
+		if (!file.exists())
+			return service;
+
+		try {
+			catalogue = StopCatalogue.open(file);
+			return new CatalogueTranslinkService(service, catalogue);
+		} catch (IOException e) {
+			Log.e(LOG_TAG, "Error opening stop catalogue: " + e.getMessage());
+			return service;
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.WaitTimeTable;
+
+/**
+ * Refreshes wait time estimates for watched stops automatically.  The time
+ * until the next refresh of a stop depends on its current estimates: stops
+ * with a bus due soon are refreshed often, stops whose next bus is a long
+ * way off are refreshed rarely.  No refreshes are made while the scheduler
+ * is paused (e.g. while the UI is not visible).
+ */
+public class WaitTimeRefreshScheduler {
+	/**
+	 * Delay when next bus is due in under 2 minutes ("NOW")
+	 */
+	public static final long DUE_NOW_DELAY = TimeUnit.SECONDS.toMillis(15);
+
+	/**
+	 * Delay when next bus is due in under 5 minutes
+	 */
+	public static final long DUE_SOON_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+	/**
+	 * Delay when next bus is due in under 20 minutes
+	 */
+	public static final long DEFAULT_DELAY = TimeUnit.SECONDS.toMillis(60);
+
+	/**
+	 * Delay when next bus is 20 or more minutes away, or no buses are expected
+	 */
+	public static final long DUE_LATER_DELAY = TimeUnit.MINUTES.toMillis(3);
+
+	/**
+	 * Longest delay after repeated failures
+	 */
+	private static final long MAX_FAILURE_DELAY = TimeUnit.MINUTES.toMillis(5);
+
+	/**
+	 * Receives results of automatic refreshes.  Methods are called on the
+	 * scheduler's background thread.
+	 */
+	public static interface Listener {
+		public void onWaitTimesRefreshed(BusStop stop);
+		public void onRefreshFailed(BusStop stop, TranslinkException e);
+	}
+
+	private ITranslinkService service;
+	private Listener listener;
+	private ScheduledExecutorService executor;
+	private Map<BusStop, Watch> watched;
+	private boolean paused;
+
+	/**
+	 * Constructor
+	 * 		Scheduler is initially paused
+	 * @param service   service used to refresh wait times
+	 * @param listener  receives results of refreshes
+	 */
+	public WaitTimeRefreshScheduler(ITranslinkService service, Listener listener) {
+		this.service = service;
+		this.listener = listener;
+		watched = new HashMap<BusStop, Watch>();
+		paused = true;
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "wait-time-refresh");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Start refreshing a stop.  First refresh is scheduled from the stop's
+	 * current estimates, so a stop that was just updated is not refreshed again
+	 * straight away.  If stop is already watched, its next refresh is
+	 * rescheduled from its current estimates.
+	 * @param stop  the stop to refresh
+	 */
+	public synchronized void watch(BusStop stop) {
+		Watch w = watched.get(stop);
+
+		if (w == null) {
+			w = new Watch(stop);
+			watched.put(stop, w);
+		} else
+			w.lastRefresh = System.currentTimeMillis();
+
+		if (!paused)
+			schedule(w, delayAfter(stop));
+	}
+
+	/**
+	 * Stop refreshing a stop
+	 * @param stop  the stop
+	 */
+	public synchronized void unwatch(BusStop stop) {
+		Watch w = watched.remove(stop);
+		if (w != null)
+			w.cancel();
+	}
+
+	/**
+	 * Stop refreshing all stops
+	 */
+	public synchronized void unwatchAll() {
+		for (Watch next : watched.values())
+			next.cancel();
+		watched.clear();
+	}
+
+	/**
+	 * Suspend refreshes until resume is called
+	 */
+	public synchronized void pause() {
+		paused = true;
+		for (Watch next : watched.values())
+			next.cancel();
+	}
+
+	/**
+	 * Resume refreshes.  Stops whose refresh fell due while paused are
+	 * refreshed immediately.
+	 */
+	public synchronized void resume() {
+		if (!paused)
+			return;
+
+		paused = false;
+		long now = System.currentTimeMillis();
+		for (Watch next : watched.values()) {
+			long due = next.lastRefresh + delayAfter(next.stop);
+			schedule(next, Math.max(0, due - now));
+		}
+	}
+
+	/**
+	 * Stop all refreshes permanently and release background thread
+	 */
+	public synchronized void shutdown() {
+		unwatchAll();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Produce delay until next refresh of a stop, based on its current estimates
+	 * @param stop  the stop
+	 * @return  delay in milliseconds
+	 */
+	public static long delayAfter(BusStop stop) {
+		WaitTimeTable waitTimes = stop.getWaitTimeTable();
+		int soonest = Integer.MAX_VALUE;
+
+		for (int i = 0, n = waitTimes.size(); i < n; i++) {
+			if (!waitTimes.isCancelled(i)) {
+				soonest = waitTimes.getMinutes(i);
+				break;
+			}
+		}
+
+		if (soonest < 2)
+			return DUE_NOW_DELAY;
+		if (soonest < 5)
+			return DUE_SOON_DELAY;
+		if (soonest < 20)
+			return DEFAULT_DELAY;
+		return DUE_LATER_DELAY;
+	}
+
+	private void schedule(final Watch w, long delay) {
+		w.cancel();
+		w.pending = executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				refresh(w);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void refresh(Watch w) {
+		long delay;
+
+		try {
+			service.addWaitTimeEstimatesToStop(w.stop);
+			w.failures = 0;
+			delay = delayAfter(w.stop);
+			listener.onWaitTimesRefreshed(w.stop);
+		} catch (TranslinkException e) {
+			w.failures++;
+			delay = Math.min(MAX_FAILURE_DELAY, DUE_SOON_DELAY << Math.min(w.failures - 1, 4));
+			listener.onRefreshFailed(w.stop, e);
+		}
+
+		synchronized (this) {
+			w.lastRefresh = System.currentTimeMillis();
+			if (!paused && watched.get(w.stop) == w)
+				schedule(w, delay);
+		}
+	}
+
+	/**
+	 * Refresh state of a watched stop
+	 */
+	private static class Watch {
+		private final BusStop stop;
+		private ScheduledFuture<?> pending;
+		private long lastRefresh;
+		private int failures;
+
+		Watch(BusStop stop) {
+			this.stop = stop;
+			lastRefresh = System.currentTimeMillis();
+		}
+
+		void cancel() {
+			if (pending != null) {
+				pending.cancel(false);
+				pending = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A latitude/longitude coordinate pair held as whole microdegrees
+ * (degrees * 1E6, the scale used by map GeoPoints), which is precise to
+ * about 10 cm.  A pair packs into a single long, so it can be stored in a
+ * primitive array or used as a map key without allocating.
+ *
+ * <p>Coordinates are parsed from and formatted to decimal strings directly,
+ * without going through double.
+ */
+public final class FixedLatLon {
+	/**
+	 * Microdegrees per degree
+	 */
+	public static final int SCALE = 1000000;
+
+	private static final int FRACTION_DIGITS = 6;
+
+	private final int latE6;
+	private final int lonE6;
+
+	/**
+	 * Constructor
+	 * @param latE6  latitude in microdegrees
+	 * @param lonE6  longitude in microdegrees
+	 */
+	public FixedLatLon(int latE6, int lonE6) {
+		this.latE6 = latE6;
+		this.lonE6 = lonE6;
+	}
+
+	/**
+	 * Constructor
+	 * @param lat  latitude as decimal degrees, e.g. "49.261198"
+	 * @param lon  longitude as decimal degrees, e.g. "-123.113927"
+	 * @throws NumberFormatException  if either is not a number
+	 */
+	public FixedLatLon(String lat, String lon) {
+		this(parseE6(lat), parseE6(lon));
+	}
+
+	/**
+	 * Constructor
+	 * @param json  JSON object having Latitude and Longitude
+	 * @throws JSONException  if either is missing or not a number
+	 */
+	public FixedLatLon(JSONObject json) throws JSONException {
+		this(parseE6(json, "Latitude"), parseE6(json, "Longitude"));
+	}
+
+	/**
+	 * Produce coordinate nearest a pair of degrees
+	 * @param lat  latitude in degrees
+	 * @param lon  longitude in degrees
+	 * @return  the coordinate
+	 */
+	public static FixedLatLon fromDegrees(double lat, double lon) {
+		return new FixedLatLon(toE6(lat), toE6(lon));
+	}
+
+	/**
+	 * Produce coordinate from packed form
+	 * @param packed  coordinate packed by pack
+	 * @return  the coordinate
+	 */
+	public static FixedLatLon fromPacked(long packed) {
+		return new FixedLatLon(latitudeE6(packed), longitudeE6(packed));
+	}
+
+	/**
+	 * Pack a coordinate into a long: latitude in the high 32 bits and
+	 * longitude in the low 32 bits
+	 * @param latE6  latitude in microdegrees
+	 * @param lonE6  longitude in microdegrees
+	 * @return  packed coordinate
+	 */
+	public static long pack(int latE6, int lonE6) {
+		return ((long) latE6 << 32) | (lonE6 & 0xffffffffL);
+	}
+
+	/**
+	 * Gets latitude of packed coordinate
+	 * @param packed  the packed coordinate
+	 * @return  latitude in microdegrees
+	 */
+	public static int latitudeE6(long packed) {
+		return (int) (packed >> 32);
+	}
+
+	/**
+	 * Gets longitude of packed coordinate
+	 * @param packed  the packed coordinate
+	 * @return  longitude in microdegrees
+	 */
+	public static int longitudeE6(long packed) {
+		return (int) packed;
+	}
+
+	/**
+	 * Convert degrees to nearest microdegree
+	 * @param degrees  the degrees
+	 * @return  microdegrees
+	 */
+	public static int toE6(double degrees) {
+		return (int) Math.round(degrees * SCALE);
+	}
+
+	/**
+	 * Parse decimal degrees, rounding to nearest microdegree
+	 * @param text  decimal degrees, e.g. "-123.113927"
+	 * @return  microdegrees
+	 * @throws NumberFormatException  if text is not a number
+	 */
+	public static int parseE6(String text) {
+		int length = text.length();
+		int i = 0;
+		boolean negative = false;
+		if (i < length && (text.charAt(i) == '-' || text.charAt(i) == '+'))
+			negative = text.charAt(i++) == '-';
+
+		long whole = 0;
+		long fraction = 0;
+		int fractionDigits = 0;
+		boolean roundUp = false;
+		int digits = 0;
+
+		for (; i < length && isDigit(text.charAt(i)); i++, digits++) {
+			whole = whole * 10 + (text.charAt(i) - '0');
+			if (whole > Integer.MAX_VALUE / SCALE)
+				return slowParseE6(text);
+		}
+
+		if (i < length && text.charAt(i) == '.') {
+			for (i++; i < length && isDigit(text.charAt(i)); i++, digits++) {
+				if (fractionDigits < FRACTION_DIGITS) {
+					fraction = fraction * 10 + (text.charAt(i) - '0');
+					fractionDigits++;
+				} else if (fractionDigits++ == FRACTION_DIGITS)
+					roundUp = text.charAt(i) >= '5';
+			}
+		}
+
+		if (i < length || digits == 0)
+			return slowParseE6(text);
+
+		for (; fractionDigits < FRACTION_DIGITS; fractionDigits++)
+			fraction *= 10;
+
+		long e6 = whole * SCALE + fraction + (roundUp ? 1 : 0);
+		if (e6 > Integer.MAX_VALUE)
+			return slowParseE6(text);
+		return (int) (negative ? -e6 : e6);
+	}
+
+	/**
+	 * Format microdegrees as decimal degrees, without trailing zeros,
+	 * e.g. "49.2612" or "-123.0"
+	 * @param e6  microdegrees
+	 * @return  decimal degrees
+	 */
+	public static String formatE6(int e6) {
+		long value = e6;
+		StringBuilder text = new StringBuilder(12);
+		if (value < 0) {
+			text.append('-');
+			value = -value;
+		}
+
+		text.append(value / SCALE).append('.');
+		int fraction = (int) (value % SCALE);
+		int digits = FRACTION_DIGITS;
+		while (digits > 1 && fraction % 10 == 0) {
+			fraction /= 10;
+			digits--;
+		}
+
+		String fractionText = Integer.toString(fraction);
+		for (int pad = digits - fractionText.length(); pad > 0; pad--)
+			text.append('0');
+		return text.append(fractionText).toString();
+	}
+
+	public int getLatitudeE6() {
+		return latE6;
+	}
+
+	public int getLongitudeE6() {
+		return lonE6;
+	}
+
+	public double getLatitude() {
+		return (double) latE6 / SCALE;
+	}
+
+	public double getLongitude() {
+		return (double) lonE6 / SCALE;
+	}
+
+	/**
+	 * Produce packed form of this coordinate
+	 * @return  packed coordinate
+	 */
+	public long pack() {
+		return pack(latE6, lonE6);
+	}
+
+	/**
+	 * Produce this coordinate as a LatLon
+	 * @return  the LatLon
+	 */
+	public LatLon toLatLon() {
+		return new LatLon(getLatitude(), getLongitude());
+	}
+
+	public String toString() {
+		return formatE6(latE6) + ", " + formatE6(lonE6);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * latE6 + lonE6;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof FixedLatLon))
+			return false;
+		FixedLatLon other = (FixedLatLon) obj;
+		return latE6 == other.latE6 && lonE6 == other.lonE6;
+	}
+
+	/**
+	 * Produces JSONObject from this lat/lon, in the same form as LatLon.toJSON
+	 * @return  the JSONObject containing lat and lon
+	 * @throws JSONException
+	 */
+	public JSONObject toJSON() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("Latitude", formatE6(latE6));
+		json.put("Longitude", formatE6(lonE6));
+		return json;
+	}
+
+	private static int parseE6(JSONObject json, String key) throws JSONException {
+		try {
+			return parseE6(json.getString(key));
+		} catch (NumberFormatException e) {
+			throw new JSONException(key + " is not a number");
+		}
+	}
+
+	/**
+	 * Parse forms the fast path does not handle, such as exponents
+	 */
+	private static int slowParseE6(String text) {
+		double degrees = Double.parseDouble(text);
+		if (Math.abs(degrees) > (double) Integer.MAX_VALUE / SCALE)
+			throw new NumberFormatException("Out of range: " + text);
+		return toE6(degrees);
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
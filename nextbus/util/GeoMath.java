@@ -0,0 +1,61 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+/**
+ * Distance calculations on the surface of the earth
+ */
+public class GeoMath {
+	/**
+	 * Mean radius of the earth in metres
+	 */
+	public static final double EARTH_RADIUS = 6371008.8;
+
+	/**
+	 * Length in metres of one degree of latitude
+	 */
+	public static final double METRES_PER_DEGREE = Math.PI * EARTH_RADIUS / 180;
+
+	private GeoMath() {
+	}
+
+	/**
+	 * Great-circle distance between two points (haversine formula)
+	 * @param lat1  latitude of first point in degrees
+	 * @param lon1  longitude of first point in degrees
+	 * @param lat2  latitude of second point in degrees
+	 * @param lon2  longitude of second point in degrees
+	 * @return  distance in metres
+	 */
+	public static double distance(double lat1, double lon1, double lat2, double lon2) {
+		double dLat = Math.toRadians(lat2 - lat1);
+		double dLon = Math.toRadians(lon2 - lon1);
+		double sinLat = Math.sin(dLat / 2);
+		double sinLon = Math.sin(dLon / 2);
+		double a = sinLat * sinLat
+				+ Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	/**
+	 * Great-circle distance between two points
+	 * @param from  first point
+	 * @param to    second point
+	 * @return  distance in metres
+	 */
+	public static double distance(LatLon from, LatLon to) {
+		return distance(from.getLatitude(), from.getLongitude(), to.getLatitude(), to.getLongitude());
+	}
+
+	/**
+	 * Produce number of degrees of longitude spanning a distance at a latitude,
+	 * for bounding box tests.  Near the poles the whole range is returned.
+	 * @param metres    distance in metres
+	 * @param latitude  latitude in degrees
+	 * @return  degrees of longitude
+	 */
+	public static double longitudeDegrees(double metres, double latitude) {
+		double cos = Math.cos(Math.toRadians(latitude));
+		if (cos < 1e-6)
+			return 360;
+		return Math.min(360, metres / (METRES_PER_DEGREE * cos));
+	}
+}
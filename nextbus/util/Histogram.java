@@ -0,0 +1,132 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of non-negative long values with fixed memory.
+ * Values are counted in log-linear buckets (8 per power of two), so
+ * percentiles are accurate to within 12.5% at any magnitude.  Recording
+ * does not allocate and does not lock.
+ */
+public class Histogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong count;
+	private final AtomicLong sum;
+	private final AtomicLong max;
+
+	public Histogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		count = new AtomicLong();
+		sum = new AtomicLong();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Record a value
+	 * @param value  the value; negative values are recorded as 0
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+
+		counts.incrementAndGet(bucketOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value))
+			;
+	}
+
+	/**
+	 * Gets number of values recorded
+	 * @return  number of values
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Gets largest value recorded
+	 * @return  largest value, or 0 if none recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets mean of values recorded
+	 * @return  mean, or 0 if none recorded
+	 */
+	public double getMean() {
+		long n = count.get();
+		return (n == 0 ? 0 : (double) sum.get() / n);
+	}
+
+	/**
+	 * Produce value at or below which the given percentage of values fall.
+	 * Result is the upper bound of the bucket containing that value, capped
+	 * at the largest value recorded.
+	 * @param percentile  percentile between 0 and 100, e.g. 99.9
+	 * @return  value at percentile, or 0 if none recorded
+	 */
+	public long getPercentile(double percentile) {
+		long n = count.get();
+		if (n == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * n);
+		if (rank < 1)
+			rank = 1;
+
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(upperBoundOf(i), max.get());
+		}
+
+		return max.get();
+	}
+
+	/**
+	 * Discard all recorded values
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "n=" + getCount() + " p50=" + getPercentile(50) + " p90=" + getPercentile(90)
+				+ " p99=" + getPercentile(99) + " max=" + getMax();
+	}
+
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket % SUB_BUCKETS;
+		long lower = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+		return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+}
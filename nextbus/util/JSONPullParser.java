@@ -0,0 +1,463 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+import org.json.JSONException;
+
+/**
+ * Pull parser that reads a JSON document one token at a time, without
+ * building JSONObject/JSONArray trees.  Names of object members can be
+ * matched against a set of expected names without allocating a String.
+ *
+ * <p>Scalar values are read leniently in the same way as org.json: a number
+ * or boolean that has been quoted as a string is accepted by nextInt,
+ * nextDouble and nextBoolean.
+ */
+public class JSONPullParser {
+
+	/**
+	 * Kinds of token that can appear next in the document
+	 */
+	public enum Token {
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	private static final int EMPTY_ARRAY = 1;
+	private static final int NONEMPTY_ARRAY = 2;
+	private static final int EMPTY_OBJECT = 3;
+	private static final int DANGLING_NAME = 4;
+	private static final int NONEMPTY_OBJECT = 5;
+	private static final int EMPTY_DOCUMENT = 6;
+	private static final int NONEMPTY_DOCUMENT = 7;
+
+	private String in;
+	private int pos;
+	private int[] stack;
+	private int depth;
+	private Token peeked;
+
+	/**
+	 * Constructor
+	 * @param input  the JSON document to parse
+	 */
+	public JSONPullParser(String input) {
+		in = input;
+		pos = 0;
+		stack = new int[16];
+		stack[0] = EMPTY_DOCUMENT;
+		depth = 1;
+	}
+
+	/**
+	 * Gets type of next token without consuming it
+	 * @return  type of next token
+	 * @throws JSONException  if document is malformed
+	 */
+	public Token peek() throws JSONException {
+		if (peeked == null)
+			peeked = doPeek();
+		return peeked;
+	}
+
+	/**
+	 * Determine if current array or object has another element
+	 * @return  true if there is another element, false if array/object ends next
+	 * @throws JSONException  if document is malformed
+	 */
+	public boolean hasNext() throws JSONException {
+		Token t = peek();
+		return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+	}
+
+	public void beginObject() throws JSONException {
+		expect(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	public void endObject() throws JSONException {
+		expect(Token.END_OBJECT);
+		depth--;
+	}
+
+	public void beginArray() throws JSONException {
+		expect(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	public void endArray() throws JSONException {
+		expect(Token.END_ARRAY);
+		depth--;
+	}
+
+	/**
+	 * Consume name of next object member
+	 * @return  the member name
+	 * @throws JSONException  if next token is not a name
+	 */
+	public String nextName() throws JSONException {
+		expect(Token.NAME);
+		String name = readString();
+		stack[depth - 1] = DANGLING_NAME;
+		return name;
+	}
+
+	/**
+	 * Consume name of next object member and match it against a set of expected
+	 * names, without allocating.  Names containing escape sequences never match.
+	 *
+	 * @param names  expected names
+	 * @return  index of matching name in names, or -1 if there is no match
+	 * @throws JSONException  if next token is not a name
+	 */
+	public int nextName(String[] names) throws JSONException {
+		expect(Token.NAME);
+		int start = pos + 1;
+		int end = in.indexOf('"', start);
+		int match = -1;
+
+		if (end != -1 && !hasEscape(start, end)) {
+			int length = end - start;
+			for (int i = 0; i < names.length && match == -1; i++) {
+				if (names[i].length() == length && in.regionMatches(start, names[i], 0, length))
+					match = i;
+			}
+			pos = end + 1;
+		} else {
+			readString();
+		}
+
+		stack[depth - 1] = DANGLING_NAME;
+		return match;
+	}
+
+	/**
+	 * Determine if a backslash occurs in in[start, end), looking no further
+	 */
+	private boolean hasEscape(int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (in.charAt(i) == '\\')
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Consume a scalar value as a string.  Numbers and booleans are returned
+	 * as they appear in the document; null is returned as "null".
+	 * @return  the value as a string
+	 * @throws JSONException  if next token is not a scalar
+	 */
+	public String nextString() throws JSONException {
+		Token t = peek();
+		String value;
+
+		if (t == Token.STRING)
+			value = readString();
+		else if (t == Token.NUMBER || t == Token.BOOLEAN || t == Token.NULL) {
+			int start = pos;
+			pos = endOfLiteral();
+			value = in.substring(start, pos);
+		} else
+			throw syntaxError("Expected a value but was " + t);
+
+		consumedValue();
+		return value;
+	}
+
+	/**
+	 * Consume a number as an int (any fractional part is discarded)
+	 * @return  the value
+	 * @throws JSONException  if next value is not a number
+	 */
+	public int nextInt() throws JSONException {
+		if (peek() == Token.NUMBER) {
+			int start = pos;
+			int end = endOfLiteral();
+			boolean negative = in.charAt(start) == '-';
+			int i = negative ? start + 1 : start;
+			long value = 0;
+
+			while (i < end && in.charAt(i) >= '0' && in.charAt(i) <= '9' && value <= Integer.MAX_VALUE)
+				value = value * 10 + (in.charAt(i++) - '0');
+
+			if (i == end && value <= Integer.MAX_VALUE) {
+				pos = end;
+				consumedValue();
+				return (int) (negative ? -value : value);
+			}
+		}
+
+		return (int) nextDouble();
+	}
+
+	/**
+	 * Consume a number as a double
+	 * @return  the value
+	 * @throws JSONException  if next value is not a number
+	 */
+	public double nextDouble() throws JSONException {
+		Token t = peek();
+		if (t != Token.NUMBER && t != Token.STRING)
+			throw syntaxError("Expected a number but was " + t);
+
+		String text = nextString();
+		try {
+			return Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			throw new JSONException("Expected a number but was " + text);
+		}
+	}
+
+	/**
+	 * Consume a boolean
+	 * @return  the value
+	 * @throws JSONException  if next value is not a boolean
+	 */
+	public boolean nextBoolean() throws JSONException {
+		Token t = peek();
+		if (t != Token.BOOLEAN && t != Token.STRING)
+			throw syntaxError("Expected a boolean but was " + t);
+
+		String text = nextString();
+		if (text.equalsIgnoreCase("true"))
+			return true;
+		if (text.equalsIgnoreCase("false"))
+			return false;
+		throw new JSONException("Expected a boolean but was " + text);
+	}
+
+	/**
+	 * Consume a null value
+	 * @throws JSONException  if next value is not null
+	 */
+	public void nextNull() throws JSONException {
+		expect(Token.NULL);
+		pos += 4;
+		consumedValue();
+	}
+
+	/**
+	 * Skip next value, including any nested arrays and objects
+	 * @throws JSONException  if document is malformed
+	 */
+	public void skipValue() throws JSONException {
+		int nesting = 0;
+
+		do {
+			Token t = peek();
+			switch (t) {
+			case BEGIN_OBJECT:
+				beginObject();
+				nesting++;
+				break;
+			case BEGIN_ARRAY:
+				beginArray();
+				nesting++;
+				break;
+			case END_OBJECT:
+				endObject();
+				nesting--;
+				break;
+			case END_ARRAY:
+				endArray();
+				nesting--;
+				break;
+			case NAME:
+				nextName();
+				break;
+			case END_DOCUMENT:
+				throw syntaxError("Unexpected end of document");
+			default:
+				nextString();
+			}
+		} while (nesting > 0);
+	}
+
+	private Token doPeek() throws JSONException {
+		int context = stack[depth - 1];
+
+		switch (context) {
+		case EMPTY_ARRAY:
+			stack[depth - 1] = NONEMPTY_ARRAY;
+			if (nextNonWhitespace() == ']')
+				return Token.END_ARRAY;
+			return peekValue();
+		case NONEMPTY_ARRAY:
+			switch (nextNonWhitespace()) {
+			case ']':
+				return Token.END_ARRAY;
+			case ',':
+				pos++;
+				nextNonWhitespace();
+				return peekValue();
+			default:
+				throw syntaxError("Unterminated array");
+			}
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT:
+			char c = nextNonWhitespace();
+			if (c == '}')
+				return Token.END_OBJECT;
+			if (context == NONEMPTY_OBJECT) {
+				if (c != ',')
+					throw syntaxError("Unterminated object");
+				pos++;
+				c = nextNonWhitespace();
+			}
+			if (c != '"')
+				throw syntaxError("Expected name");
+			return Token.NAME;
+		case DANGLING_NAME:
+			if (nextNonWhitespace() != ':')
+				throw syntaxError("Expected ':'");
+			pos++;
+			stack[depth - 1] = NONEMPTY_OBJECT;
+			nextNonWhitespace();
+			return peekValue();
+		case EMPTY_DOCUMENT:
+			stack[depth - 1] = NONEMPTY_DOCUMENT;
+			nextNonWhitespace();
+			return peekValue();
+		default:
+			return (skipWhitespace() == in.length() ? Token.END_DOCUMENT : peekValue());
+		}
+	}
+
+	private Token peekValue() throws JSONException {
+		if (pos >= in.length())
+			throw syntaxError("Unexpected end of document");
+
+		char c = in.charAt(pos);
+		switch (c) {
+		case '{':
+			return Token.BEGIN_OBJECT;
+		case '[':
+			return Token.BEGIN_ARRAY;
+		case '"':
+			return Token.STRING;
+		case 't':
+		case 'f':
+			return Token.BOOLEAN;
+		case 'n':
+			return Token.NULL;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9'))
+				return Token.NUMBER;
+			throw syntaxError("Unexpected character '" + c + "'");
+		}
+	}
+
+	private void expect(Token expected) throws JSONException {
+		Token t = peek();
+		if (t != expected)
+			throw syntaxError("Expected " + expected + " but was " + t);
+
+		if (t == Token.BEGIN_OBJECT || t == Token.BEGIN_ARRAY || t == Token.END_OBJECT
+				|| t == Token.END_ARRAY)
+			pos++;
+		peeked = null;
+	}
+
+	private void consumedValue() {
+		peeked = null;
+	}
+
+	private void push(int context) {
+		if (depth == stack.length) {
+			int[] larger = new int[depth * 2];
+			System.arraycopy(stack, 0, larger, 0, depth);
+			stack = larger;
+		}
+		stack[depth++] = context;
+	}
+
+	/**
+	 * Read quoted string starting at pos, leaving pos after closing quote
+	 */
+	private String readString() throws JSONException {
+		int start = pos + 1;
+		int i = start;
+		StringBuilder builder = null;
+
+		while (i < in.length()) {
+			char c = in.charAt(i);
+			if (c == '"') {
+				String value;
+				if (builder == null)
+					value = in.substring(start, i);
+				else
+					value = builder.append(in, start, i).toString();
+				pos = i + 1;
+				peeked = null;
+				return value;
+			}
+			if (c == '\\') {
+				if (builder == null)
+					builder = new StringBuilder();
+				builder.append(in, start, i);
+				if (i + 1 >= in.length())
+					break;
+				char escaped = in.charAt(i + 1);
+				i += 2;
+				switch (escaped) {
+				case 'n':
+					builder.append('\n');
+					break;
+				case 't':
+					builder.append('\t');
+					break;
+				case 'r':
+					builder.append('\r');
+					break;
+				case 'b':
+					builder.append('\b');
+					break;
+				case 'f':
+					builder.append('\f');
+					break;
+				case 'u':
+					if (i + 4 > in.length())
+						throw syntaxError("Unterminated escape sequence");
+					try {
+						builder.append((char) Integer.parseInt(in.substring(i, i + 4), 16));
+					} catch (NumberFormatException e) {
+						throw syntaxError("Invalid escape sequence");
+					}
+					i += 4;
+					break;
+				default:
+					builder.append(escaped);
+				}
+				start = i;
+			} else
+				i++;
+		}
+
+		throw syntaxError("Unterminated string");
+	}
+
+	private int endOfLiteral() {
+		int i = pos;
+		while (i < in.length()) {
+			char c = in.charAt(i);
+			if (c == ',' || c == ']' || c == '}' || c == ':' || Character.isWhitespace(c))
+				break;
+			i++;
+		}
+		return i;
+	}
+
+	private char nextNonWhitespace() throws JSONException {
+		if (skipWhitespace() == in.length())
+			throw syntaxError("Unexpected end of document");
+		return in.charAt(pos);
+	}
+
+	private int skipWhitespace() {
+		while (pos < in.length() && Character.isWhitespace(in.charAt(pos)))
+			pos++;
+		return pos;
+	}
+
+	private JSONException syntaxError(String message) {
+		return new JSONException(message + " at character " + pos);
+	}
+}
@@ -0,0 +1,77 @@
+package ca.ubc.cpsc210.standin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Directory of recorded API responses.  Each response body is stored in its
+ * own file named after the endpoint and stop number, e.g. stop-51479.json,
+ * estimates-51479.json or buses-51479.json, so fixtures can be inspected and
+ * edited by hand.
+ */
+public class FixtureStore {
+	private static final String CHARSET = "UTF-8";
+
+	private File dir;
+
+	/**
+	 * Constructor
+	 * @param dir  directory in which fixtures are stored
+	 */
+	public FixtureStore(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Load a recorded response
+	 * @param kind    kind of response: "stop", "estimates" or "buses"
+	 * @param stopNo  stop number
+	 * @return  recorded body, or null if no fixture has been recorded
+	 * @throws IOException when fixture exists but cannot be read
+	 */
+	public String load(String kind, int stopNo) throws IOException {
+		File file = fileFor(kind, stopNo);
+		if (!file.isFile())
+			return null;
+
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+			return out.toString(CHARSET);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Record a response, replacing any existing fixture
+	 * @param kind    kind of response: "stop", "estimates" or "buses"
+	 * @param stopNo  stop number
+	 * @param body    response body
+	 * @throws IOException when fixture cannot be written
+	 */
+	public synchronized void save(String kind, int stopNo, String body) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create fixture directory " + dir);
+
+		OutputStream out = new FileOutputStream(fileFor(kind, stopNo));
+		try {
+			out.write(body.getBytes(CHARSET));
+		} finally {
+			out.close();
+		}
+	}
+
+	private File fileFor(String kind, int stopNo) {
+		return new File(dir, kind + "-" + stopNo + ".json");
+	}
+}
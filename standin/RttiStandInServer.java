@@ -0,0 +1,445 @@
+package ca.ubc.cpsc210.standin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the Translink RTTI API.  Serves the endpoints used by
+ * TranslinkService:
+ *
+ * <pre>
+ *   /RTTIAPI/V1/stops/{stopNo}
+ *   /RTTIAPI/V1/stops/{stopNo}/estimates
+ *   /RTTIAPI/V1/buses?stopNo={stopNo}
+ * </pre>
+ *
+ * from synthetic payloads, recorded fixtures, or by recording responses of
+ * the real API, with configurable latency and error rate.  Connections are
+ * kept alive and responses gzipped when the client accepts it, as the real
+ * API does, so client timings are representative.  Stop responses carry an
+ * ETag and honour If-None-Match.
+ *
+ * <p>Run from the command line with, for example:
+ *
+ * <pre>
+ *   java ca.ubc.cpsc210.standin.RttiStandInServer --port 8080 --latency 150 --jitter 100 --error-rate 0.05
+ * </pre>
+ *
+ * and point the client at it with TranslinkService.setBaseUrl (from the
+ * Android emulator the host machine is 10.0.2.2).
+ */
+public class RttiStandInServer {
+	private static final String API_PATH = "/RTTIAPI/V1/";
+	private static final String CHARSET = "UTF-8";
+	private static final int MAX_LINE_LENGTH = 8192;
+
+	private StandInConfig config;
+	private SyntheticPayloads payloads;
+	private FixtureStore fixtures;
+	private Random random;
+	private ServerSocket serverSocket;
+	private ExecutorService workers;
+	private volatile boolean running;
+
+	/**
+	 * Constructor
+	 * @param config  server configuration
+	 */
+	public RttiStandInServer(StandInConfig config) {
+		this.config = config;
+		payloads = new SyntheticPayloads(config.getSeed());
+		fixtures = new FixtureStore(config.getFixtureDir());
+		random = new Random(config.getSeed());
+	}
+
+	/**
+	 * Start accepting connections on a background thread
+	 * @throws IOException when server socket cannot be opened
+	 */
+	public synchronized void start() throws IOException {
+		if (running)
+			return;
+
+		serverSocket = new ServerSocket(config.getPort());
+		workers = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "rtti-stand-in");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		running = true;
+
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				acceptConnections();
+			}
+		});
+	}
+
+	/**
+	 * Stop accepting connections and close server socket
+	 */
+	public synchronized void stop() {
+		if (!running)
+			return;
+
+		running = false;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+		workers.shutdownNow();
+	}
+
+	/**
+	 * Gets port on which server is listening (useful when configured port is 0)
+	 * @return  port number
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Gets base URL to pass to TranslinkService to use this server
+	 * @return  base URL, e.g. "http://127.0.0.1:8080/RTTIAPI/V1/"
+	 */
+	public String getBaseUrl() {
+		return "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + getPort() + API_PATH;
+	}
+
+	private void acceptConnections() {
+		while (running) {
+			try {
+				final Socket socket = serverSocket.accept();
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				});
+			} catch (IOException e) {
+				if (running)
+					System.err.println("Accept failed: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Serve requests on a connection until the client closes it
+	 */
+	private void serve(Socket socket) {
+		try {
+			socket.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+			boolean keepAlive = true;
+			while (keepAlive && running) {
+				String requestLine = readLine(in);
+				if (requestLine == null)
+					break;
+				if (requestLine.length() == 0)
+					continue;
+
+				Map<String, String> headers = new HashMap<String, String>();
+				String line;
+				while ((line = readLine(in)) != null && line.length() > 0) {
+					int colon = line.indexOf(':');
+					if (colon > 0)
+						headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+								line.substring(colon + 1).trim());
+				}
+
+				String[] parts = requestLine.split(" ");
+				keepAlive = !"close".equalsIgnoreCase(headers.get("connection"))
+						&& !(parts.length > 2 && parts[2].equals("HTTP/1.0")
+								&& !"keep-alive".equalsIgnoreCase(headers.get("connection")));
+
+				Response response;
+				if (parts.length < 2 || !parts[0].equals("GET"))
+					response = new Response(405, SyntheticPayloads.error("405", "Method not allowed"));
+				else
+					response = handle(parts[1], headers);
+
+				write(out, response, headers, keepAlive);
+			}
+		} catch (SocketException e) {
+			// client went away
+		} catch (IOException e) {
+			System.err.println("Connection failed: " + e.getMessage());
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing more to do
+			}
+		}
+	}
+
+	/**
+	 * Produce response to a request for a target (path and query)
+	 */
+	private Response handle(String target, Map<String, String> headers) {
+		simulateLatency();
+
+		if (shouldFail())
+			return new Response(500, SyntheticPayloads.error("500", "Simulated server error"));
+
+		int queryStart = target.indexOf('?');
+		String path = (queryStart < 0 ? target : target.substring(0, queryStart));
+		Map<String, String> query = parseQuery(queryStart < 0 ? "" : target.substring(queryStart + 1));
+
+		if (!path.startsWith(API_PATH))
+			return new Response(404, SyntheticPayloads.error("404", "Not found"));
+
+		String[] segments = path.substring(API_PATH.length()).split("/");
+		String kind;
+		String stopNo;
+
+		if (segments.length == 1 && segments[0].equals("buses")) {
+			kind = "buses";
+			stopNo = query.get("stopno");
+		} else if (segments.length == 2 && segments[0].equals("stops")) {
+			kind = "stop";
+			stopNo = segments[1];
+		} else if (segments.length == 3 && segments[0].equals("stops") && segments[2].equals("estimates")) {
+			kind = "estimates";
+			stopNo = segments[1];
+		} else
+			return new Response(404, SyntheticPayloads.error("404", "Not found"));
+
+		int stop;
+		try {
+			stop = Integer.parseInt(stopNo);
+		} catch (NumberFormatException e) {
+			return new Response(404, SyntheticPayloads.error("3001", "Invalid stop number"));
+		}
+
+		Response response;
+		try {
+			response = respond(kind, stop, target);
+		} catch (IOException e) {
+			return new Response(502, SyntheticPayloads.error("502", e.getMessage()));
+		}
+
+		if (kind.equals("stop") && response.status == 200) {
+			response.etag = "\"" + Integer.toHexString(response.body.hashCode()) + "\"";
+			if (response.etag.equals(headers.get("if-none-match")))
+				return new Response(304, response.etag);
+		}
+
+		return response;
+	}
+
+	private Response respond(String kind, int stop, String target) throws IOException {
+		switch (config.getMode()) {
+		case RECORD:
+			Response upstream = fetchUpstream(target);
+			if (upstream.status == 200)
+				fixtures.save(kind, stop, upstream.body);
+			return upstream;
+		case REPLAY:
+			String recorded = fixtures.load(kind, stop);
+			if (recorded != null)
+				return new Response(200, recorded);
+			return new Response(200, synthetic(kind, stop));
+		default:
+			return new Response(200, synthetic(kind, stop));
+		}
+	}
+
+	private String synthetic(String kind, int stop) {
+		long now = System.currentTimeMillis();
+
+		if (kind.equals("stop"))
+			return payloads.stop(stop, config.getRoutesPerStop());
+		if (kind.equals("estimates"))
+			return payloads.estimates(stop, config.getRoutesPerStop(), config.getSchedulesPerRoute(), now);
+		return payloads.buses(stop, config.getRoutesPerStop(), config.getBusesPerStop(), now);
+	}
+
+	private Response fetchUpstream(String target) throws IOException {
+		String upstreamUrl = config.getUpstreamUrl();
+		URL url = new URL(upstreamUrl + target.substring(API_PATH.length()));
+		HttpURLConnection client = (HttpURLConnection) url.openConnection();
+
+		try {
+			client.setRequestProperty("Accept", "application/json");
+			int status = client.getResponseCode();
+			InputStream in = (status >= 400 ? client.getErrorStream() : client.getInputStream());
+			return new Response(status, in == null ? "" : readFully(in));
+		} finally {
+			client.disconnect();
+		}
+	}
+
+	private void simulateLatency() {
+		long delay = config.getLatency();
+		if (config.getLatencyJitter() > 0) {
+			synchronized (random) {
+				delay += (long) (random.nextDouble() * config.getLatencyJitter());
+			}
+		}
+
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private boolean shouldFail() {
+		if (config.getErrorRate() <= 0)
+			return false;
+		synchronized (random) {
+			return random.nextDouble() < config.getErrorRate();
+		}
+	}
+
+	private void write(OutputStream out, Response response, Map<String, String> requestHeaders,
+			boolean keepAlive) throws IOException {
+		byte[] body = (response.status == 304 ? new byte[0] : response.body.getBytes(CHARSET));
+		String acceptEncoding = requestHeaders.get("accept-encoding");
+		boolean gzip = body.length > 0 && acceptEncoding != null && acceptEncoding.contains("gzip");
+
+		if (gzip) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+			GZIPOutputStream zip = new GZIPOutputStream(compressed);
+			zip.write(body);
+			zip.close();
+			body = compressed.toByteArray();
+		}
+
+		StringBuilder head = new StringBuilder(256);
+		head.append("HTTP/1.1 ").append(response.status).append(' ').append(reason(response.status)).append("\r\n");
+		head.append("Content-Type: application/json; charset=utf-8\r\n");
+		head.append("Content-Length: ").append(body.length).append("\r\n");
+		if (gzip)
+			head.append("Content-Encoding: gzip\r\n");
+		if (response.etag != null)
+			head.append("ETag: ").append(response.etag).append("\r\n");
+		else if (response.status == 304)
+			head.append("ETag: ").append(response.body).append("\r\n");
+		head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+
+		out.write(head.toString().getBytes(CHARSET));
+		out.write(body);
+		out.flush();
+	}
+
+	private static String reason(int status) {
+		switch (status) {
+		case 200: return "OK";
+		case 304: return "Not Modified";
+		case 404: return "Not Found";
+		case 405: return "Method Not Allowed";
+		case 500: return "Internal Server Error";
+		case 502: return "Bad Gateway";
+		default: return "Unknown";
+		}
+	}
+
+	/**
+	 * Parse query string into map with lower case parameter names
+	 */
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> params = new HashMap<String, String>();
+		for (String next : query.split("&")) {
+			int eq = next.indexOf('=');
+			if (eq > 0)
+				params.put(next.substring(0, eq).toLowerCase(Locale.US), next.substring(eq + 1));
+		}
+		return params;
+	}
+
+	/**
+	 * Read a CRLF (or LF) terminated line of ASCII text
+	 * @return  the line, or null at end of stream
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder(128);
+		int c;
+
+		while ((c = in.read()) != -1) {
+			if (c == '\n') {
+				int length = line.length();
+				if (length > 0 && line.charAt(length - 1) == '\r')
+					line.setLength(length - 1);
+				return line.toString();
+			}
+			if (line.length() >= MAX_LINE_LENGTH)
+				throw new IOException("Request line too long");
+			line.append((char) c);
+		}
+
+		return (line.length() == 0 ? null : line.toString());
+	}
+
+	private static String readFully(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+			return out.toString(CHARSET);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Response status and body
+	 */
+	private static class Response {
+		private final int status;
+		private final String body;
+		private String etag;
+
+		Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * Run stand-in server until the process is killed
+	 * @param args  options as described in StandInConfig.fromArgs
+	 */
+	public static void main(String[] args) throws IOException {
+		StandInConfig config = StandInConfig.fromArgs(args);
+		RttiStandInServer server = new RttiStandInServer(config);
+		server.start();
+		System.out.println("RTTI stand-in (" + config.getMode() + ") listening at " + server.getBaseUrl());
+
+		try {
+			Thread.currentThread().join();
+		} catch (InterruptedException e) {
+			server.stop();
+		}
+	}
+}
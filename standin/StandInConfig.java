@@ -0,0 +1,204 @@
+package ca.ubc.cpsc210.standin;
+
+import java.io.File;
+
+/**
+ * Configuration of the RTTI stand-in server: where payloads come from,
+ * how large synthetic payloads are, and how slow and unreliable the server
+ * should appear to be.
+ */
+public class StandInConfig {
+
+	/**
+	 * Where responses come from
+	 */
+	public enum Mode {
+		/**
+		 * Generate payloads of the configured size
+		 */
+		SYNTHETIC,
+
+		/**
+		 * Serve recorded fixtures, generating a payload when no fixture exists
+		 */
+		REPLAY,
+
+		/**
+		 * Forward requests to the upstream API and record responses as fixtures
+		 */
+		RECORD
+	}
+
+	private int port = 8080;
+	private Mode mode = Mode.SYNTHETIC;
+	private File fixtureDir = new File("fixtures");
+	private String upstreamUrl = "http://api.translink.ca/RTTIAPI/V1/";
+	private long latency = 0;
+	private long latencyJitter = 0;
+	private double errorRate = 0;
+	private int routesPerStop = 4;
+	private int schedulesPerRoute = 6;
+	private int busesPerStop = 10;
+	private long seed = 210;
+
+	/**
+	 * Parses configuration from command line arguments of the form
+	 * --name value.  Unrecognised arguments cause IllegalArgumentException.
+	 * @param args  command line arguments
+	 * @return  configuration
+	 */
+	public static StandInConfig fromArgs(String[] args) {
+		StandInConfig config = new StandInConfig();
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String name = args[i];
+			String value = args[i + 1];
+
+			if (name.equals("--port"))
+				config.port = Integer.parseInt(value);
+			else if (name.equals("--mode"))
+				config.mode = Mode.valueOf(value.toUpperCase());
+			else if (name.equals("--fixtures"))
+				config.fixtureDir = new File(value);
+			else if (name.equals("--upstream"))
+				config.upstreamUrl = value;
+			else if (name.equals("--latency"))
+				config.latency = Long.parseLong(value);
+			else if (name.equals("--jitter"))
+				config.latencyJitter = Long.parseLong(value);
+			else if (name.equals("--error-rate"))
+				config.errorRate = Double.parseDouble(value);
+			else if (name.equals("--routes"))
+				config.routesPerStop = Integer.parseInt(value);
+			else if (name.equals("--schedules"))
+				config.schedulesPerRoute = Integer.parseInt(value);
+			else if (name.equals("--buses"))
+				config.busesPerStop = Integer.parseInt(value);
+			else if (name.equals("--seed"))
+				config.seed = Long.parseLong(value);
+			else
+				throw new IllegalArgumentException("Unknown option " + name);
+		}
+
+		if (args.length % 2 != 0)
+			throw new IllegalArgumentException("Missing value for " + args[args.length - 1]);
+
+		return config;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public StandInConfig setPort(int port) {
+		this.port = port;
+		return this;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public StandInConfig setMode(Mode mode) {
+		this.mode = mode;
+		return this;
+	}
+
+	public File getFixtureDir() {
+		return fixtureDir;
+	}
+
+	public StandInConfig setFixtureDir(File fixtureDir) {
+		this.fixtureDir = fixtureDir;
+		return this;
+	}
+
+	public String getUpstreamUrl() {
+		return upstreamUrl;
+	}
+
+	public StandInConfig setUpstreamUrl(String upstreamUrl) {
+		this.upstreamUrl = (upstreamUrl.endsWith("/") ? upstreamUrl : upstreamUrl + "/");
+		return this;
+	}
+
+	/**
+	 * Gets fixed delay added to every response
+	 * @return  latency in milliseconds
+	 */
+	public long getLatency() {
+		return latency;
+	}
+
+	public StandInConfig setLatency(long latency) {
+		this.latency = latency;
+		return this;
+	}
+
+	/**
+	 * Gets upper bound of random delay added to latency
+	 * @return  jitter in milliseconds
+	 */
+	public long getLatencyJitter() {
+		return latencyJitter;
+	}
+
+	public StandInConfig setLatencyJitter(long latencyJitter) {
+		this.latencyJitter = latencyJitter;
+		return this;
+	}
+
+	/**
+	 * Gets fraction of requests answered with HTTP 500
+	 * @return  error rate between 0 and 1
+	 */
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	public StandInConfig setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+		return this;
+	}
+
+	public int getRoutesPerStop() {
+		return routesPerStop;
+	}
+
+	public StandInConfig setRoutesPerStop(int routesPerStop) {
+		this.routesPerStop = routesPerStop;
+		return this;
+	}
+
+	public int getSchedulesPerRoute() {
+		return schedulesPerRoute;
+	}
+
+	public StandInConfig setSchedulesPerRoute(int schedulesPerRoute) {
+		this.schedulesPerRoute = schedulesPerRoute;
+		return this;
+	}
+
+	public int getBusesPerStop() {
+		return busesPerStop;
+	}
+
+	public StandInConfig setBusesPerStop(int busesPerStop) {
+		this.busesPerStop = busesPerStop;
+		return this;
+	}
+
+	/**
+	 * Gets seed from which synthetic payloads are generated; the same seed
+	 * and sizes always produce the same payloads
+	 * @return  random seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	public StandInConfig setSeed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+}
@@ -0,0 +1,192 @@
+package ca.ubc.cpsc210.standin;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates realistic RTTI API payloads of configurable size.  Payloads
+ * have the same fields as real Translink responses (including the ones
+ * this app ignores), so they exercise parsing as real data would.  The
+ * same seed, stop number and sizes always produce the same payload.
+ */
+public class SyntheticPayloads {
+	private static final String[] STREETS = { "UNIVERSITY BLVD", "W BROADWAY", "GRANVILLE ST",
+			"W 4TH AVE", "MAIN ST", "KINGSWAY", "COMMERCIAL DR", "HASTINGS ST", "DUNBAR ST" };
+	private static final String[] DESTINATIONS = { "UBC", "DOWNTOWN", "COMMERCIAL-BROADWAY STN",
+			"JOYCE STN", "KNIGHT STREET", "DUNBAR LOOP", "STANLEY PARK", "BOUNDARY" };
+	private static final String[] DIRECTIONS = { "EAST", "WEST", "NORTH", "SOUTH" };
+
+	private static final double BASE_LAT = 49.2612;
+	private static final double BASE_LON = -123.1139;
+
+	private long seed;
+
+	/**
+	 * Constructor
+	 * @param seed  seed from which payloads are generated
+	 */
+	public SyntheticPayloads(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Gets names of routes serving a stop
+	 * @param numRoutes  number of routes
+	 * @return  route names, e.g. "004", "099"
+	 */
+	public String[] routeNames(int stopNo, int numRoutes) {
+		Random random = random(stopNo, 1);
+		String[] names = new String[numRoutes];
+		int next = 1 + random.nextInt(20);
+
+		for (int i = 0; i < numRoutes; i++) {
+			names[i] = String.format(Locale.US, "%03d", next);
+			next += 1 + random.nextInt(30);
+		}
+
+		return names;
+	}
+
+	/**
+	 * Produce response to stops/{stopNo}
+	 * @param stopNo     stop number
+	 * @param numRoutes  number of routes serving stop
+	 * @return  JSON object describing stop
+	 */
+	public String stop(int stopNo, int numRoutes) {
+		Random random = random(stopNo, 0);
+		String onStreet = STREETS[random.nextInt(STREETS.length)];
+		String atStreet = STREETS[random.nextInt(STREETS.length)];
+		StringBuilder json = new StringBuilder(256);
+
+		json.append("{\"StopNo\":").append(stopNo)
+			.append(",\"Name\":\"").append(onStreet).append(" AT ").append(atStreet).append('"')
+			.append(",\"BayNo\":\"N\",\"City\":\"VANCOUVER\"")
+			.append(",\"OnStreet\":\"").append(onStreet).append('"')
+			.append(",\"AtStreet\":\"").append(atStreet).append('"')
+			.append(",\"Latitude\":").append(coordinate(BASE_LAT, random))
+			.append(",\"Longitude\":").append(coordinate(BASE_LON, random))
+			.append(",\"WheelchairAccess\":1,\"Distance\":-1,\"Routes\":\"");
+
+		String[] routes = routeNames(stopNo, numRoutes);
+		for (int i = 0; i < routes.length; i++) {
+			if (i > 0)
+				json.append(", ");
+			json.append(routes[i]);
+		}
+
+		return json.append("\"}").toString();
+	}
+
+	/**
+	 * Produce response to stops/{stopNo}/estimates
+	 * @param stopNo             stop number
+	 * @param numRoutes          number of routes serving stop
+	 * @param schedulesPerRoute  number of estimates for each route
+	 * @param now                current time in milliseconds since the epoch
+	 * @return  JSON array of route schedules
+	 */
+	public String estimates(int stopNo, int numRoutes, int schedulesPerRoute, long now) {
+		Random random = random(stopNo, 2);
+		String[] routes = routeNames(stopNo, numRoutes);
+		StringBuilder json = new StringBuilder(200 + numRoutes * (150 + schedulesPerRoute * 300));
+
+		json.append('[');
+		for (int r = 0; r < routes.length; r++) {
+			String direction = DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+			if (r > 0)
+				json.append(',');
+			json.append("{\"RouteNo\":\"").append(routes[r])
+				.append("\",\"RouteName\":\"ROUTE ").append(routes[r])
+				.append("\",\"Direction\":\"").append(direction)
+				.append("\",\"RouteMap\":{\"Href\":\"http://nb.translink.ca/geodata/")
+				.append(routes[r]).append(".kmz\"},\"Schedules\":[");
+
+			int countdown = random.nextInt(4) - 1;
+			for (int s = 0; s < schedulesPerRoute; s++) {
+				boolean cancelledTrip = random.nextInt(40) == 0;
+				boolean cancelledStop = random.nextInt(60) == 0;
+				if (s > 0)
+					json.append(',');
+				json.append("{\"Pattern\":\"").append(direction.charAt(0)).append("B1")
+					.append("\",\"Destination\":\"").append(DESTINATIONS[random.nextInt(DESTINATIONS.length)])
+					.append("\",\"ExpectedLeaveTime\":\"").append(clockTime(now + countdown * 60000L, false))
+					.append("\",\"ExpectedCountdown\":").append(countdown)
+					.append(",\"ScheduleStatus\":\"*\",\"CancelledTrip\":").append(cancelledTrip)
+					.append(",\"CancelledStop\":").append(cancelledStop)
+					.append(",\"AddedTrip\":false,\"AddedStop\":false,\"LastUpdate\":\"")
+					.append(clockTime(now - random.nextInt(300) * 1000L, true)).append("\"}");
+				countdown += 2 + random.nextInt(15);
+			}
+			json.append("]}");
+		}
+
+		return json.append(']').toString();
+	}
+
+	/**
+	 * Produce response to buses?stopNo={stopNo}
+	 * @param stopNo     stop number
+	 * @param numRoutes  number of routes serving stop
+	 * @param numBuses   number of buses
+	 * @param now        current time in milliseconds since the epoch
+	 * @return  JSON array of buses
+	 */
+	public String buses(int stopNo, int numRoutes, int numBuses, long now) {
+		Random random = random(stopNo, 3);
+		String[] routes = routeNames(stopNo, Math.max(1, numRoutes));
+		StringBuilder json = new StringBuilder(64 + numBuses * 330);
+
+		json.append('[');
+		for (int b = 0; b < numBuses; b++) {
+			String route = routes[random.nextInt(routes.length)];
+			if (b > 0)
+				json.append(',');
+			json.append("{\"VehicleNo\":\"").append(7000 + (stopNo + b * 37) % 3000)
+				.append("\",\"TripId\":").append(9000000 + random.nextInt(1000000))
+				.append(",\"RouteNo\":\"").append(route)
+				.append("\",\"Direction\":\"").append(DIRECTIONS[random.nextInt(DIRECTIONS.length)])
+				.append("\",\"Destination\":\"").append(DESTINATIONS[random.nextInt(DESTINATIONS.length)])
+				.append("\",\"Pattern\":\"WB1\",\"Latitude\":").append(coordinate(BASE_LAT, random))
+				.append(",\"Longitude\":").append(coordinate(BASE_LON, random))
+				.append(",\"RecordedTime\":\"").append(clockTime(now - random.nextInt(180) * 1000L, true))
+				.append("\",\"RouteMap\":{\"Href\":\"http://nb.translink.ca/geodata/").append(route)
+				.append(".kmz\"}}");
+		}
+
+		return json.append(']').toString();
+	}
+
+	/**
+	 * Produce Translink error object
+	 * @param code     error code
+	 * @param message  error message
+	 * @return  JSON error object
+	 */
+	public static String error(String code, String message) {
+		return "{\"Code\":\"" + code + "\",\"Message\":\"" + message + "\"}";
+	}
+
+	private Random random(int stopNo, int kind) {
+		return new Random(seed * 31 + stopNo * 4 + kind);
+	}
+
+	private static String coordinate(double base, Random random) {
+		return String.format(Locale.US, "%.6f", base + (random.nextDouble() - 0.5) * 0.2);
+	}
+
+	/**
+	 * Format time the way Translink does: "10:23:42 am" (with seconds) or "10:23am"
+	 */
+	private static String clockTime(long millis, boolean withSeconds) {
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(millis);
+		int hour = c.get(Calendar.HOUR) == 0 ? 12 : c.get(Calendar.HOUR);
+		String ampm = c.get(Calendar.AM_PM) == Calendar.AM ? "am" : "pm";
+
+		if (withSeconds)
+			return String.format(Locale.US, "%02d:%02d:%02d %s", hour, c.get(Calendar.MINUTE), c.get(Calendar.SECOND), ampm);
+		return String.format(Locale.US, "%d:%02d%s", hour, c.get(Calendar.MINUTE), ampm);
+	}
+}